@@ -25,6 +25,8 @@ public class LongPollingConstants {
     
     public static final String PROPERTY_GUID = "guid";
 
+    public static final String PROPERTY_COUNT = "count";
+
     public static final String ACTION_CREATED = "created";
 
     public static final String ACTION_UPDATED = "updated";
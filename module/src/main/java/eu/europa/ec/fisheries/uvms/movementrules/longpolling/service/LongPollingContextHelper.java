@@ -13,20 +13,27 @@ package eu.europa.ec.fisheries.uvms.movementrules.longpolling.service;
 
 import javax.ejb.ConcurrencyManagement;
 import javax.ejb.ConcurrencyManagementType;
-import javax.ejb.Lock;
-import javax.ejb.LockType;
 import javax.ejb.Singleton;
 import javax.servlet.AsyncContext;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+/**
+ * The waiting long-polling requests, oldest first per path. A request is taken exactly once, either by an event
+ * through {@link #popContext(String)} or by its timeout through {@link #remove(AsyncContext)}. A removed request is
+ * only marked as taken and left in the queue of its path, it is skipped and dropped from there later.
+ */
 @Singleton
-@ConcurrencyManagement(ConcurrencyManagementType.CONTAINER)
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
 public class LongPollingContextHelper {
 
-    private Map<String, List<AsyncContext>> asyncContexts = new HashMap<>();
+    private final ConcurrentMap<String, Deque<Poll>> asyncContexts = new ConcurrentHashMap<>();
+
+    // AsyncContext does not override equals, so this is keyed on identity
+    private final ConcurrentMap<AsyncContext, Poll> polls = new ConcurrentHashMap<>();
 
     /**
      * Adds an async context, associated with the given path.
@@ -34,15 +41,16 @@ public class LongPollingContextHelper {
      * @param ctx an asynchronous context
      * @param longPollingPath a long-polling path
      */
-    @Lock(LockType.WRITE)
     public void add(AsyncContext ctx, String longPollingPath) {
-        List<AsyncContext> ctxs = asyncContexts.get(longPollingPath);
-        if (ctxs == null) {
-            ctxs = new ArrayList<>();
-            asyncContexts.put(longPollingPath, ctxs);
+        Deque<Poll> ctxs = asyncContexts.computeIfAbsent(longPollingPath, path -> new ConcurrentLinkedDeque<>());
+        // Requests time out in the order they were added, so removed ones collect at the head
+        Poll head;
+        while ((head = ctxs.peekFirst()) != null && head.isTaken()) {
+            ctxs.remove(head);
         }
-
-        ctxs.add(ctx);
+        Poll poll = new Poll(ctx);
+        polls.put(ctx, poll);
+        ctxs.addLast(poll);
     }
 
     /**
@@ -51,24 +59,51 @@ public class LongPollingContextHelper {
      * @param longPollingPath a path
      * @return the first context for this path, or null if none exist
      */
-    @Lock(LockType.WRITE)
     public AsyncContext popContext(String longPollingPath) {
-        List<AsyncContext> ctxs = asyncContexts.get(longPollingPath);
-        if (ctxs == null || ctxs.isEmpty()) {
+        Deque<Poll> ctxs = asyncContexts.get(longPollingPath);
+        if (ctxs == null) {
             return null;
         }
+        Poll poll;
+        while ((poll = ctxs.pollFirst()) != null) {
+            if (poll.take()) {
+                polls.remove(poll.ctx);
+                return poll.ctx;
+            }
+        }
+        return null;
+    }
 
-        return ctxs.remove(0);
+    /**
+     * @return true if the context was still waiting, false if an event has already taken it
+     */
+    public boolean remove(AsyncContext ctx) {
+        Poll poll = polls.remove(ctx);
+        return poll != null && poll.take();
     }
 
-    @Lock(LockType.WRITE)
-    public void remove(AsyncContext ctx) {
-        for (List<AsyncContext> ctxs : asyncContexts.values()) {
-            if (ctxs.contains(ctx)) {
-                ctxs.remove(ctx);
-                break;
-            }
-        }
+    /**
+     * @return the number of requests queued for the path, including removed ones that have not been dropped yet
+     */
+    public int getSize(String longPollingPath) {
+        Deque<Poll> ctxs = asyncContexts.get(longPollingPath);
+        return ctxs != null ? ctxs.size() : 0;
     }
 
+    private static class Poll {
+        private final AsyncContext ctx;
+        private final AtomicBoolean taken = new AtomicBoolean();
+
+        Poll(AsyncContext ctx) {
+            this.ctx = ctx;
+        }
+
+        boolean take() {
+            return taken.compareAndSet(false, true);
+        }
+
+        boolean isTaken() {
+            return taken.get();
+        }
+    }
 }
\ No newline at end of file
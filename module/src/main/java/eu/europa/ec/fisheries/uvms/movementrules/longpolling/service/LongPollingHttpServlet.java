@@ -13,6 +13,7 @@ package eu.europa.ec.fisheries.uvms.movementrules.longpolling.service;
 
 import eu.europa.ec.fisheries.uvms.commons.notifications.NotificationMessage;
 import eu.europa.ec.fisheries.uvms.movementrules.longpolling.constants.LongPollingConstants;
+import eu.europa.ec.fisheries.uvms.movementrules.service.bean.ValidationServiceBean;
 import eu.europa.ec.fisheries.uvms.movementrules.service.dto.EventTicket;
 import eu.europa.ec.fisheries.uvms.movementrules.service.event.TicketCountEvent;
 import eu.europa.ec.fisheries.uvms.movementrules.service.event.TicketEvent;
@@ -32,7 +33,11 @@ import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.UUID;
 
 @WebServlet(asyncSupported = true, urlPatterns = { LongPollingConstants.TICKET_UPDATE_PATH, LongPollingConstants.TICKET_COUNT_PATH })
@@ -40,9 +45,17 @@ public class LongPollingHttpServlet extends HttpServlet {
 
     private static final long serialVersionUID = 1L;
 
+    private static final Logger LOG = LoggerFactory.getLogger(LongPollingHttpServlet.class);
+
     @EJB
     LongPollingContextHelper asyncContexts;
 
+    @EJB
+    TicketCountNotifier ticketCountNotifier;
+
+    @EJB
+    ValidationServiceBean validationService;
+
     @Override
     protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
         AsyncContext ctx = req.startAsync(req, resp);
@@ -52,8 +65,16 @@ public class LongPollingHttpServlet extends HttpServlet {
             @Override
             public void onTimeout(AsyncEvent event) throws IOException {
                 AsyncContext ctx = event.getAsyncContext();
-                asyncContexts.remove(ctx);
-                completePoll(ctx, createJsonMessage(null));
+                // Only if no event has taken the request in the meantime
+                if (asyncContexts.remove(ctx)) {
+                    completePoll(ctx, createJsonMessage(null));
+                }
+            }
+
+            @Override
+            public void onError(AsyncEvent event) throws IOException {
+                // The client is gone, events must not take the request any more
+                asyncContexts.remove(event.getAsyncContext());
             }
 
         });
@@ -72,7 +93,30 @@ public class LongPollingHttpServlet extends HttpServlet {
     }
 
     public void observeAlarmReportCount(@Observes(during = TransactionPhase.AFTER_SUCCESS) @TicketCountEvent NotificationMessage message) throws IOException {
-        completePoll(LongPollingConstants.TICKET_COUNT_PATH, createJsonMessageCount(true));
+        ticketCountNotifier.countChanged(this::notifyTicketCount);
+    }
+
+    /**
+     * Completes the waiting ticket count polls with the number of open tickets of their user, counted once per user.
+     */
+    protected void notifyTicketCount() {
+        Map<String, String> messages = new HashMap<>();
+        AsyncContext ctx;
+        while ((ctx = asyncContexts.popContext(LongPollingConstants.TICKET_COUNT_PATH)) != null) {
+            String user = ((HttpServletRequest) ctx.getRequest()).getRemoteUser();
+            String message = user != null ? messages.computeIfAbsent(user, this::createJsonMessageCount) : createJsonMessageCount(true);
+            completePollAsync(ctx, LongPollingConstants.TICKET_COUNT_PATH, message);
+        }
+    }
+
+    private String createJsonMessageCount(String user) {
+        try {
+            return createJsonMessageCount(true, validationService.getNumberOfOpenTickets(user));
+        } catch (RuntimeException e) {
+            // The client counts its tickets itself when no count is given
+            LOG.warn("Could not count open tickets for {}: {}", user, e.getMessage());
+            return createJsonMessageCount(true);
+        }
     }
 
     protected String createJsonMessage(String guid) {
@@ -99,13 +143,31 @@ public class LongPollingHttpServlet extends HttpServlet {
         return Json.createObjectBuilder().add(LongPollingConstants.ACTION_UPDATED, value).build().toString();
     }
 
+    protected String createJsonMessageCount(boolean value, long count) {
+        return Json.createObjectBuilder()
+                .add(LongPollingConstants.ACTION_UPDATED, value)
+                .add(LongPollingConstants.PROPERTY_COUNT, count)
+                .build().toString();
+    }
+
     protected void completePoll(String resourcePath, String message) throws IOException {
         AsyncContext ctx = null;
         while ((ctx = asyncContexts.popContext(resourcePath)) != null) {
-            completePoll(ctx, message);
+            completePollAsync(ctx, resourcePath, message);
         }
     }
 
+    // Written on a container thread, so the observer of the event does not wait for slow clients
+    private void completePollAsync(AsyncContext ctx, String resourcePath, String message) {
+        ctx.start(() -> {
+            try {
+                completePoll(ctx, message);
+            } catch (IOException | RuntimeException e) {
+                LOG.debug("Could not complete long-polling request on {}: {}", resourcePath, e.getMessage());
+            }
+        });
+    }
+
     protected void completePoll(AsyncContext ctx, String jsonMessage) throws IOException {
         ctx.getResponse().setContentType(LongPollingConstants.CONTENT_TYPE_APPLICATION_JSON);
         ctx.getResponse().getWriter().write(jsonMessage);
@@ -119,11 +181,6 @@ public class LongPollingHttpServlet extends HttpServlet {
             // Do nothing
         }
 
-        @Override
-        public void onError(AsyncEvent event) throws IOException {
-            // Do nothing
-        }
-
         @Override
         public void onStartAsync(AsyncEvent event) throws IOException {
             // Do nothing
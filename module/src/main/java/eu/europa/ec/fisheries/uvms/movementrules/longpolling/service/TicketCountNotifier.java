@@ -0,0 +1,101 @@
+/*
+﻿Developed with the contribution of the European Commission - Directorate General for Maritime Affairs and Fisheries
+© European Union, 2015-2016.
+
+This file is part of the Integrated Fisheries Data Management (IFDM) Suite. The IFDM Suite is free software: you can
+redistribute it and/or modify it under the terms of the GNU General Public License as published by the
+Free Software Foundation, either version 3 of the License, or any later version. The IFDM Suite is distributed in
+the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details. You should have received a
+copy of the GNU General Public License along with the IFDM Suite. If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.europa.ec.fisheries.uvms.movementrules.longpolling.service;
+
+import eu.europa.ec.fisheries.uvms.config.service.ParameterService;
+import eu.europa.ec.fisheries.uvms.movementrules.service.config.ParameterKey;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.EJB;
+import javax.ejb.Singleton;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collapses the ticket count changes within a window into one notification of the waiting clients. The first change
+ * starts the window, the changes that follow before it ends are part of the same notification. The window is read
+ * from TICKET_COUNT_NOTIFICATION_WINDOW in milliseconds.
+ */
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class TicketCountNotifier {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TicketCountNotifier.class);
+
+    private static final long DEFAULT_WINDOW_MILLISECONDS = 500;
+
+    @EJB
+    private ParameterService parameterService;
+
+    private ScheduledExecutorService executorService;
+
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    private final LongAdder changes = new LongAdder();
+
+    private final LongAdder notifications = new LongAdder();
+
+    @PostConstruct
+    public void init() {
+        executorService = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @PreDestroy
+    public void destroy() {
+        executorService.shutdownNow();
+    }
+
+    /**
+     * Runs the notification at the end of the current window, starting a window if none is open.
+     */
+    public void countChanged(Runnable notification) {
+        changes.increment();
+        if (!scheduled.compareAndSet(false, true)) {
+            return;
+        }
+        executorService.schedule(() -> {
+            // Changes from here on open the next window, they may not be part of this notification
+            scheduled.set(false);
+            notifications.increment();
+            try {
+                notification.run();
+            } catch (Exception e) {
+                LOG.error("Could not notify ticket count change", e);
+            }
+        }, getWindow(), TimeUnit.MILLISECONDS);
+    }
+
+    private long getWindow() {
+        try {
+            return Long.parseLong(parameterService.getStringValue(ParameterKey.TICKET_COUNT_NOTIFICATION_WINDOW.getKey()).trim());
+        } catch (Exception e) {
+            LOG.debug("No valid ticket count notification window configured, using {}: {}", DEFAULT_WINDOW_MILLISECONDS, e.getMessage());
+            return DEFAULT_WINDOW_MILLISECONDS;
+        }
+    }
+
+    public long getChanges() {
+        return changes.sum();
+    }
+
+    public long getNotifications() {
+        return notifications.sum();
+    }
+}
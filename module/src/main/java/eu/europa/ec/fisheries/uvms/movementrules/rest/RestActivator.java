@@ -40,6 +40,7 @@ public class RestActivator extends Application {
         set.add(InternalRestResources.class);
         set.add(SSEResource.class);
         set.add(PreviousReportRestResource.class);
+        set.add(MonitoringResource.class);
 
         set.add(JsonBConfigurator.class);
         set.add(MovementRulesRestExceptionMapper.class);
@@ -5,13 +5,16 @@ import eu.europa.ec.fisheries.schema.movementrules.module.v1.GetTicketsAndRulesB
 import eu.europa.ec.fisheries.uvms.movementrules.model.dto.MovementDetails;
 import eu.europa.ec.fisheries.uvms.movementrules.service.bean.CustomRulesEvaluator;
 import eu.europa.ec.fisheries.uvms.movementrules.service.bean.RulesServiceBean;
+import eu.europa.ec.fisheries.uvms.movementrules.service.business.ContactDetailsCache;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 
 import javax.ejb.Stateless;
 import javax.inject.Inject;
 import javax.ws.rs.Consumes;
+import javax.ws.rs.DELETE;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
@@ -28,6 +31,9 @@ public class InternalRestResources {
     @Inject
     private CustomRulesEvaluator customRuleEvaluator;
 
+    @Inject
+    private ContactDetailsCache contactDetailsCache;
+
     @POST
     @Path("/tickets-and-rules-by-movement")
     public Response getTicketsAndRulesByMovementsEvent(GetTicketsAndRulesByMovementsRequest request) {
@@ -46,4 +52,19 @@ public class InternalRestResources {
             return Response.serverError().entity(ExceptionUtils.getRootCause(e)).build();
         }
     }
+
+    // Called when a user has been updated so the next lookup reads the new contact details
+    @DELETE
+    @Path("/contactDetails/{username}")
+    public Response invalidateContactDetails(@PathParam("username") String username) {
+        contactDetailsCache.invalidate(username);
+        return Response.ok().build();
+    }
+
+    @DELETE
+    @Path("/contactDetails")
+    public Response invalidateAllContactDetails() {
+        contactDetailsCache.invalidateAll();
+        return Response.ok().build();
+    }
 }
@@ -0,0 +1,243 @@
+/*
+﻿Developed with the contribution of the European Commission - Directorate General for Maritime Affairs and Fisheries
+© European Union, 2015-2016.
+
+This file is part of the Integrated Fisheries Data Management (IFDM) Suite. The IFDM Suite is free software: you can
+redistribute it and/or modify it under the terms of the GNU General Public License as published by the
+Free Software Foundation, either version 3 of the License, or any later version. The IFDM Suite is distributed in
+the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details. You should have received a
+copy of the GNU General Public License along with the IFDM Suite. If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.europa.ec.fisheries.uvms.movementrules.rest.service;
+
+import eu.europa.ec.fisheries.uvms.movementrules.service.boundary.SpatialRestClient;
+import eu.europa.ec.fisheries.uvms.movementrules.longpolling.service.TicketCountNotifier;
+import eu.europa.ec.fisheries.uvms.movementrules.service.business.ActionExecutor;
+import eu.europa.ec.fisheries.uvms.movementrules.service.business.AssetNotSendingScheduler;
+import eu.europa.ec.fisheries.uvms.movementrules.service.business.ClusterMembership;
+import eu.europa.ec.fisheries.uvms.movementrules.service.business.ClusterShard;
+import eu.europa.ec.fisheries.uvms.movementrules.service.business.ContactDetailsCache;
+import eu.europa.ec.fisheries.uvms.movementrules.service.business.LastTriggeredCache;
+import eu.europa.ec.fisheries.uvms.movementrules.service.business.LeaderElection;
+import eu.europa.ec.fisheries.uvms.movementrules.service.business.PreviousReportCache;
+import eu.europa.ec.fisheries.uvms.movementrules.service.business.RuleSetSnapshot;
+import eu.europa.ec.fisheries.uvms.movementrules.service.business.RulesValidator;
+import eu.europa.ec.fisheries.uvms.movementrules.service.business.SpatialEnrichmentCache;
+import eu.europa.ec.fisheries.uvms.movementrules.service.business.TicketCountAggregator;
+import eu.europa.ec.fisheries.uvms.movementrules.service.dao.RulesDao;
+import eu.europa.ec.fisheries.uvms.rest.security.RequiresFeature;
+import eu.europa.ec.fisheries.uvms.rest.security.UnionVMSFeature;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ejb.Stateless;
+import javax.inject.Inject;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.util.HashMap;
+import java.util.Map;
+
+@Path("/monitoring")
+@Stateless
+@RequiresFeature(UnionVMSFeature.viewAlarmRules)
+@Consumes(value = {MediaType.APPLICATION_JSON})
+@Produces(value = {MediaType.APPLICATION_JSON})
+public class MonitoringResource {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MonitoringResource.class);
+
+    @Inject
+    private RulesValidator rulesValidator;
+
+    @Inject
+    private PreviousReportCache previousReportCache;
+
+    @Inject
+    private SpatialEnrichmentCache spatialEnrichmentCache;
+
+    @Inject
+    private ActionExecutor actionExecutor;
+
+    @Inject
+    private RulesDao rulesDao;
+
+    @Inject
+    private ContactDetailsCache contactDetailsCache;
+
+    @Inject
+    private LastTriggeredCache lastTriggeredCache;
+
+    @Inject
+    private TicketCountAggregator ticketCountAggregator;
+
+    @Inject
+    private AssetNotSendingScheduler assetNotSendingScheduler;
+
+    @Inject
+    private LeaderElection leaderElection;
+
+    @Inject
+    private ClusterMembership clusterMembership;
+
+    @Inject
+    private SSEResource sseResource;
+
+    @Inject
+    private TicketCountNotifier ticketCountNotifier;
+
+    @GET
+    @Path(value = "/ruleset")
+    public Response getRuleSet() {
+        try {
+            RuleSetSnapshot snapshot = rulesValidator.getSnapshot();
+            Map<String, Object> map = new HashMap<>();
+            map.put("version", snapshot.getVersion());
+            map.put("engine", snapshot.getEngine());
+            map.put("ruleCount", snapshot.getRuleCount());
+            map.put("compileDurationMillis", snapshot.getCompileDurationMillis());
+            map.put("published", snapshot.getPublished());
+            map.put("pruningRatio", rulesValidator.getPruningRatio());
+            return Response.ok(map).build();
+        } catch (Exception ex) {
+            LOG.error("[ Error when getting rule set status. ] {} ", ex.getMessage());
+            throw ex;
+        }
+    }
+
+    @GET
+    @Path(value = "/previousreports")
+    public Response getPreviousReports() {
+        try {
+            Map<String, Object> map = new HashMap<>();
+            map.put("cacheSize", previousReportCache.getSize());
+            map.put("pendingWrites", previousReportCache.getPendingWrites());
+            return Response.ok(map).build();
+        } catch (Exception ex) {
+            LOG.error("[ Error when getting previous report status. ] {} ", ex.getMessage());
+            throw ex;
+        }
+    }
+
+    @GET
+    @Path(value = "/spatial")
+    public Response getSpatial() {
+        try {
+            Map<String, Object> map = new HashMap<>();
+            map.put("enrichment", rulesValidator.getSnapshot().getSpatialEnrichment());
+            map.put("cacheHitRatio", spatialEnrichmentCache.getHitRatio());
+            map.put("cacheCells", spatialEnrichmentCache.getSize());
+            map.put("cacheEstimatedBytes", spatialEnrichmentCache.getEstimatedBytes());
+            map.put("callsSkipped", SpatialRestClient.getSkippedCalls());
+            return Response.ok(map).build();
+        } catch (Exception ex) {
+            LOG.error("[ Error when getting spatial enrichment status. ] {} ", ex.getMessage());
+            throw ex;
+        }
+    }
+
+    @GET
+    @Path(value = "/actions")
+    public Response getActions() {
+        try {
+            Map<String, Object> map = new HashMap<>();
+            map.put("queueDepth", actionExecutor.getQueueDepth());
+            map.put("activeWorkers", actionExecutor.getActiveWorkers());
+            map.put("latencyMillis", actionExecutor.getAverageLatencyMillis());
+            map.put("notExecuted", actionExecutor.getNotExecuted());
+            map.put("outboxPending", rulesDao.countPendingActions());
+            map.put("outboxFailed", rulesDao.countFailedActions());
+            return Response.ok(map).build();
+        } catch (Exception ex) {
+            LOG.error("[ Error when getting action status. ] {} ", ex.getMessage());
+            throw ex;
+        }
+    }
+
+    @GET
+    @Path(value = "/contactdetails")
+    public Response getContactDetails() {
+        try {
+            Map<String, Object> map = new HashMap<>();
+            map.put("cacheSize", contactDetailsCache.getSize());
+            map.put("cacheHitRatio", contactDetailsCache.getHitRatio());
+            return Response.ok(map).build();
+        } catch (Exception ex) {
+            LOG.error("[ Error when getting contact details status. ] {} ", ex.getMessage());
+            throw ex;
+        }
+    }
+
+    @GET
+    @Path(value = "/tickets")
+    public Response getTickets() {
+        try {
+            Map<String, Object> map = new HashMap<>();
+            map.put("lastTriggeredPendingWrites", lastTriggeredCache.getPendingWrites());
+            map.put("aggregatedCounters", ticketCountAggregator.getSize());
+            map.put("aggregatedInvocationsPending", ticketCountAggregator.getPendingInvocations());
+            map.put("countChanges", ticketCountNotifier.getChanges());
+            map.put("countNotifications", ticketCountNotifier.getNotifications());
+            return Response.ok(map).build();
+        } catch (Exception ex) {
+            LOG.error("[ Error when getting ticket status. ] {} ", ex.getMessage());
+            throw ex;
+        }
+    }
+
+    @GET
+    @Path(value = "/assetnotsending")
+    public Response getAssetNotSending() {
+        try {
+            Map<String, Object> map = new HashMap<>();
+            map.put("scheduled", assetNotSendingScheduler.getSize());
+            map.put("nextDeadline", assetNotSendingScheduler.getNextDeadline());
+            map.put("fired", assetNotSendingScheduler.getFired());
+            return Response.ok(map).build();
+        } catch (Exception ex) {
+            LOG.error("[ Error when getting asset not sending status. ] {} ", ex.getMessage());
+            throw ex;
+        }
+    }
+
+    @GET
+    @Path(value = "/cluster")
+    public Response getCluster() {
+        try {
+            ClusterShard shard = clusterMembership.getShard();
+            Map<String, Object> map = new HashMap<>();
+            map.put("leaseNode", leaderElection.getNode());
+            map.put("leaseHolder", leaderElection.getHolder());
+            map.put("leaseExpires", leaderElection.getLeaseExpires());
+            map.put("leaseHeld", leaderElection.isLeader());
+            map.put("leaseAcquisitions", leaderElection.getAcquisitions());
+            map.put("nodes", shard.getNodes());
+            map.put("shardIndex", shard.getIndex());
+            map.put("shardCount", shard.getCount());
+            map.put("rebalances", clusterMembership.getRebalances());
+            return Response.ok(map).build();
+        } catch (Exception ex) {
+            LOG.error("[ Error when getting cluster status. ] {} ", ex.getMessage());
+            throw ex;
+        }
+    }
+
+    @GET
+    @Path(value = "/sse")
+    public Response getSse() {
+        try {
+            Map<String, Object> map = new HashMap<>();
+            map.put("eventsPushed", sseResource.getEventsPushed());
+            map.put("eventsPerSecond", sseResource.getEventsPerSecond());
+            map.put("bytesPerSecond", sseResource.getBytesPerSecond());
+            return Response.ok(map).build();
+        } catch (Exception ex) {
+            LOG.error("[ Error when getting SSE status. ] {} ", ex.getMessage());
+            throw ex;
+        }
+    }
+}
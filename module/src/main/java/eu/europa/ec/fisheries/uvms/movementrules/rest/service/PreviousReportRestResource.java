@@ -1,5 +1,6 @@
 package eu.europa.ec.fisheries.uvms.movementrules.rest.service;
 
+import eu.europa.ec.fisheries.uvms.movementrules.service.business.PreviousReportCache;
 import eu.europa.ec.fisheries.uvms.movementrules.service.dao.RulesDao;
 import eu.europa.ec.fisheries.uvms.movementrules.service.entity.PreviousReport;
 import eu.europa.ec.fisheries.uvms.rest.security.RequiresFeature;
@@ -26,6 +27,9 @@ public class PreviousReportRestResource {
     @Inject
     private RulesDao rulesDao;
 
+    @Inject
+    private PreviousReportCache previousReportCache;
+
     @GET
     @Path("/list")
     @RequiresFeature(UnionVMSFeature.viewAlarmRules)
@@ -44,6 +48,7 @@ public class PreviousReportRestResource {
     @RequiresFeature(UnionVMSFeature.manageGlobalAlarmsRules)
     public Response deletePreviousReportByAssetGuid(@PathParam("assetGuid") String assetGuid){
         try {
+            previousReportCache.invalidate(assetGuid);
             PreviousReport previousReport = rulesDao.getPreviousReportByAssetGuid(assetGuid);
             rulesDao.deletePreviousReport(previousReport);
             return Response.ok().build();
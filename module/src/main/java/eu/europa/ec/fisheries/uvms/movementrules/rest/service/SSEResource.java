@@ -1,13 +1,23 @@
 package eu.europa.ec.fisheries.uvms.movementrules.rest.service;
 
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.PostConstruct;
 import javax.enterprise.context.ApplicationScoped;
 import javax.enterprise.event.Observes;
 import javax.enterprise.event.TransactionPhase;
+import javax.json.bind.Jsonb;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.SecurityContext;
 import javax.ws.rs.sse.OutboundSseEvent;
@@ -15,11 +25,10 @@ import javax.ws.rs.sse.Sse;
 import javax.ws.rs.sse.SseEventSink;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import eu.europa.ec.fisheries.schema.movementrules.customrule.v1.AvailabilityType;
-import eu.europa.ec.fisheries.schema.movementrules.customrule.v1.SubscriptionTypeType;
+import eu.europa.ec.fisheries.uvms.commons.date.JsonBConfigurator;
+import eu.europa.ec.fisheries.uvms.movementrules.rest.service.TicketEventBuffer.BufferedEvent;
+import eu.europa.ec.fisheries.uvms.movementrules.service.business.RuleMetadata;
 import eu.europa.ec.fisheries.uvms.movementrules.service.dto.EventTicket;
-import eu.europa.ec.fisheries.uvms.movementrules.service.entity.RuleSubscription;
-import eu.europa.ec.fisheries.uvms.movementrules.service.entity.Ticket;
 import eu.europa.ec.fisheries.uvms.movementrules.service.event.TicketEvent;
 import eu.europa.ec.fisheries.uvms.movementrules.service.event.TicketUpdateEvent;
 import eu.europa.ec.fisheries.uvms.movementrules.service.mapper.TicketMapper;
@@ -33,21 +42,69 @@ public class SSEResource {
 
     private static final Logger LOG = LoggerFactory.getLogger(SSEResource.class);
 
-    private ConcurrentLinkedQueue<UserSseEventSink> userSinks = new ConcurrentLinkedQueue<>();
+    private static final int REPLAY_CAPACITY = 1000;
+
+    // Open sinks by user, a user has one sink per browser tab
+    private ConcurrentMap<String, Set<UserSseEventSink>> userSinks = new ConcurrentHashMap<>();
 
     @Context
     private Sse sse;
-    
+
+    private Jsonb jsonb;
+
+    // Also guards registering a sink and choosing the recipients of an event, so a reconnecting client gets every
+    // event exactly once, either replayed or live
+    private final TicketEventBuffer buffer = new TicketEventBuffer(REPLAY_CAPACITY);
+
+    private final Throughput events = new Throughput();
+
+    private final Throughput bytes = new Throughput();
+
+    @PostConstruct
+    public void init() {
+        jsonb = new JsonBConfigurator().getContext(null);
+    }
+
     @GET
     @Path("subscribe")
     @Produces(MediaType.SERVER_SENT_EVENTS)
-    public void subscribe(@Context SseEventSink sseEventSink, @Context SecurityContext securityContext) {
+    public void subscribe(@Context SseEventSink sseEventSink, @Context SecurityContext securityContext,
+                          @HeaderParam(HttpHeaders.LAST_EVENT_ID_HEADER) String lastEventId) {
         sseEventSink.send(sse.newEvent("UVMS SSE Ticket notifications"));
         String user = securityContext.getUserPrincipal().getName();
-        userSinks.add(new UserSseEventSink(user, sseEventSink));
+        UserSseEventSink userSink = new UserSseEventSink(user, sseEventSink);
+        synchronized (buffer) {
+            userSinks.compute(user, (key, sinks) -> {
+                Set<UserSseEventSink> userSet = sinks != null ? sinks : ConcurrentHashMap.newKeySet();
+                userSet.add(userSink);
+                return userSet;
+            });
+            if (lastEventId != null) {
+                replay(userSink, lastEventId);
+            }
+        }
         sseEventSink.send(sse.newEvent("User " + user + " is now registered"));
     }
 
+    private void replay(UserSseEventSink userSink, String lastEventId) {
+        List<BufferedEvent> missed;
+        try {
+            missed = buffer.after(Long.parseLong(lastEventId), userSink.getUser());
+        } catch (NumberFormatException e) {
+            missed = null;
+        }
+        if (missed == null) {
+            // Too old or from another node, the client has to reload its tickets
+            LOG.debug("Cannot replay events after {} for {}", lastEventId, userSink.getUser());
+            userSink.getEventSink().send(sse.newEventBuilder().name("TicketResync").data("Missed events are no longer available").build());
+            return;
+        }
+        LOG.debug("Replaying {} events after {} for {}", missed.size(), lastEventId, userSink.getUser());
+        for (BufferedEvent event : missed) {
+            userSink.getEventSink().send(createSseEvent(event));
+        }
+    }
+
     public void updatedTicket(@Observes(during = TransactionPhase.AFTER_SUCCESS) @TicketUpdateEvent EventTicket ticket) {
         sendEvent(ticket, "TicketUpdate");
     }
@@ -57,44 +114,126 @@ public class SSEResource {
     }
     
     private void sendEvent(EventTicket eventTicket, String eventName) {
-        if (eventTicket.getCustomRule() == null) {
+        RuleMetadata rule = eventTicket.getRuleMetadata();
+        if (rule == null) {
             LOG.error("Rule in eventTicket {} is null", eventTicket.getTicket().getRuleName());
             return;
         }
-        OutboundSseEvent sseEvent = createSseEvent(eventTicket.getTicket(), eventName);
-        
-        userSinks.stream().forEach(userSink -> {
+        // Serialized once here, every sink writes the same string
+        String json = jsonb.toJson(TicketMapper.toTicketType(eventTicket.getTicket()));
+        int size = json.getBytes(StandardCharsets.UTF_8).length;
+        OutboundSseEvent sseEvent;
+        List<UserSseEventSink> recipients = new ArrayList<>();
+        synchronized (buffer) {
+            sseEvent = createSseEvent(buffer.append(eventName, json, rule));
+            if (rule.isGlobal()) {
+                userSinks.values().forEach(recipients::addAll);
+            } else {
+                for (String user : rule.getTicketSubscribers()) {
+                    Set<UserSseEventSink> sinks = userSinks.get(user);
+                    if (sinks != null) {
+                        recipients.addAll(sinks);
+                    }
+                }
+            }
+        }
+        send(recipients, sseEvent, size);
+        LOG.debug("Users with open sinks: {}", userSinks.size());
+    }
+
+    private void send(List<UserSseEventSink> sinks, OutboundSseEvent sseEvent, int size) {
+        for (UserSseEventSink userSink : sinks) {
+            // Closed sinks are only noticed when there is something to send to them
             if (userSink.getEventSink().isClosed()) {
-                userSinks.remove(userSink);
+                remove(userSink);
+                continue;
             }
-        });
-        
-        userSinks.stream().forEach(userSink -> {
-            for (RuleSubscription subscription : eventTicket.getCustomRule().getRuleSubscriptionList()) {
-                if ((userSink.getUser().equals(subscription.getOwner()) && subscription.getType().equals(SubscriptionTypeType.TICKET.value())) 
-                        || eventTicket.getCustomRule().getAvailability().equals(AvailabilityType.GLOBAL.value())) {
-                    LOG.debug("Broadcasting to {}", subscription.getOwner());
-                    userSink.getEventSink().send(sseEvent).whenComplete((object, error) -> {
-                        if (error != null) {
-                            userSinks.remove(userSink);
-                        }
-                     });
+            LOG.debug("Broadcasting to {}", userSink.getUser());
+            events.add(1);
+            bytes.add(size);
+            userSink.getEventSink().send(sseEvent).whenComplete((object, error) -> {
+                if (error != null) {
+                    remove(userSink);
                 }
-            }
+            });
+        }
+    }
+
+    private void remove(UserSseEventSink userSink) {
+        userSinks.computeIfPresent(userSink.getUser(), (user, sinks) -> {
+            sinks.remove(userSink);
+            return sinks.isEmpty() ? null : sinks;
         });
-        LOG.debug("userSinks size: {}", userSinks.size());
     }
 
-    private OutboundSseEvent createSseEvent(Ticket ticket, String eventName) {
+    // The data is already JSON. The media type only picks the writer, text/plain makes sure the string is written
+    // as it is, a JSON writer would encode it once more as a JSON string.
+    private OutboundSseEvent createSseEvent(BufferedEvent event) {
         return sse.newEventBuilder()
-                .name(eventName)
-                .id(String.valueOf(System.currentTimeMillis()))
-                .mediaType(MediaType.APPLICATION_JSON_PATCH_JSON_TYPE)
-                .data(Ticket.class, TicketMapper.toTicketType(ticket))
+                .name(event.getEventName())
+                .id(String.valueOf(event.getId()))
+                .mediaType(MediaType.TEXT_PLAIN_TYPE)
+                .data(String.class, event.getJson())
                 .build();
     }
 
-    private class UserSseEventSink {
+    public long getEventsPushed() {
+        return events.getTotal();
+    }
+
+    public double getEventsPerSecond() {
+        return events.getPerSecond();
+    }
+
+    /**
+     * @return bytes of event data pushed per second, without the SSE field names
+     */
+    public double getBytesPerSecond() {
+        return bytes.getPerSecond();
+    }
+
+    /**
+     * A counter with its rate over the last completed window of {@link #WINDOW_MILLIS}.
+     */
+    private static class Throughput {
+        private static final long WINDOW_MILLIS = 10000;
+
+        private final LongAdder total = new LongAdder();
+        private volatile long windowStart = System.currentTimeMillis();
+        private long windowStartTotal;
+        private volatile double perSecond;
+
+        void add(long amount) {
+            total.add(amount);
+            roll();
+        }
+
+        long getTotal() {
+            return total.sum();
+        }
+
+        double getPerSecond() {
+            roll();
+            return perSecond;
+        }
+
+        private void roll() {
+            if (System.currentTimeMillis() - windowStart < WINDOW_MILLIS) {
+                return;
+            }
+            synchronized (this) {
+                long now = System.currentTimeMillis();
+                if (now - windowStart >= WINDOW_MILLIS) {
+                    long sum = total.sum();
+                    perSecond = (sum - windowStartTotal) * 1000.0 / (now - windowStart);
+                    windowStartTotal = sum;
+                    windowStart = now;
+                }
+            }
+        }
+    }
+
+    private static class UserSseEventSink {
         private String user;
         private SseEventSink eventSink;
         
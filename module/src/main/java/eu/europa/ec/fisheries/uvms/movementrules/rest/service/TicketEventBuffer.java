@@ -0,0 +1,99 @@
+/*
+﻿Developed with the contribution of the European Commission - Directorate General for Maritime Affairs and Fisheries
+© European Union, 2015-2016.
+
+This file is part of the Integrated Fisheries Data Management (IFDM) Suite. The IFDM Suite is free software: you can
+redistribute it and/or modify it under the terms of the GNU General Public License as published by the
+Free Software Foundation, either version 3 of the License, or any later version. The IFDM Suite is distributed in
+the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details. You should have received a
+copy of the GNU General Public License along with the IFDM Suite. If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.europa.ec.fisheries.uvms.movementrules.rest.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import eu.europa.ec.fisheries.uvms.movementrules.service.business.RuleMetadata;
+
+/**
+ * The most recent ticket events sent over SSE, kept so a client reconnecting with a Last-Event-ID gets the events it
+ * missed. Ids increase by one per event and start from the time the buffer was created, so ids from before a restart
+ * are lower than the ids after it.
+ */
+class TicketEventBuffer {
+
+    private final BufferedEvent[] events;
+
+    private final long firstId;
+
+    private long nextId;
+
+    TicketEventBuffer(int capacity) {
+        this(capacity, System.currentTimeMillis() * 1000);
+    }
+
+    TicketEventBuffer(int capacity, long firstId) {
+        this.events = new BufferedEvent[capacity];
+        this.firstId = firstId;
+        this.nextId = firstId;
+    }
+
+    synchronized BufferedEvent append(String eventName, String json, RuleMetadata rule) {
+        BufferedEvent event = new BufferedEvent(nextId++, eventName, json, rule);
+        events[index(event.getId())] = event;
+        return event;
+    }
+
+    /**
+     * @return the buffered events after {@code lastEventId} for the user, or null if some of the events after it are
+     * no longer buffered or the id was not handed out by this buffer
+     */
+    synchronized List<BufferedEvent> after(long lastEventId, String user) {
+        long oldestId = Math.max(firstId, nextId - events.length);
+        if (lastEventId < oldestId - 1 || lastEventId >= nextId) {
+            return null;
+        }
+        List<BufferedEvent> missed = new ArrayList<>();
+        for (long id = lastEventId + 1; id < nextId; id++) {
+            BufferedEvent event = events[index(id)];
+            if (event.isFor(user)) {
+                missed.add(event);
+            }
+        }
+        return missed;
+    }
+
+    private int index(long id) {
+        return (int) ((id - firstId) % events.length);
+    }
+
+    static class BufferedEvent {
+        private final long id;
+        private final String eventName;
+        private final String json;
+        private final RuleMetadata rule;
+
+        BufferedEvent(long id, String eventName, String json, RuleMetadata rule) {
+            this.id = id;
+            this.eventName = eventName;
+            this.json = json;
+            this.rule = rule;
+        }
+
+        boolean isFor(String user) {
+            return rule.isGlobal() || rule.getTicketSubscribers().contains(user);
+        }
+
+        long getId() {
+            return id;
+        }
+
+        String getEventName() {
+            return eventName;
+        }
+
+        String getJson() {
+            return json;
+        }
+    }
+}
@@ -16,11 +16,11 @@ import eu.europa.ec.fisheries.uvms.config.exception.ConfigServiceException;
 import eu.europa.ec.fisheries.uvms.config.service.ParameterService;
 import eu.europa.ec.fisheries.uvms.movementrules.model.dto.MovementDetails;
 import eu.europa.ec.fisheries.uvms.movementrules.service.boundary.SpatialRestClient;
+import eu.europa.ec.fisheries.uvms.movementrules.service.business.AssetNotSendingScheduler;
+import eu.europa.ec.fisheries.uvms.movementrules.service.business.PreviousReportCache;
 import eu.europa.ec.fisheries.uvms.movementrules.service.business.RulesValidator;
 import eu.europa.ec.fisheries.uvms.movementrules.service.config.ParameterKey;
-import eu.europa.ec.fisheries.uvms.movementrules.service.dao.RulesDao;
 import eu.europa.ec.fisheries.uvms.movementrules.service.dto.EventTicket;
-import eu.europa.ec.fisheries.uvms.movementrules.service.entity.PreviousReport;
 import eu.europa.ec.fisheries.uvms.movementrules.service.event.TicketUpdateEvent;
 import eu.europa.ec.fisheries.uvms.movementrules.service.message.producer.bean.IncidentProducer;
 import org.slf4j.Logger;
@@ -31,7 +31,10 @@ import javax.ejb.Stateless;
 import javax.enterprise.event.Event;
 import javax.inject.Inject;
 import java.time.Instant;
-import java.util.UUID;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 @Stateless
 public class CustomRulesEvaluator {
@@ -50,7 +53,10 @@ public class CustomRulesEvaluator {
     private SpatialRestClient spatialClient;
     
     @Inject
-    private RulesDao rulesDao;
+    private PreviousReportCache previousReportCache;
+
+    @Inject
+    private AssetNotSendingScheduler assetNotSendingScheduler;
 
     @Inject
     @TicketUpdateEvent
@@ -70,29 +76,56 @@ public class CustomRulesEvaluator {
 
         sendPositionToIncident(movementDetails);
         
-        spatialClient.populateAreasAndAreaTransitions(movementDetails);
+        spatialClient.populateAreasAndAreaTransitions(movementDetails, rulesValidator.getSnapshot().getSpatialEnrichment());
         
         rulesValidator.evaluate(movementDetails);
     }
+
+    /**
+     * Evaluates a batch of movements. Previous reports missing from the cache are loaded in one query, positions are
+     * enriched in bulk and the rules are run for the whole batch. Movements of the same asset are handled in
+     * list order, so each one sees the previous report and tickets left by the one before. The batch runs in the
+     * transaction of the caller and is committed or rolled back as a whole.
+     */
+    public void evaluateBatch(List<MovementDetails> movements) {
+        if (movements.isEmpty()) {
+            return;
+        }
+        Set<String> assetGuids = movements.stream()
+                .map(MovementDetails::getAssetGuid)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+        previousReportCache.load(assetGuids);
+
+        for (MovementDetails movementDetails : movements) {
+            Long timeDiffPositionReport = timeDiffAndPersistPreviousReport(movementDetails);
+            movementDetails.setTimeDiffPositionReport(timeDiffPositionReport);
+            sendPositionToIncident(movementDetails);
+        }
+
+        spatialClient.populateAreasAndAreaTransitions(movements, rulesValidator.getSnapshot().getSpatialEnrichment());
+
+        rulesValidator.evaluateBatch(movements);
+    }
   
     private Long timeDiffAndPersistPreviousReport(MovementDetails movementDetails) {
 
         String movementSource = movementDetails.getSource();
         String assetGuid = movementDetails.getAssetGuid();
-        String movementId = movementDetails.getMovementGuid();
         String assetFlagState = movementDetails.getFlagState();
         Instant positionTime = movementDetails.getPositionTime();
 
         // This needs to be done before persisting last report
         Long timeDiffInSeconds = null;
-        Long timeDiff = timeDiffFromLastCommunication(assetGuid, positionTime);
+        Long timeDiff = timeDiffFromLastCommunication(getLastPositionTime(assetGuid), positionTime);
         timeDiffInSeconds = timeDiff != null ? timeDiff / 1000 : null;
 
         // We only persist our own last communications that were from Inmarsat or Iridium.
         if (isLocalFlagState(assetFlagState) && 
                 (movementSource.equals(MovementSourceType.INMARSAT_C.value()) 
                         || movementSource.equals(MovementSourceType.IRIDIUM.value()))) {
-            persistLastCommunication(movementDetails);
+            previousReportCache.update(movementDetails);
+            assetNotSendingScheduler.reported(assetGuid, positionTime);
         }
 
         return timeDiffInSeconds;
@@ -109,45 +142,31 @@ public class CustomRulesEvaluator {
                 || (!movementDetails.getSource().equals(MovementSourceType.AIS.value()) && isLocalFlagState(movementDetails.getFlagState())));
     }
 
-    private Long timeDiffFromLastCommunication(String assetGuid, Instant thisTime) {
+    private Instant getLastPositionTime(String assetGuid) {
+        try {
+            return previousReportCache.getLastPositionTime(assetGuid);
+        } catch (Exception e) {
+            // If something goes wrong, continue with the other validation
+            LOG.error("[ERROR] Error when getting previous report by asset guid {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private Long timeDiffFromLastCommunication(Instant previousTime, Instant thisTime) {
         Long timeDiff = null;
         try {
-            PreviousReport entity = rulesDao.getPreviousReportByAssetGuid(assetGuid);
-            if(entity == null){         //aka not local flag state and not AIS, see line 93
+            if(previousTime == null){         //aka not local flag state and not AIS, see timeDiffAndPersistPreviousReport
                 return null;
             }
 
-            Instant previousTime = entity.getPositionTime();
             timeDiff = thisTime.toEpochMilli() - previousTime.toEpochMilli();
         } catch (Exception e) {
             // If something goes wrong, continue with the other validation
-            LOG.error("[ERROR] Error when getting previous report by asset guid {}", e.getMessage());
+            LOG.error("[ERROR] Error when calculating time diff from previous report {}", e.getMessage());
         }
         return timeDiff;
     }
 
-
-    private void persistLastCommunication(MovementDetails movementDetails) {
-
-        String assetGuid = movementDetails.getAssetGuid();
-        String movementId = movementDetails.getMovementGuid();
-        String mobTermId = movementDetails.getMobileTerminalGuid();
-        Instant positionTime = movementDetails.getPositionTime();
-
-        PreviousReport entity = rulesDao.getPreviousReportByAssetGuid(assetGuid);
-        if (entity == null) {
-            entity = new PreviousReport();
-        }
-        entity.setPositionTime(positionTime);
-        entity.setAssetGuid(assetGuid);
-        if(movementId != null)
-            entity.setMovementGuid(UUID.fromString(movementId));
-        if (mobTermId != null)
-            entity.setMobTermGuid(UUID.fromString(mobTermId));
-        entity.setUpdated(Instant.now());
-        entity.setUpdatedBy("UVMS");
-        rulesDao.updatePreviousReport(entity);
-    }
     
     private boolean isLocalFlagState(String flagState) {
         try {
@@ -22,6 +22,8 @@ import eu.europa.ec.fisheries.uvms.commons.notifications.NotificationMessage;
 import eu.europa.ec.fisheries.uvms.movementrules.model.dto.MovementDetails;
 import eu.europa.ec.fisheries.uvms.movementrules.service.boundary.AuditServiceBean;
 import eu.europa.ec.fisheries.uvms.movementrules.service.boundary.UserServiceBean;
+import eu.europa.ec.fisheries.uvms.movementrules.service.business.ClusterShard;
+import eu.europa.ec.fisheries.uvms.movementrules.service.business.ContactDetailsCache;
 import eu.europa.ec.fisheries.uvms.movementrules.service.business.CustomRuleValidator;
 import eu.europa.ec.fisheries.uvms.movementrules.service.business.RulesValidator;
 import eu.europa.ec.fisheries.uvms.movementrules.service.constants.AuditObjectTypeEnum;
@@ -74,6 +76,9 @@ public class RulesServiceBean {
 
     @Inject
     private UserServiceBean userService;
+
+    @Inject
+    private ContactDetailsCache contactDetailsCache;
     
     @Inject
     private RulesDao rulesDao;
@@ -101,7 +106,7 @@ public class RulesServiceBean {
 
     public CustomRule createCustomRule(CustomRule customRule, String featureName, String applicationName) throws AccessDeniedException, ModelMarshallException, JMSException {
         // Get organisation of user
-        String organisationName = userService.getOrganisationName(customRule.getUpdatedBy());
+        String organisationName = contactDetailsCache.getOrganisationName(customRule.getUpdatedBy());
         if (organisationName != null) {
             customRule.setOrganisation(organisationName);
         } else {
@@ -129,8 +134,7 @@ public class RulesServiceBean {
 
         rulesDao.createCustomRule(customRule);
 
-        // TODO: Rewrite so rules are loaded when changed
-        rulesValidator.updateCustomRules();
+        rulesValidator.updateCustomRule(customRule);
         auditService.sendAuditMessage(AuditObjectTypeEnum.CUSTOM_RULE, AuditOperationEnum.CREATE, customRule.getGuid().toString(), null, customRule.getUpdatedBy());
         return customRule;
     }
@@ -195,7 +199,7 @@ public class RulesServiceBean {
 
     public CustomRule updateCustomRule(CustomRule oldCustomRule, String featureName, String applicationName) throws ModelMarshallException, JMSException, AccessDeniedException {
         // Get organisation of user
-        String organisationName = userService.getOrganisationName(oldCustomRule.getUpdatedBy());
+        String organisationName = contactDetailsCache.getOrganisationName(oldCustomRule.getUpdatedBy());
         if (organisationName != null) {
             oldCustomRule.setOrganisation(organisationName);
         } else {
@@ -209,8 +213,10 @@ public class RulesServiceBean {
             }
         }
 
+        UUID archivedGuid = oldCustomRule.getGuid();
         CustomRule customRule = internalUpdateCustomRule(oldCustomRule);
-        rulesValidator.updateCustomRules();
+        rulesValidator.removeCustomRule(archivedGuid);
+        rulesValidator.updateCustomRule(customRule);
         auditService.sendAuditMessage(AuditObjectTypeEnum.CUSTOM_RULE, AuditOperationEnum.UPDATE, customRule.getGuid().toString(), null, oldCustomRule.getUpdatedBy());
         return customRule;
 
@@ -300,6 +306,8 @@ public class RulesServiceBean {
                 }
             }
         }
+        // The rule set keeps the subscriptions of each rule
+        rulesValidator.updateCustomRule(customRuleEntity);
 
         return customRuleEntity;
     }
@@ -326,7 +334,7 @@ public class RulesServiceBean {
         customRuleFromDb.setActive(false);
         customRuleFromDb.setEndDate(Instant.now());
 
-        rulesValidator.updateCustomRules();
+        rulesValidator.removeCustomRule(guid);
         auditService.sendAuditMessage(AuditObjectTypeEnum.CUSTOM_RULE, AuditOperationEnum.DELETE, customRuleFromDb.getGuid().toString(), null, username);
         return customRuleFromDb;
 
@@ -482,6 +490,26 @@ public class RulesServiceBean {
     }
 
 
+    // Triggered by RulesTimerBean, marks the overdue reports in one page that belong to the shard as handled and
+    // notifies Incident in a single batch. The whole page is returned so the caller can continue after it.
+    public List<PreviousReport> triggerOverduePreviousReports(String ruleName, long threshold, String afterAssetGuid, int maxResults, ClusterShard shard) {
+        Instant now = Instant.now();
+        List<PreviousReport> overdueReports = rulesDao.getOverduePreviousReports(now, threshold, afterAssetGuid, maxResults);
+        List<EventTicket> eventTickets = new ArrayList<>(overdueReports.size());
+        for (PreviousReport previousReport : overdueReports) {
+            if (!shard.owns(previousReport.getAssetGuid())) {
+                continue;
+            }
+            previousReport.setUpdated(now);
+            Ticket ticketEntity = createAssetNotSendingDummyTicket(ruleName, previousReport, null);
+            eventTickets.add(new EventTicket(ticketEntity, ServiceConstants.ASSET_NOT_SENDING_CUSTOMRULE));
+        }
+        if (!eventTickets.isEmpty()) {
+            incidentProducer.updatedTickets(eventTickets);
+        }
+        return overdueReports;
+    }
+
     // Triggered by timer rule
     public void timerRuleTriggered(String ruleName, PreviousReport previousReport) {
         LOG.info("Timer rule triggered for asset: {}", previousReport.getAssetGuid());
@@ -20,7 +20,6 @@ import eu.europa.ec.fisheries.schema.exchange.service.v1.ServiceResponseType;
 import eu.europa.ec.fisheries.schema.exchange.service.v1.StatusType;
 import eu.europa.ec.fisheries.schema.mobileterminal.polltypes.v1.PollType;
 import eu.europa.ec.fisheries.schema.movementrules.customrule.v1.ActionType;
-import eu.europa.ec.fisheries.schema.movementrules.customrule.v1.SubscriptionTypeType;
 import eu.europa.ec.fisheries.schema.movementrules.ticket.v1.TicketStatusType;
 import eu.europa.ec.fisheries.uvms.commons.date.JsonBConfigurator;
 import eu.europa.ec.fisheries.uvms.commons.notifications.NotificationMessage;
@@ -31,30 +30,42 @@ import eu.europa.ec.fisheries.uvms.mobileterminal.model.dto.SimpleCreatePoll;
 import eu.europa.ec.fisheries.uvms.movementrules.model.dto.MovementDetails;
 import eu.europa.ec.fisheries.uvms.movementrules.service.boundary.AuditServiceBean;
 import eu.europa.ec.fisheries.uvms.movementrules.service.boundary.ExchangeServiceBean;
-import eu.europa.ec.fisheries.uvms.movementrules.service.boundary.UserServiceBean;
+import eu.europa.ec.fisheries.uvms.movementrules.service.business.ActionPlan;
+import eu.europa.ec.fisheries.uvms.movementrules.service.business.ActionPlan.PlannedAction;
+import eu.europa.ec.fisheries.uvms.movementrules.service.business.ContactDetailsCache;
+import eu.europa.ec.fisheries.uvms.movementrules.service.business.LastTriggeredCache;
+import eu.europa.ec.fisheries.uvms.movementrules.service.business.RuleMetadata;
+import eu.europa.ec.fisheries.uvms.movementrules.service.business.RulesValidator;
+import eu.europa.ec.fisheries.uvms.movementrules.service.business.TicketCountAggregator;
 import eu.europa.ec.fisheries.uvms.movementrules.service.constants.AuditObjectTypeEnum;
 import eu.europa.ec.fisheries.uvms.movementrules.service.constants.AuditOperationEnum;
 import eu.europa.ec.fisheries.uvms.movementrules.service.dao.RulesDao;
 import eu.europa.ec.fisheries.uvms.movementrules.service.dto.EventTicket;
+import eu.europa.ec.fisheries.uvms.movementrules.service.entity.ActionOutbox;
 import eu.europa.ec.fisheries.uvms.movementrules.service.entity.CustomRule;
-import eu.europa.ec.fisheries.uvms.movementrules.service.entity.RuleSubscription;
 import eu.europa.ec.fisheries.uvms.movementrules.service.entity.Ticket;
+import eu.europa.ec.fisheries.uvms.movementrules.service.event.ActionEnqueuedEvent;
 import eu.europa.ec.fisheries.uvms.movementrules.service.event.TicketCountEvent;
 import eu.europa.ec.fisheries.uvms.movementrules.service.event.TicketEvent;
 import eu.europa.ec.fisheries.uvms.movementrules.service.mapper.EmailMapper;
 import eu.europa.ec.fisheries.uvms.movementrules.service.mapper.ExchangeMovementMapper;
 import eu.europa.ec.fisheries.uvms.movementrules.service.message.producer.bean.IncidentProducer;
 import eu.europa.ec.fisheries.uvms.rest.security.InternalRestTokenHandler;
-import eu.europa.ec.fisheries.wsdl.user.module.GetContactDetailResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 import javax.ejb.EJB;
+import javax.ejb.EJBException;
+import javax.ejb.SessionContext;
 import javax.ejb.Stateless;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
 import javax.enterprise.event.Event;
 import javax.inject.Inject;
 import javax.jms.JMSException;
+import javax.json.bind.Jsonb;
 import javax.ws.rs.client.Client;
 import javax.ws.rs.client.ClientBuilder;
 import javax.ws.rs.client.Entity;
@@ -62,6 +73,7 @@ import javax.ws.rs.client.WebTarget;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
@@ -73,11 +85,24 @@ public class ValidationServiceBean  {
 
     private static final Logger LOG = LoggerFactory.getLogger(ValidationServiceBean.class);
 
+    private static final int MAX_ACTION_ATTEMPTS = 6;
+    private static final Duration FIRST_RETRY_DELAY = Duration.ofSeconds(10);
+    private static final Duration MAX_RETRY_DELAY = Duration.ofMinutes(15);
+
     @EJB
     private RulesDao rulesDao;
     
     @Inject
-    private UserServiceBean userService;
+    private ContactDetailsCache contactDetailsCache;
+
+    @Inject
+    private RulesValidator rulesValidator;
+
+    @Inject
+    private LastTriggeredCache lastTriggeredCache;
+
+    @Inject
+    private TicketCountAggregator ticketCountAggregator;
     
     @Inject
     private ExchangeServiceBean exchangeService;
@@ -96,60 +121,66 @@ public class ValidationServiceBean  {
     @TicketCountEvent
     private Event<NotificationMessage> ticketCountEvent;
 
+    @Inject
+    @ActionEnqueuedEvent
+    private Event<ActionOutbox> actionEnqueuedEvent;
+
     @Inject
     private InternalRestTokenHandler tokenHandler;
 
-    // Triggered by rule engine
+    @Resource
+    private SessionContext sessionContext;
+
+    private Jsonb jsonb;
+
+    @PostConstruct
+    public void init() {
+        jsonb = new JsonBConfigurator().getContext(null);
+    }
+
+    /**
+     * Legacy entry point taking the actions in the "ACTION,TARGET,VALUE;ACTION,TARGET,VALUE;" format.
+     */
     public void customRuleTriggered(String ruleName, String ruleGuid, MovementDetails movementDetails, String actions) {
+        customRuleTriggered(ActionPlan.parse(ruleGuid, ruleName, actions), movementDetails);
+    }
+
+    // Triggered by rule engine
+    public void customRuleTriggered(ActionPlan actionPlan, MovementDetails movementDetails) {
+        String ruleName = actionPlan.getRuleName();
+        String ruleGuid = actionPlan.getRuleGuid();
         LOG.debug("Performing actions on triggered user rules, rule: {}", ruleName);
 
-        CustomRule triggeredRule = getCustomRule(ruleGuid);
-        triggeredRule.setLastTriggered(Instant.now());
+        RuleMetadata triggeredRule = getRuleMetadata(ruleGuid);
+        if (triggeredRule != null) {
+            lastTriggeredCache.triggered(triggeredRule.getGuid(), Instant.now());
+        }
         
         Instant auditTimestamp = Instant.now();
 
         auditTimestamp = auditLog("Time to create/update ticket:", auditTimestamp);
 
         sendMailToSubscribers(triggeredRule, movementDetails);
-        auditTimestamp = auditLog("Time to send email to subscribers:", auditTimestamp);
-
-        // Actions list format:
-        // ACTION,TARGET,VALUE;ACTION,TARGET,VALUE;
-        // N.B! The .drl rule file gives the string "null" when (for instance)
-        // value is null.
-        String[] parsedActionKeyValueList = actions.split(";");
-        for (String keyValue : parsedActionKeyValueList) {
-            String[] keyValueList = keyValue.split(",");
-            String action = keyValueList[0];
-            String target = "";
-            String value = "";
-            if (keyValueList.length == 3) {
-                target = keyValueList[1];
-                value = keyValueList[2];
-            }
-            switch (ActionType.valueOf(action)) {
+        auditTimestamp = auditLog("Time to queue email to subscribers:", auditTimestamp);
+
+        for (PlannedAction plannedAction : actionPlan.getActions()) {
+            String action = plannedAction.getType().name();
+            // Actions calling other modules are executed from the outbox once this transaction has committed
+            switch (plannedAction.getType()) {
                 case EMAIL:
-                    // Value=address.
-                    sendToEmail(value, ruleName, movementDetails);
-                    auditTimestamp = auditLog("Time to send (action) email:", auditTimestamp);
-                    break;
                 case SEND_REPORT:
-                    sendToEndpoint(ruleName, movementDetails, value, target, ActionType.SEND_REPORT);
-                    auditTimestamp = auditLog("Time to send to endpoint:", auditTimestamp);
-                    break;
                 case SEND_ENTRY_REPORT:
-                    sendToEndpoint(ruleName, movementDetails, value, target, ActionType.SEND_ENTRY_REPORT);
-                    break;
                 case SEND_EXIT_REPORT:
-                    sendToEndpoint(ruleName, movementDetails, value, target, ActionType.SEND_EXIT_REPORT);
-                    break;
                 case MANUAL_POLL:
-                    createPollInternal(movementDetails, ruleName);
-                    auditTimestamp = auditLog("Time to send poll:", auditTimestamp);
+                    enqueueAction(action, plannedAction.getTarget(), plannedAction.getValue(), null, ruleName, ruleGuid, movementDetails);
+                    auditTimestamp = auditLog("Time to queue action " + action + ":", auditTimestamp);
                     break;
                 case CREATE_INCIDENT:
                     Ticket ticket = upsertTicket(triggeredRule, movementDetails);
-                    incidentProducer.createdTicket(new EventTicket(ticket, triggeredRule));
+                    // A counted invocation is sent as an incident update when the count is written
+                    if (ticket != null) {
+                        incidentProducer.createdTicket(new EventTicket(ticket, triggeredRule));
+                    }
                     break;
                 case CREATE_TICKET:
                     upsertTicket(triggeredRule, movementDetails);
@@ -173,7 +204,96 @@ public class ValidationServiceBean  {
         }
     }
 
-    private Ticket upsertTicket(CustomRule triggeredRule, MovementDetails movementDetails){
+    /**
+     * Executes an action from the outbox. The entry is removed when the action succeeds. A failed action is retried
+     * with an exponential backoff and given up after {@value #MAX_ACTION_ATTEMPTS} attempts. The action runs in its
+     * own transaction, so a failing action can not roll back the retry bookkeeping of the locked entry.
+     *
+     * @return true if the action was executed, false if it failed, is not due yet or was already handled elsewhere
+     */
+    public boolean executeAction(UUID outboxId) {
+        ActionOutbox entry = rulesDao.lockActionOutboxEntry(outboxId);
+        if (entry == null || entry.getNextAttempt() == null) {
+            return false;
+        }
+        if (entry.getNextAttempt().isAfter(Instant.now())) {
+            // Rescheduled by the attempt of another node since it was found due
+            return false;
+        }
+        try {
+            MovementDetails movementDetails = jsonb.fromJson(entry.getMovement(), MovementDetails.class);
+            sessionContext.getBusinessObject(ValidationServiceBean.class).performAction(entry, movementDetails);
+            rulesDao.removeActionOutboxEntry(entry);
+            return true;
+        } catch (Exception e) {
+            Throwable cause = e instanceof EJBException && e.getCause() != null ? e.getCause() : e;
+            String error = cause.getMessage() != null ? cause.getMessage() : cause.getClass().getName();
+            int attempts = entry.getAttempts() + 1;
+            entry.setAttempts(attempts);
+            entry.setLastError(error.length() > 1000 ? error.substring(0, 1000) : error);
+            if (attempts >= MAX_ACTION_ATTEMPTS) {
+                entry.setNextAttempt(null);
+                LOG.error("Giving up action {} of rule {} after {} attempts", entry.getAction(), entry.getRuleName(), attempts, cause);
+            } else {
+                Duration delay = FIRST_RETRY_DELAY.multipliedBy(1L << (attempts - 1));
+                entry.setNextAttempt(Instant.now().plus(delay.compareTo(MAX_RETRY_DELAY) < 0 ? delay : MAX_RETRY_DELAY));
+                LOG.warn("Action {} of rule {} failed, attempt {} of {}: {}", entry.getAction(), entry.getRuleName(), attempts, MAX_ACTION_ATTEMPTS, error);
+            }
+            return false;
+        }
+    }
+
+    private void enqueueAction(String action, String target, String value, String subscriber, String ruleName, String ruleGuid,
+                               MovementDetails movementDetails) {
+        Instant now = Instant.now();
+        ActionOutbox entry = new ActionOutbox();
+        entry.setAction(action);
+        entry.setTarget(target);
+        entry.setValue(value);
+        entry.setSubscriber(subscriber);
+        entry.setRuleName(ruleName);
+        entry.setRuleGuid(ruleGuid);
+        entry.setMovement(jsonb.toJson(movementDetails));
+        entry.setCreated(now);
+        entry.setNextAttempt(now);
+        rulesDao.createActionOutboxEntry(entry);
+        actionEnqueuedEvent.fire(entry);
+    }
+
+    /**
+     * Performs a single outbox action. Only called through the business interface by {@link #executeAction(UUID)}.
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public void performAction(ActionOutbox entry, MovementDetails movementDetails) throws Exception {
+        ActionType actionType = ActionType.valueOf(entry.getAction());
+        switch (actionType) {
+            case EMAIL:
+                if (entry.getSubscriber() != null) {
+                    // Find current email address
+                    sendToEmail(contactDetailsCache.getEmail(entry.getSubscriber()), entry.getRuleName(), movementDetails);
+                } else {
+                    // Value=address.
+                    sendToEmail(entry.getValue(), entry.getRuleName(), movementDetails);
+                }
+                break;
+            case SEND_REPORT:
+            case SEND_ENTRY_REPORT:
+            case SEND_EXIT_REPORT:
+                sendToEndpoint(entry.getRuleName(), movementDetails, entry.getValue(), entry.getTarget(), actionType);
+                break;
+            case MANUAL_POLL:
+                String result = createPollInternal(movementDetails, entry.getRuleName());
+                if (result != null && result.startsWith("NOK")) {
+                    throw new IllegalStateException(result);
+                }
+                break;
+            default:
+                LOG.info("The action '{}' can not be executed from the outbox", entry.getAction());
+                break;
+        }
+    }
+
+    private Ticket upsertTicket(RuleMetadata triggeredRule, MovementDetails movementDetails){
         if (triggeredRule != null && triggeredRule.isAggregateInvocations()) {
             return createTicketOrIncreaseCount(movementDetails, triggeredRule);
         } else {
@@ -182,64 +302,63 @@ public class ValidationServiceBean  {
     }
 
 
-    private CustomRule getCustomRule(String ruleGuid) {
+    private RuleMetadata getRuleMetadata(String ruleGuid) {
         try {
-            return rulesDao.getCustomRuleByGuid(UUID.fromString(ruleGuid));
+            UUID guid = UUID.fromString(ruleGuid);
+            RuleMetadata ruleMetadata = rulesValidator.getSnapshot().getRuleMetadata(guid);
+            if (ruleMetadata == null) {
+                // Not in the published rule set, e.g. triggered directly instead of by the rule engine
+                CustomRule customRule = rulesDao.getCustomRuleByGuid(guid);
+                ruleMetadata = customRule != null ? RuleMetadata.of(customRule) : null;
+            }
+            return ruleMetadata;
         } catch (Exception e) {
             LOG.error("[ Failed to fetch rule when sending email to subscribers due to erro when getting CustomRule by GUID! ] {}", e.getMessage());
             return null;
         }
     }
 
-    private Ticket createTicketOrIncreaseCount(MovementDetails movementDetails, CustomRule triggeredRule) {
+    /**
+     * @return the created or updated ticket, null if the invocation was only counted in memory
+     */
+    private Ticket createTicketOrIncreaseCount(MovementDetails movementDetails, RuleMetadata triggeredRule) {
+        if (ticketCountAggregator.increment(triggeredRule)) {
+            return null;
+        }
         Ticket latestTicketForRule = rulesDao.getLatestTicketForRule(triggeredRule.getGuid());
         if (latestTicketForRule == null) {
-            return createTicket(triggeredRule, movementDetails);
+            latestTicketForRule = createTicket(triggeredRule, movementDetails);
         } else {
             latestTicketForRule.setTicketCount(latestTicketForRule.getTicketCount() + 1);
             latestTicketForRule.setUpdated(Instant.now());
-            return latestTicketForRule;
         }
+        if (latestTicketForRule != null) {
+            ticketCountAggregator.register(triggeredRule, latestTicketForRule);
+        }
+        return latestTicketForRule;
     }
     
-    private void sendMailToSubscribers(CustomRule customRule, MovementDetails movementDetails) {
+    private void sendMailToSubscribers(RuleMetadata customRule, MovementDetails movementDetails) {
         if (customRule == null) {
             return;
         }
         
-        List<RuleSubscription> subscriptions = customRule.getRuleSubscriptionList();
-        if (subscriptions != null) {
-            for (RuleSubscription subscription : subscriptions) {
-                if (SubscriptionTypeType.EMAIL.value().equals(subscription.getType())) {
-                    try {
-                        // Find current email address
-                        GetContactDetailResponse userResponse = userService.getContactDetails(subscription.getOwner());
-                        String emailAddress = userResponse.getContactDetails().getEMail();
-                        sendToEmail(emailAddress, customRule.getName(), movementDetails);
-                    } catch (Exception e) {
-                        // If a mail attempt fails, proceed with the rest
-                        LOG.error("Could not send email to user '{}'", subscription.getOwner());
-                    }
-                }
-            }
+        for (String subscriber : customRule.getEmailSubscribers()) {
+            enqueueAction(ActionType.EMAIL.value(), null, null, subscriber, customRule.getName(),
+                    customRule.getGuid().toString(), movementDetails);
         }
     }
 
-    private void sendToEndpoint(String ruleName, MovementDetails movementDetails, String organisationName, String pluginName, ActionType actionType) {
+    private void sendToEndpoint(String ruleName, MovementDetails movementDetails, String organisationName, String pluginName, ActionType actionType) throws JMSException {
         LOG.debug("Sending to organisation '{}'", organisationName);
 
-        try {
-            MovementType exchangeMovement = ExchangeMovementMapper.mapToExchangeMovementType(movementDetails);
-
-            mapTypeOfMessage(exchangeMovement, actionType);
+        MovementType exchangeMovement = ExchangeMovementMapper.mapToExchangeMovementType(movementDetails);
 
-            exchangeService.sendReportToPlugin(pluginName, ruleName, organisationName, exchangeMovement, new ArrayList<>(), movementDetails);
+        mapTypeOfMessage(exchangeMovement, actionType);
 
-            auditService.sendAuditMessage(AuditObjectTypeEnum.CUSTOM_RULE_ACTION, AuditOperationEnum.SEND_TO_ENDPOINT, null, organisationName, "UVMS");
+        exchangeService.sendReportToPlugin(pluginName, ruleName, organisationName, exchangeMovement, new ArrayList<>(), movementDetails);
 
-        } catch (Exception e) {
-            LOG.error("[ Failed to send to endpoint! ] {}", e.getMessage());
-        }
+        auditService.sendAuditMessage(AuditObjectTypeEnum.CUSTOM_RULE_ACTION, AuditOperationEnum.SEND_TO_ENDPOINT, null, organisationName, "UVMS");
     }
 
     private void mapTypeOfMessage(MovementType movement, ActionType actionType) {
@@ -298,7 +417,7 @@ public class ValidationServiceBean  {
                     .post(Entity.json(createPoll), Response.class);
 
             if(createdPollResponse.getStatus() != 200){
-                return stripExceptionFromResponseString(createdPollResponse.readEntity(String.class));
+                return "NOK " + createdPollResponse.getStatus() + " " + stripExceptionFromResponseString(createdPollResponse.readEntity(String.class));
             }
 
             CreatePollResultDto createPollResultDto = createdPollResponse.readEntity(CreatePollResultDto.class);
@@ -323,7 +442,7 @@ public class ValidationServiceBean  {
                 ? errorString.substring(exceptionEndIndex).trim() : "";
     }
 
-    private Ticket createTicket(CustomRule customRule, MovementDetails fact) {
+    private Ticket createTicket(RuleMetadata customRule, MovementDetails fact) {
         try {
             Ticket ticket = new Ticket();
 
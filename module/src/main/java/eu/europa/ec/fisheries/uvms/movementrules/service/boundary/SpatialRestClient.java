@@ -11,17 +11,31 @@ copy of the GNU General Public License along with the IFDM Suite. If not, see <h
  */
 package eu.europa.ec.fisheries.uvms.movementrules.service.boundary;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 import javax.ejb.Stateless;
+import javax.inject.Inject;
 import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.Invocation;
 import javax.ws.rs.client.WebTarget;
 import javax.ws.rs.core.MediaType;
 import eu.europa.ec.fisheries.schema.exchange.movement.v1.MovementSourceType;
 import eu.europa.ec.fisheries.uvms.commons.date.JsonBConfigurator;
 import eu.europa.ec.fisheries.uvms.movementrules.model.dto.MovementDetails;
+import eu.europa.ec.fisheries.uvms.movementrules.service.business.AssetAreaState;
+import eu.europa.ec.fisheries.uvms.movementrules.service.business.SpatialEnrichment;
+import eu.europa.ec.fisheries.uvms.movementrules.service.business.SpatialEnrichmentCache;
 import eu.europa.ec.fisheries.uvms.spatial.model.schemas.Area;
 import eu.europa.ec.fisheries.uvms.spatial.model.schemas.AreaExtendedIdentifierType;
 import eu.europa.ec.fisheries.uvms.spatial.model.schemas.AreaType;
@@ -31,10 +45,20 @@ import eu.europa.ec.fisheries.uvms.spatial.model.schemas.LocationType;
 @Stateless
 public class SpatialRestClient {
 
+    private static final int MAX_CONCURRENT_REQUESTS = 32;
+
+    private static final LongAdder SKIPPED_CALLS = new LongAdder();
+
     private WebTarget webTarget;
 
     @Resource(name = "java:global/spatial_endpoint")
     private String spatialEndpoint;
+
+    @Inject
+    private SpatialEnrichmentCache spatialEnrichmentCache;
+
+    @Inject
+    private AssetAreaState assetAreaState;
     
     @PostConstruct
     public void initClient() {
@@ -48,8 +72,207 @@ public class SpatialRestClient {
     }
     
     public void populateAreasAndAreaTransitions(MovementDetails movementDetails) {
-        AreaTransitionsDTO enrichmentCurrentPosition = getEnrichmentAndTransitions(movementDetails.getLatitude(), movementDetails.getLongitude(), 
-                                                                            movementDetails.getPreviousLatitude(), movementDetails.getPreviousLongitude());
+        populateAreasAndAreaTransitions(movementDetails, SpatialEnrichment.ALL);
+    }
+
+    /**
+     * Enriches the movement with the parts of the spatial data in {@code required} only, Spatial is not called at
+     * all when nothing is required.
+     */
+    public void populateAreasAndAreaTransitions(MovementDetails movementDetails, Set<SpatialEnrichment> required) {
+        if (required.isEmpty()) {
+            SKIPPED_CALLS.add(skippableCalls(movementDetails));
+            return;
+        }
+        Map<String, AreaExtendedIdentifierType> previousAreas = needsTransitions(movementDetails, required) ? lastAreas(movementDetails) : null;
+        Map<String, AreaExtendedIdentifierType> previousVMSAreas = needsSeparateVMSTransitions(movementDetails, required) ? lastVMSAreas(movementDetails) : null;
+        AreaTransitionsDTO enrichmentCurrentPosition = needsTransitions(movementDetails, required) && previousAreas == null
+                ? enrich(movementDetails.getLatitude(), movementDetails.getLongitude(),
+                        movementDetails.getPreviousLatitude(), movementDetails.getPreviousLongitude())
+                : enrich(movementDetails.getLatitude(), movementDetails.getLongitude(), null, null);
+        AreaTransitionsDTO enrichmentCurrentVMSPosition = null;
+        if (!MovementSourceType.AIS.value().equals(movementDetails.getSource())) {
+            if (!hasSeparateVMSTransitions(movementDetails)) {
+                enrichmentCurrentVMSPosition = enrichmentCurrentPosition;
+            } else if (!needsSeparateVMSTransitions(movementDetails, required)) {
+                SKIPPED_CALLS.increment();
+            } else if (previousVMSAreas == null) {
+                enrichmentCurrentVMSPosition = enrich(movementDetails.getLatitude(), movementDetails.getLongitude(),
+                        movementDetails.getPreviousVMSLatitude(), movementDetails.getPreviousVMSLongitude());
+            }
+        }
+        populate(movementDetails, enrichmentCurrentPosition, enrichmentCurrentVMSPosition, previousAreas, previousVMSAreas, required);
+    }
+
+    public void populateAreasAndAreaTransitions(List<MovementDetails> movements) {
+        populateAreasAndAreaTransitions(movements, SpatialEnrichment.ALL);
+    }
+
+    /**
+     * Enriches a batch of movements. Each distinct position pair is only requested once and the requests are sent
+     * concurrently, at most {@value #MAX_CONCURRENT_REQUESTS} at a time.
+     */
+    public void populateAreasAndAreaTransitions(List<MovementDetails> movements, Set<SpatialEnrichment> required) {
+        if (required.isEmpty()) {
+            movements.forEach(movementDetails -> SKIPPED_CALLS.add(skippableCalls(movementDetails)));
+            return;
+        }
+        // The remembered areas are read before any movement in the batch updates them
+        Map<MovementDetails, Map<String, AreaExtendedIdentifierType>> previousAreas = new IdentityHashMap<>();
+        Map<MovementDetails, Map<String, AreaExtendedIdentifierType>> previousVMSAreas = new IdentityHashMap<>();
+        Map<List<Double>, AreaTransitionsDTO> enrichments = new HashMap<>();
+        for (MovementDetails movementDetails : movements) {
+            previousAreas.put(movementDetails, needsTransitions(movementDetails, required) ? lastAreas(movementDetails) : null);
+            previousVMSAreas.put(movementDetails, needsSeparateVMSTransitions(movementDetails, required) ? lastVMSAreas(movementDetails) : null);
+            enrichments.put(currentKey(movementDetails, previousAreas.get(movementDetails), required), null);
+            if (needsSeparateVMSTransitions(movementDetails, required) && previousVMSAreas.get(movementDetails) == null) {
+                enrichments.put(key(movementDetails.getLatitude(), movementDetails.getLongitude(),
+                        movementDetails.getPreviousVMSLatitude(), movementDetails.getPreviousVMSLongitude()), null);
+            } else if (!MovementSourceType.AIS.value().equals(movementDetails.getSource()) && hasSeparateVMSTransitions(movementDetails)
+                    && !needsSeparateVMSTransitions(movementDetails, required)) {
+                SKIPPED_CALLS.increment();
+            }
+        }
+        fetchEnrichments(enrichments);
+
+        for (MovementDetails movementDetails : movements) {
+            AreaTransitionsDTO enrichmentCurrentPosition = enrichments.get(currentKey(movementDetails, previousAreas.get(movementDetails), required));
+            AreaTransitionsDTO enrichmentCurrentVMSPosition = null;
+            if (!MovementSourceType.AIS.value().equals(movementDetails.getSource())) {
+                if (!hasSeparateVMSTransitions(movementDetails)) {
+                    enrichmentCurrentVMSPosition = enrichmentCurrentPosition;
+                } else if (needsSeparateVMSTransitions(movementDetails, required) && previousVMSAreas.get(movementDetails) == null) {
+                    enrichmentCurrentVMSPosition = enrichments.get(key(movementDetails.getLatitude(), movementDetails.getLongitude(),
+                            movementDetails.getPreviousVMSLatitude(), movementDetails.getPreviousVMSLongitude()));
+                }
+            }
+            populate(movementDetails, enrichmentCurrentPosition, enrichmentCurrentVMSPosition,
+                    previousAreas.get(movementDetails), previousVMSAreas.get(movementDetails), required);
+        }
+    }
+
+    /**
+     * @return number of Spatial calls not made because no active rule reads their result
+     */
+    public static long getSkippedCalls() {
+        return SKIPPED_CALLS.sum();
+    }
+
+    private List<Double> currentKey(MovementDetails movementDetails, Map<String, AreaExtendedIdentifierType> previousAreas,
+                                    Set<SpatialEnrichment> required) {
+        return needsTransitions(movementDetails, required) && previousAreas == null
+                ? key(movementDetails.getLatitude(), movementDetails.getLongitude(),
+                        movementDetails.getPreviousLatitude(), movementDetails.getPreviousLongitude())
+                : key(movementDetails.getLatitude(), movementDetails.getLongitude(), null, null);
+    }
+
+    // The transitions from the previous position are the VMS transitions as well when that position was a VMS one
+    private boolean needsTransitions(MovementDetails movementDetails, Set<SpatialEnrichment> required) {
+        return required.contains(SpatialEnrichment.TRANSITIONS)
+                || (required.contains(SpatialEnrichment.VMS_TRANSITIONS)
+                        && !MovementSourceType.AIS.value().equals(movementDetails.getSource())
+                        && !hasSeparateVMSTransitions(movementDetails));
+    }
+
+    private boolean needsSeparateVMSTransitions(MovementDetails movementDetails, Set<SpatialEnrichment> required) {
+        return required.contains(SpatialEnrichment.VMS_TRANSITIONS)
+                && !MovementSourceType.AIS.value().equals(movementDetails.getSource())
+                && hasSeparateVMSTransitions(movementDetails);
+    }
+
+    private int skippableCalls(MovementDetails movementDetails) {
+        return !MovementSourceType.AIS.value().equals(movementDetails.getSource()) && hasSeparateVMSTransitions(movementDetails) ? 2 : 1;
+    }
+
+    private Map<String, AreaExtendedIdentifierType> lastAreas(MovementDetails movementDetails) {
+        if (assetAreaState == null) {
+            return null;
+        }
+        return assetAreaState.getAreas(movementDetails.getAssetGuid(), movementDetails.getPreviousLatitude(), movementDetails.getPreviousLongitude());
+    }
+
+    private Map<String, AreaExtendedIdentifierType> lastVMSAreas(MovementDetails movementDetails) {
+        if (assetAreaState == null || MovementSourceType.AIS.value().equals(movementDetails.getSource())
+                || !hasSeparateVMSTransitions(movementDetails)) {
+            return null;
+        }
+        return assetAreaState.getVMSAreas(movementDetails.getAssetGuid(), movementDetails.getPreviousVMSLatitude(), movementDetails.getPreviousVMSLongitude());
+    }
+
+    private void fetchEnrichments(Map<List<Double>, AreaTransitionsDTO> enrichments) {
+        List<List<Double>> keys = new ArrayList<>();
+        for (List<Double> key : enrichments.keySet()) {
+            AreaTransitionsDTO cached = spatialEnrichmentCache != null
+                    ? spatialEnrichmentCache.get(key.get(0), key.get(1), key.get(2), key.get(3)) : null;
+            if (cached != null) {
+                enrichments.put(key, cached);
+            } else {
+                keys.add(key);
+            }
+        }
+        for (int start = 0; start < keys.size(); start += MAX_CONCURRENT_REQUESTS) {
+            List<List<Double>> chunk = keys.subList(start, Math.min(start + MAX_CONCURRENT_REQUESTS, keys.size()));
+            Map<List<Double>, Future<AreaTransitionsDTO>> requests = new HashMap<>();
+            for (List<Double> key : chunk) {
+                requests.put(key, getEnrichmentAndTransitionsAsync(key.get(0), key.get(1), key.get(2), key.get(3)));
+            }
+            for (Map.Entry<List<Double>, Future<AreaTransitionsDTO>> request : requests.entrySet()) {
+                try {
+                    AreaTransitionsDTO response = request.getValue().get();
+                    enrichments.put(request.getKey(), response);
+                    if (spatialEnrichmentCache != null) {
+                        List<Double> key = request.getKey();
+                        spatialEnrichmentCache.put(key.get(0), key.get(1), key.get(2), key.get(3), response);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while waiting for spatial enrichment", e);
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("Could not get spatial enrichment for " + request.getKey(), e.getCause());
+                }
+            }
+        }
+    }
+
+    private AreaTransitionsDTO enrich(Double latitude, Double longitude, Double previousLatitude, Double previousLongitude) {
+        if (spatialEnrichmentCache == null) {
+            return getEnrichmentAndTransitions(latitude, longitude, previousLatitude, previousLongitude);
+        }
+        AreaTransitionsDTO cached = spatialEnrichmentCache.get(latitude, longitude, previousLatitude, previousLongitude);
+        if (cached != null) {
+            return cached;
+        }
+        AreaTransitionsDTO response = getEnrichmentAndTransitions(latitude, longitude, previousLatitude, previousLongitude);
+        spatialEnrichmentCache.put(latitude, longitude, previousLatitude, previousLongitude, response);
+        return response;
+    }
+
+    private List<Double> key(Double latitude, Double longitude, Double previousLatitude, Double previousLongitude) {
+        return Arrays.asList(latitude, longitude, previousLatitude, previousLongitude);
+    }
+
+    // The VMS transitions need their own enrichment when the previous VMS position is not the previous position
+    private boolean hasSeparateVMSTransitions(MovementDetails movementDetails) {
+        return !((movementDetails.getPreviousVMSLatitude() == null && movementDetails.getPreviousVMSLongitude() == null)
+                || (movementDetails.getLongitude().equals(movementDetails.getPreviousVMSLongitude())
+                && movementDetails.getLatitude().equals(movementDetails.getPreviousVMSLatitude())));
+    }
+
+    private void populate(MovementDetails movementDetails, AreaTransitionsDTO enrichmentCurrentPosition, AreaTransitionsDTO enrichmentCurrentVMSPosition,
+                          Map<String, AreaExtendedIdentifierType> previousAreas, Map<String, AreaExtendedIdentifierType> previousVMSAreas,
+                          Set<SpatialEnrichment> required) {
+        AreaTransitionsDTO transitions = previousAreas != null
+                ? AssetAreaState.transitions(enrichmentCurrentPosition, previousAreas)
+                : enrichmentCurrentPosition;
+        AreaTransitionsDTO vmsTransitions;
+        if (previousVMSAreas != null) {
+            vmsTransitions = AssetAreaState.transitions(enrichmentCurrentPosition, previousVMSAreas);
+        } else if (enrichmentCurrentVMSPosition == enrichmentCurrentPosition) {
+            vmsTransitions = transitions;
+        } else {
+            vmsTransitions = enrichmentCurrentVMSPosition;
+        }
+
         if (enrichmentCurrentPosition.getSpatialEnrichmentRS().getClosestAreas() != null) {
             enrichWithCountryData(enrichmentCurrentPosition.getSpatialEnrichmentRS().getClosestAreas().getClosestAreas(), AreaType.COUNTRY, movementDetails);
         }
@@ -57,19 +280,17 @@ public class SpatialRestClient {
             enrichWithPortData(enrichmentCurrentPosition.getSpatialEnrichmentRS().getClosestLocations().getClosestLocations(), LocationType.PORT, movementDetails);
         }
         mapAreas(enrichmentCurrentPosition, movementDetails);
-        mapAreaTransitions(enrichmentCurrentPosition, movementDetails);
-        
-        if (!MovementSourceType.AIS.value().equals(movementDetails.getSource())) {
-            if ((movementDetails.getPreviousVMSLatitude() == null && movementDetails.getPreviousVMSLongitude() == null) 
-                    || (movementDetails.getLongitude().equals(movementDetails.getPreviousVMSLongitude()) 
-                    && movementDetails.getLatitude().equals(movementDetails.getPreviousVMSLatitude()))) {
-                mapVMSAreaTransitions(enrichmentCurrentPosition, movementDetails);
-            }
-            else {
-                AreaTransitionsDTO enrichmentCurrentVMSPosition = getEnrichmentAndTransitions(movementDetails.getLatitude(), movementDetails.getLongitude(), 
-                        movementDetails.getPreviousVMSLatitude(), movementDetails.getPreviousVMSLongitude());
-                mapVMSAreaTransitions(enrichmentCurrentVMSPosition, movementDetails);
-            }
+        if (required.contains(SpatialEnrichment.TRANSITIONS)) {
+            mapAreaTransitions(transitions, movementDetails);
+        }
+        if (vmsTransitions != null && required.contains(SpatialEnrichment.VMS_TRANSITIONS)) {
+            mapVMSAreaTransitions(vmsTransitions, movementDetails);
+        }
+
+        if (assetAreaState != null && enrichmentCurrentPosition.getSpatialEnrichmentRS().getAreasByLocation() != null) {
+            assetAreaState.update(movementDetails.getAssetGuid(), movementDetails.getLatitude(), movementDetails.getLongitude(),
+                    enrichmentCurrentPosition.getSpatialEnrichmentRS().getAreasByLocation().getAreas(),
+                    !MovementSourceType.AIS.value().equals(movementDetails.getSource()));
         }
     }
 
@@ -116,14 +337,26 @@ public class SpatialRestClient {
 
     protected AreaTransitionsDTO getEnrichmentAndTransitions(Double latitude, Double longitude, 
                                               Double previousLatitude, Double previousLongitude) {
+        return enrichmentAndTransitionsRequest(latitude, longitude, previousLatitude, previousLongitude)
+                .get(AreaTransitionsDTO.class);
+    }
+
+    protected Future<AreaTransitionsDTO> getEnrichmentAndTransitionsAsync(Double latitude, Double longitude,
+                                              Double previousLatitude, Double previousLongitude) {
+        return enrichmentAndTransitionsRequest(latitude, longitude, previousLatitude, previousLongitude)
+                .async()
+                .get(AreaTransitionsDTO.class);
+    }
+
+    private Invocation.Builder enrichmentAndTransitionsRequest(Double latitude, Double longitude,
+                                              Double previousLatitude, Double previousLongitude) {
         return webTarget
                 .path("getEnrichmentAndTransitions")
                 .queryParam("firstLongitude", previousLongitude)
                 .queryParam("firstLatitude", previousLatitude)
                 .queryParam("secondLongitude", longitude)
                 .queryParam("secondLatitude", latitude)
-                .request(MediaType.APPLICATION_JSON)
-                .get(AreaTransitionsDTO.class);
+                .request(MediaType.APPLICATION_JSON);
     }
     
     private void enrichWithCountryData(List<Area> locations, AreaType areaType, MovementDetails movementDetails) {
@@ -11,6 +11,9 @@ copy of the GNU General Public License along with the IFDM Suite. If not, see <h
  */
 package eu.europa.ec.fisheries.uvms.movementrules.service.boundary;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 import javax.annotation.Resource;
 import javax.ejb.Stateless;
 import javax.inject.Inject;
@@ -95,4 +98,26 @@ public class UserServiceBean {
             throw new IllegalArgumentException(e);
         }
     }
+
+    /**
+     * Requests the contact details of several users. All requests are sent before the first response is awaited,
+     * so the round trips overlap.
+     */
+    public Map<String, GetContactDetailResponse> getContactDetails(Collection<String> usernames) throws ModelMarshallException, JMSException {
+        Map<String, String> messageIds = new HashMap<>();
+        for (String username : usernames) {
+            String userRequest = UserModuleRequestMapper.mapToGetContactDetailsRequest(username);
+            messageIds.put(username, producer.sendModuleMessage(userRequest, responseQueue, UserModuleMethod.GET_CONTACT_DETAILS.value(), ""));
+        }
+        Map<String, GetContactDetailResponse> responses = new HashMap<>();
+        try {
+            for (Map.Entry<String, String> messageId : messageIds.entrySet()) {
+                TextMessage userMessage = consumer.getMessage(messageId.getValue(), TextMessage.class);
+                responses.put(messageId.getKey(), JAXBMarshaller.unmarshallTextMessage(userMessage, GetContactDetailResponse.class));
+            }
+        } catch (JAXBException e) {
+            throw new IllegalArgumentException(e);
+        }
+        return responses;
+    }
 }
\ No newline at end of file
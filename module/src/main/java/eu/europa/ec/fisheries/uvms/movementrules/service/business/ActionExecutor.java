@@ -0,0 +1,162 @@
+/*
+﻿Developed with the contribution of the European Commission - Directorate General for Maritime Affairs and Fisheries
+© European Union, 2015-2016.
+
+This file is part of the Integrated Fisheries Data Management (IFDM) Suite. The IFDM Suite is free software: you can
+redistribute it and/or modify it under the terms of the GNU General Public License as published by the
+Free Software Foundation, either version 3 of the License, or any later version. The IFDM Suite is distributed in
+the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details. You should have received a
+copy of the GNU General Public License along with the IFDM Suite. If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.europa.ec.fisheries.uvms.movementrules.service.business;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.EJB;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.enterprise.event.Observes;
+import javax.enterprise.event.TransactionPhase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import eu.europa.ec.fisheries.uvms.movementrules.service.bean.ValidationServiceBean;
+import eu.europa.ec.fisheries.uvms.movementrules.service.dao.RulesDao;
+import eu.europa.ec.fisheries.uvms.movementrules.service.entity.ActionOutbox;
+import eu.europa.ec.fisheries.uvms.movementrules.service.event.ActionEnqueuedEvent;
+
+/**
+ * Executes the rule actions written to the outbox on a bounded pool of workers, so rule evaluation never waits for
+ * Exchange, Asset or User. New actions are handed over as soon as their transaction has committed, retries and
+ * actions left behind by a full queue or a restart are picked up by {@link #dispatchDue()}.
+ */
+@Startup
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class ActionExecutor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ActionExecutor.class);
+
+    private static final int WORKERS = 8;
+    private static final int QUEUE_CAPACITY = 1000;
+
+    @EJB
+    private ValidationServiceBean validationService;
+
+    @EJB
+    private RulesDao rulesDao;
+
+    private ThreadPoolExecutor workers;
+
+    // Outbox entries queued or running on this node
+    private final Set<UUID> inFlight = ConcurrentHashMap.newKeySet();
+
+    private final Map<String, LongAdder> executed = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> executionNanos = new ConcurrentHashMap<>();
+    // Failed attempts, and entries already handled by another node
+    private final LongAdder notExecuted = new LongAdder();
+
+    @PostConstruct
+    public void init() {
+        workers = new ThreadPoolExecutor(WORKERS, WORKERS, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(QUEUE_CAPACITY));
+    }
+
+    @PreDestroy
+    public void destroy() {
+        workers.shutdown();
+        try {
+            if (!workers.awaitTermination(10, TimeUnit.SECONDS)) {
+                LOG.warn("{} rule action(s) still running at shutdown, they are retried from the outbox", workers.getActiveCount());
+                workers.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            workers.shutdownNow();
+        }
+    }
+
+    public void actionEnqueued(@Observes(during = TransactionPhase.AFTER_SUCCESS) @ActionEnqueuedEvent ActionOutbox entry) {
+        submit(entry.getId(), entry.getAction());
+    }
+
+    /**
+     * Hands every outbox entry that is due, and not already handled by this node, to the workers.
+     */
+    public void dispatchDue() {
+        int capacity = workers.getQueue().remainingCapacity();
+        if (capacity == 0) {
+            return;
+        }
+        for (ActionOutbox entry : rulesDao.getDueActionOutboxEntries(Instant.now(), capacity)) {
+            submit(entry.getId(), entry.getAction());
+        }
+    }
+
+    public int getQueueDepth() {
+        return workers.getQueue().size();
+    }
+
+    public int getActiveWorkers() {
+        return workers.getActiveCount();
+    }
+
+    public long getNotExecuted() {
+        return notExecuted.sum();
+    }
+
+    /**
+     * @return average execution time in milliseconds of the successful actions, per action type
+     */
+    public Map<String, Double> getAverageLatencyMillis() {
+        Map<String, Double> latencies = new HashMap<>();
+        executed.forEach((action, count) -> {
+            long executions = count.sum();
+            if (executions > 0) {
+                latencies.put(action, TimeUnit.NANOSECONDS.toMicros(executionNanos.get(action).sum() / executions) / 1000.0);
+            }
+        });
+        return latencies;
+    }
+
+    private void submit(UUID id, String action) {
+        if (id == null || !inFlight.add(id)) {
+            return;
+        }
+        try {
+            workers.execute(() -> execute(id, action));
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(id);
+            LOG.debug("Rule action queue is full, action {} is left in the outbox", id);
+        }
+    }
+
+    private void execute(UUID id, String action) {
+        long start = System.nanoTime();
+        try {
+            if (validationService.executeAction(id)) {
+                executionNanos.computeIfAbsent(action, a -> new LongAdder()).add(System.nanoTime() - start);
+                executed.computeIfAbsent(action, a -> new LongAdder()).increment();
+            } else {
+                notExecuted.increment();
+            }
+        } catch (Exception e) {
+            notExecuted.increment();
+            LOG.error("Could not execute rule action {}", id, e);
+        } finally {
+            inFlight.remove(id);
+        }
+    }
+}
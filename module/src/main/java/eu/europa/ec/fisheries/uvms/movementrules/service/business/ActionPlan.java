@@ -0,0 +1,129 @@
+/*
+﻿Developed with the contribution of the European Commission - Directorate General for Maritime Affairs and Fisheries
+© European Union, 2015-2016.
+
+This file is part of the Integrated Fisheries Data Management (IFDM) Suite. The IFDM Suite is free software: you can
+redistribute it and/or modify it under the terms of the GNU General Public License as published by the
+Free Software Foundation, either version 3 of the License, or any later version. The IFDM Suite is distributed in
+the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details. You should have received a
+copy of the GNU General Public License along with the IFDM Suite. If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.europa.ec.fisheries.uvms.movementrules.service.business;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import eu.europa.ec.fisheries.schema.movementrules.customrule.v1.ActionType;
+import eu.europa.ec.fisheries.uvms.movementrules.service.entity.CustomRule;
+import eu.europa.ec.fisheries.uvms.movementrules.service.entity.RuleAction;
+
+/**
+ * The actions of a custom rule, parsed once when the rule set is compiled so a triggered rule only walks a list of
+ * typed actions.
+ */
+public final class ActionPlan {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ActionPlan.class);
+
+    private final String ruleGuid;
+    private final String ruleName;
+    private final List<PlannedAction> actions;
+
+    private ActionPlan(String ruleGuid, String ruleName, List<PlannedAction> actions) {
+        this.ruleGuid = ruleGuid;
+        this.ruleName = ruleName;
+        this.actions = Collections.unmodifiableList(actions);
+    }
+
+    /**
+     * Actions that are not a known {@link ActionType} are left out of the plan.
+     */
+    public static ActionPlan compile(CustomRule customRule) {
+        List<PlannedAction> actions = new ArrayList<>();
+        if (customRule.getRuleActionList() != null) {
+            for (RuleAction ruleAction : customRule.getRuleActionList()) {
+                try {
+                    // Target and value as the DRL used to get them, an empty target and "null" when unset
+                    actions.add(new PlannedAction(ActionType.valueOf(ruleAction.getAction()),
+                            ruleAction.getTarget() != null ? ruleAction.getTarget() : "", String.valueOf(ruleAction.getValue())));
+                } catch (IllegalArgumentException | NullPointerException e) {
+                    LOG.warn("Custom rule {} has an unknown action '{}', it is ignored", customRule.getGuid(), ruleAction.getAction());
+                }
+            }
+        }
+        return new ActionPlan(customRule.getGuid().toString(), customRule.getName(), actions);
+    }
+
+    /**
+     * Parses actions in the format "ACTION,TARGET,VALUE;ACTION,TARGET,VALUE;". Target and value are left empty
+     * unless both are given.
+     */
+    public static ActionPlan parse(String ruleGuid, String ruleName, String actions) {
+        List<PlannedAction> plannedActions = new ArrayList<>();
+        for (String keyValue : actions.split(";")) {
+            if (keyValue.isEmpty()) {
+                continue;
+            }
+            String[] keyValueList = keyValue.split(",");
+            String target = "";
+            String value = "";
+            if (keyValueList.length == 3) {
+                target = keyValueList[1];
+                value = keyValueList[2];
+            }
+            plannedActions.add(new PlannedAction(ActionType.valueOf(keyValueList[0]), target, value));
+        }
+        return new ActionPlan(ruleGuid, ruleName, plannedActions);
+    }
+
+    public String getRuleGuid() {
+        return ruleGuid;
+    }
+
+    public String getRuleName() {
+        return ruleName;
+    }
+
+    public List<PlannedAction> getActions() {
+        return actions;
+    }
+
+    @Override
+    public String toString() {
+        if (actions.isEmpty()) {
+            return ";";
+        }
+        StringBuilder sb = new StringBuilder();
+        for (PlannedAction action : actions) {
+            sb.append(action.type.name()).append(',').append(action.target).append(',').append(action.value).append(';');
+        }
+        return sb.toString();
+    }
+
+    public static final class PlannedAction {
+        private final ActionType type;
+        private final String target;
+        private final String value;
+
+        PlannedAction(ActionType type, String target, String value) {
+            this.type = type;
+            this.target = target;
+            this.value = value;
+        }
+
+        public ActionType getType() {
+            return type;
+        }
+
+        public String getTarget() {
+            return target;
+        }
+
+        public String getValue() {
+            return value;
+        }
+    }
+}
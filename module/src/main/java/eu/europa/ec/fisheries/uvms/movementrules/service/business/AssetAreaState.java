@@ -0,0 +1,135 @@
+/*
+﻿Developed with the contribution of the European Commission - Directorate General for Maritime Affairs and Fisheries
+© European Union, 2015-2016.
+
+This file is part of the Integrated Fisheries Data Management (IFDM) Suite. The IFDM Suite is free software: you can
+redistribute it and/or modify it under the terms of the GNU General Public License as published by the
+Free Software Foundation, either version 3 of the License, or any later version. The IFDM Suite is distributed in
+the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details. You should have received a
+copy of the GNU General Public License along with the IFDM Suite. If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.europa.ec.fisheries.uvms.movementrules.service.business;
+
+import eu.europa.ec.fisheries.uvms.movementrules.service.boundary.AreaTransitionsDTO;
+import eu.europa.ec.fisheries.uvms.spatial.model.schemas.AreaExtendedIdentifierType;
+
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Singleton;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Remembers the areas of each asset's last position, from all sources and from VMS sources only. When a movement's
+ * previous position is the remembered one, its transitions are the difference between the remembered areas and
+ * the current ones, and Spatial only has to be asked for the current position.
+ */
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class AssetAreaState {
+
+    private final ConcurrentMap<String, LastAreas> lastAreas = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, LastAreas> lastVMSAreas = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the areas of the asset's last position if that was at the given position, otherwise null.
+     */
+    public Map<String, AreaExtendedIdentifierType> getAreas(String assetGuid, Double latitude, Double longitude) {
+        return areasAt(lastAreas, assetGuid, latitude, longitude);
+    }
+
+    /**
+     * Returns the areas of the asset's last VMS position if that was at the given position, otherwise null.
+     */
+    public Map<String, AreaExtendedIdentifierType> getVMSAreas(String assetGuid, Double latitude, Double longitude) {
+        return areasAt(lastVMSAreas, assetGuid, latitude, longitude);
+    }
+
+    public void update(String assetGuid, Double latitude, Double longitude, List<AreaExtendedIdentifierType> areas, boolean vms) {
+        if (assetGuid == null || latitude == null || longitude == null) {
+            return;
+        }
+        Map<String, AreaExtendedIdentifierType> areasByKey = new LinkedHashMap<>();
+        for (AreaExtendedIdentifierType area : areas) {
+            areasByKey.put(key(area), area);
+        }
+        LastAreas last = new LastAreas(latitude, longitude, Collections.unmodifiableMap(areasByKey));
+        lastAreas.put(assetGuid, last);
+        if (vms) {
+            lastVMSAreas.put(assetGuid, last);
+        }
+    }
+
+    public void remove(String assetGuid) {
+        lastAreas.remove(assetGuid);
+        lastVMSAreas.remove(assetGuid);
+    }
+
+    public int getSize() {
+        return lastAreas.size();
+    }
+
+    /**
+     * Transitions from the given previous areas to the areas of the current enrichment.
+     */
+    public static AreaTransitionsDTO transitions(AreaTransitionsDTO current, Map<String, AreaExtendedIdentifierType> previousAreas) {
+        Map<String, AreaExtendedIdentifierType> currentAreas = new LinkedHashMap<>();
+        if (current.getSpatialEnrichmentRS().getAreasByLocation() != null) {
+            for (AreaExtendedIdentifierType area : current.getSpatialEnrichmentRS().getAreasByLocation().getAreas()) {
+                currentAreas.put(key(area), area);
+            }
+        }
+        List<AreaExtendedIdentifierType> enteredAreas = new ArrayList<>();
+        for (Map.Entry<String, AreaExtendedIdentifierType> area : currentAreas.entrySet()) {
+            if (!previousAreas.containsKey(area.getKey())) {
+                enteredAreas.add(area.getValue());
+            }
+        }
+        List<AreaExtendedIdentifierType> exitedAreas = new ArrayList<>();
+        for (Map.Entry<String, AreaExtendedIdentifierType> area : previousAreas.entrySet()) {
+            if (!currentAreas.containsKey(area.getKey())) {
+                exitedAreas.add(area.getValue());
+            }
+        }
+        AreaTransitionsDTO areaTransitions = new AreaTransitionsDTO();
+        areaTransitions.setSpatialEnrichmentRS(current.getSpatialEnrichmentRS());
+        areaTransitions.setEnteredAreas(enteredAreas);
+        areaTransitions.setExitedAreas(exitedAreas);
+        return areaTransitions;
+    }
+
+    private Map<String, AreaExtendedIdentifierType> areasAt(ConcurrentMap<String, LastAreas> areas, String assetGuid,
+                                                            Double latitude, Double longitude) {
+        if (assetGuid == null || latitude == null || longitude == null) {
+            return null;
+        }
+        LastAreas last = areas.get(assetGuid);
+        if (last == null || last.latitude != latitude || last.longitude != longitude) {
+            return null;
+        }
+        return last.areas;
+    }
+
+    static String key(AreaExtendedIdentifierType area) {
+        return area.getAreaType() + ":" + area.getCode();
+    }
+
+    private static class LastAreas {
+        private final double latitude;
+        private final double longitude;
+        private final Map<String, AreaExtendedIdentifierType> areas;
+
+        private LastAreas(double latitude, double longitude, Map<String, AreaExtendedIdentifierType> areas) {
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.areas = areas;
+        }
+    }
+}
@@ -0,0 +1,270 @@
+/*
+﻿Developed with the contribution of the European Commission - Directorate General for Maritime Affairs and Fisheries
+© European Union, 2015-2016.
+
+This file is part of the Integrated Fisheries Data Management (IFDM) Suite. The IFDM Suite is free software: you can
+redistribute it and/or modify it under the terms of the GNU General Public License as published by the
+Free Software Foundation, either version 3 of the License, or any later version. The IFDM Suite is distributed in
+the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details. You should have received a
+copy of the GNU General Public License along with the IFDM Suite. If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.europa.ec.fisheries.uvms.movementrules.service.business;
+
+import eu.europa.ec.fisheries.uvms.config.service.ParameterService;
+import eu.europa.ec.fisheries.uvms.movementrules.service.bean.RulesServiceBean;
+import eu.europa.ec.fisheries.uvms.movementrules.service.config.ParameterKey;
+import eu.europa.ec.fisheries.uvms.movementrules.service.constants.ServiceConstants;
+import eu.europa.ec.fisheries.uvms.movementrules.service.dao.RulesDao;
+import eu.europa.ec.fisheries.uvms.movementrules.service.entity.PreviousReport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.PostConstruct;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.EJB;
+import javax.ejb.Singleton;
+import javax.inject.Inject;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps the time each asset becomes overdue, ordered by deadline, so the "Asset not sending" rule only looks at the
+ * assets that are due instead of every previous report. Deadlines are updated as positions are evaluated, an asset
+ * that has been reported as not sending is due again one threshold later. Only the assets in the shard of this node
+ * are kept, see {@link ClusterMembership}.
+ */
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class AssetNotSendingScheduler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AssetNotSendingScheduler.class);
+
+    private static final long TWO_HOURS_IN_MILLISECONDS = 7200000;
+
+    private static final int LOAD_CHUNK_SIZE = 1000;
+
+    @Inject
+    private RulesDao rulesDao;
+
+    @EJB
+    private RulesServiceBean rulesService;
+
+    @EJB
+    private ParameterService parameterService;
+
+    @EJB
+    private ClusterMembership clusterMembership;
+
+    private final ConcurrentMap<String, Deadline> deadlines = new ConcurrentHashMap<>();
+
+    private final ConcurrentSkipListSet<Deadline> queue = new ConcurrentSkipListSet<>();
+
+    private final LongAdder fired = new LongAdder();
+
+    private volatile long threshold = TWO_HOURS_IN_MILLISECONDS;
+
+    private volatile ClusterShard balancedShard = ClusterShard.ALL;
+
+    @PostConstruct
+    public void init() {
+        threshold = getAssetNotSendingThreshold();
+    }
+
+    /**
+     * Called for every position stored as the previous report of its asset.
+     */
+    public void reported(String assetGuid, Instant positionTime) {
+        schedule(assetGuid, positionTime, Instant.now());
+    }
+
+    public void schedule(String assetGuid, Instant positionTime, Instant updated) {
+        if (assetGuid == null || positionTime == null) {
+            return;
+        }
+        if (!clusterMembership.owns(assetGuid)) {
+            unschedule(assetGuid);
+            return;
+        }
+        long currentThreshold = threshold;
+        deadlines.compute(assetGuid, (guid, previous) -> {
+            if (previous != null) {
+                queue.remove(previous);
+            }
+            Deadline next = new Deadline(guid, positionTime, updated != null ? updated : positionTime, currentThreshold);
+            queue.add(next);
+            return next;
+        });
+    }
+
+    public void unschedule(String assetGuid) {
+        Deadline previous = deadlines.remove(assetGuid);
+        if (previous != null) {
+            queue.remove(previous);
+        }
+    }
+
+    /**
+     * Drops the assets this node no longer owns, after a node has joined or left the cluster. The assets taken over
+     * are not loaded, that would read every previous report on each change of the cluster. They are scheduled with
+     * their next position, and reported by the sweep of {@link CheckCommunicationTask} if they stop sending before.
+     *
+     * @return the number of assets dropped
+     */
+    public int rebalance() {
+        ClusterShard shard = clusterMembership.getShard();
+        if (shard.equals(balancedShard)) {
+            return 0;
+        }
+        int dropped = 0;
+        for (String assetGuid : new ArrayList<>(deadlines.keySet())) {
+            if (!shard.owns(assetGuid)) {
+                unschedule(assetGuid);
+                dropped++;
+            }
+        }
+        balancedShard = shard;
+        LOG.info("Rebalanced asset not sending checks for shard {}, {} assets handed over, {} scheduled", shard, dropped, deadlines.size());
+        return dropped;
+    }
+
+    /**
+     * Triggers the "Asset not sending" rule for every asset whose deadline has passed. The previous report in the
+     * database is checked as well, it may have been updated by another node or by the sweep.
+     *
+     * @return the number of assets reported as not sending
+     */
+    public int fireDue() {
+        long currentThreshold = getAssetNotSendingThreshold();
+        if (currentThreshold != threshold) {
+            threshold = currentThreshold;
+            deadlines.values().forEach(deadline -> schedule(deadline.assetGuid, deadline.positionTime, deadline.updated));
+        }
+        Instant now = Instant.now();
+        List<Deadline> due = new ArrayList<>();
+        for (Deadline deadline : queue) {
+            if (deadline.at.isAfter(now)) {
+                break;
+            }
+            due.add(deadline);
+        }
+        if (due.isEmpty()) {
+            return 0;
+        }
+        Map<String, PreviousReport> reports = loadReports(due);
+        int firedNow = 0;
+        for (Deadline deadline : due) {
+            if (deadlines.get(deadline.assetGuid) != deadline) {
+                // Rescheduled by a newer position while collecting the due assets
+                continue;
+            }
+            if (!clusterMembership.owns(deadline.assetGuid)) {
+                // Handed over to another node, it is dropped on the next rebalance
+                continue;
+            }
+            PreviousReport report = reports.get(deadline.assetGuid);
+            if (report == null) {
+                unschedule(deadline.assetGuid);
+                continue;
+            }
+            Instant positionTime = latest(deadline.positionTime, report.getPositionTime());
+            Instant updated = latest(deadline.updated, report.getUpdated());
+            if (Deadline.at(positionTime, updated, currentThreshold).isAfter(now)) {
+                schedule(deadline.assetGuid, positionTime, updated);
+                continue;
+            }
+            report.setUpdated(now);
+            LOG.info("\t ==> Executing RULE '{}', assetGuid: {}, positionTime: {}, threshold: {}",
+                    ServiceConstants.ASSET_NOT_SENDING_RULE, report.getAssetGuid(), positionTime, currentThreshold);
+            rulesService.timerRuleTriggered(ServiceConstants.ASSET_NOT_SENDING_RULE, report);
+            schedule(deadline.assetGuid, positionTime, now);
+            firedNow++;
+        }
+        fired.add(firedNow);
+        return firedNow;
+    }
+
+    private Map<String, PreviousReport> loadReports(List<Deadline> due) {
+        Map<String, PreviousReport> reports = new HashMap<>();
+        for (int i = 0; i < due.size(); i += LOAD_CHUNK_SIZE) {
+            List<String> assetGuids = new ArrayList<>();
+            for (Deadline deadline : due.subList(i, Math.min(i + LOAD_CHUNK_SIZE, due.size()))) {
+                assetGuids.add(deadline.assetGuid);
+            }
+            for (PreviousReport report : rulesDao.getPreviousReportsByAssetGuids(assetGuids)) {
+                reports.put(report.getAssetGuid(), report);
+            }
+        }
+        return reports;
+    }
+
+    private Instant latest(Instant inMemory, Instant persisted) {
+        if (persisted == null || inMemory.isAfter(persisted)) {
+            return inMemory;
+        }
+        return persisted;
+    }
+
+    private long getAssetNotSendingThreshold() {
+        try {
+            String thresholdSetting = parameterService.getStringValue(ParameterKey.ASSET_NOT_SENDING_THRESHOLD.getKey());
+            return Long.valueOf(thresholdSetting);
+        } catch (Exception e) {
+            LOG.error("Unable to get asset not sending threashold from parameter service due to {}. Returning two hours instead: ", e.getMessage(), e);
+            return TWO_HOURS_IN_MILLISECONDS;
+        }
+    }
+
+    public int getSize() {
+        return deadlines.size();
+    }
+
+    public Instant getNextDeadline() {
+        Deadline next = queue.isEmpty() ? null : queue.first();
+        return next != null ? next.at : null;
+    }
+
+    public long getFired() {
+        return fired.sum();
+    }
+
+    static class Deadline implements Comparable<Deadline> {
+        private final String assetGuid;
+        private final Instant positionTime;
+        private final Instant updated;
+        private final Instant at;
+
+        Deadline(String assetGuid, Instant positionTime, Instant updated, long threshold) {
+            this.assetGuid = assetGuid;
+            this.positionTime = positionTime;
+            this.updated = updated;
+            this.at = at(positionTime, updated, threshold);
+        }
+
+        /**
+         * An asset is overdue one threshold after its position time. Once it has been reported, which sets updated,
+         * it is overdue again one threshold after that.
+         */
+        static Instant at(Instant positionTime, Instant updated, long threshold) {
+            Instant positionDeadline = positionTime.plusMillis(threshold);
+            if (updated != null && updated.isAfter(positionDeadline)) {
+                return updated.plusMillis(threshold);
+            }
+            return positionDeadline;
+        }
+
+        @Override
+        public int compareTo(Deadline other) {
+            int byTime = at.compareTo(other.at);
+            return byTime != 0 ? byTime : assetGuid.compareTo(other.assetGuid);
+        }
+    }
+}
@@ -11,7 +11,6 @@ copy of the GNU General Public License along with the IFDM Suite. If not, see <h
  */
 package eu.europa.ec.fisheries.uvms.movementrules.service.business;
 
-import java.time.Instant;
 import java.util.List;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -23,47 +22,48 @@ import eu.europa.ec.fisheries.uvms.movementrules.service.entity.PreviousReport;
 
 public class CheckCommunicationTask implements Runnable {
     private static final long TWO_HOURS_IN_MILLISECONDS = 7200000;
+    private static final int CHUNK_SIZE = 500;
 
     private static final Logger LOG = LoggerFactory.getLogger(CheckCommunicationTask.class);
 
     private RulesServiceBean rulesService;
     private ParameterService parameterService;
+    private ClusterMembership clusterMembership;
 
     CheckCommunicationTask(RulesServiceBean rulesService, ParameterService parameterService) {
+        this(rulesService, parameterService, null);
+    }
+
+    CheckCommunicationTask(RulesServiceBean rulesService, ParameterService parameterService, ClusterMembership clusterMembership) {
         this.rulesService = rulesService;
         this.parameterService = parameterService;
+        this.clusterMembership = clusterMembership;
     }
 
     public void run() {
         try {
             LOG.debug("RulesTimerBean tick");
-            // Get all previous reports from DB
-            List<PreviousReport> previousReports = rulesService.getPreviousMovementReports();
             long threshold = getAssetNotSendingThreshold();
-            
-            for (PreviousReport previousReport : previousReports) {
-                Instant positionTime = previousReport.getPositionTime();
-                Instant lastUpdated = previousReport.getUpdated();
-                if (isThresholdPassed(positionTime, lastUpdated, threshold)) {
-                    previousReport.setUpdated(Instant.now());
-                    LOG.info("\t ==> Executing RULE '{}', assetGuid: {}, positionTime: {}, threshold: {}",
-                            ServiceConstants.ASSET_NOT_SENDING_RULE, previousReport.getAssetGuid(), positionTime, threshold);
-                    String ruleName = ServiceConstants.ASSET_NOT_SENDING_RULE;
-                    rulesService.timerRuleTriggered(ruleName, previousReport);
+            String ruleName = ServiceConstants.ASSET_NOT_SENDING_RULE;
+            ClusterShard shard = clusterMembership != null ? clusterMembership.getShard() : ClusterShard.ALL;
+            // Only overdue reports are fetched, one page per transaction, keyed on asset guid
+            String lastAssetGuid = "";
+            List<PreviousReport> overdueReports;
+            do {
+                overdueReports = rulesService.triggerOverduePreviousReports(ruleName, threshold, lastAssetGuid, CHUNK_SIZE, shard);
+                for (PreviousReport previousReport : overdueReports) {
+                    if (shard.owns(previousReport.getAssetGuid())) {
+                        LOG.info("\t ==> Executed RULE '{}', assetGuid: {}, positionTime: {}, threshold: {}",
+                                ruleName, previousReport.getAssetGuid(), previousReport.getPositionTime(), threshold);
+                    }
+                    lastAssetGuid = previousReport.getAssetGuid();
                 }
-            }
+            } while (overdueReports.size() == CHUNK_SIZE);
         } catch (Exception e) {
             LOG.error("Could not execute 'Asset not sending' rule", e);
         }
     }
-    
-    private boolean isThresholdPassed(Instant positionTime, Instant lastUpdated, long threshold) {
-        long positionThreshold = positionTime.toEpochMilli() + threshold;
-        long updateThreshold = lastUpdated.toEpochMilli() + threshold;
-        long now = System.currentTimeMillis();
-        return positionThreshold <= now && (lastUpdated.toEpochMilli() <= positionThreshold || updateThreshold <= now);
-    }
-    
+
     private long getAssetNotSendingThreshold() {
         try {
             String thresholdSetting = parameterService.getStringValue(ParameterKey.ASSET_NOT_SENDING_THRESHOLD.getKey());
@@ -30,22 +30,33 @@ public class CheckRulesChangesTask implements Runnable {
     ValidationServiceBean validationService;
     RulesValidator rulesValidator;
     RulesServiceBean rulesService;
+    LeaderElection leaderElection;
 
     public CheckRulesChangesTask(ValidationServiceBean validationService, RulesValidator rulesValidator, RulesServiceBean rulesService) {
+        this(validationService, rulesValidator, rulesService, null);
+    }
+
+    public CheckRulesChangesTask(ValidationServiceBean validationService, RulesValidator rulesValidator, RulesServiceBean rulesService, LeaderElection leaderElection) {
         this.validationService = validationService;
         this.rulesValidator = rulesValidator;
         this.rulesService = rulesService;
+        this.leaderElection = leaderElection;
     }
 
     @Override
     public void run() {
-        clearCustomRules();
+        // Inactivating rules in the DB is done once for the cluster, while every node drops the expired rules
+        // from its own rule set and reloads its own rule engine
+        if (leaderElection == null || leaderElection.isLeader()) {
+            clearCustomRules();
+        }
+        rulesValidator.removeExpiredCustomRules();
+        rulesValidator.updateEngineIfChanged();
     }
 
     private void clearCustomRules()  {
         LOG.debug("Looking outdated custom rules");
         List<CustomRule> customRules = rulesService.getRunnableCustomRules();
-        boolean updateNeeded = false;
         for (CustomRule rule : customRules) {
             // If there are no time intervals, we do not need to check if the rule should be inactivated.
             boolean inactivate = !rule.getIntervals().isEmpty();
@@ -61,12 +72,7 @@ public class CheckRulesChangesTask implements Runnable {
                 LOG.debug("Inactivating {}", rule.getName());
                 rule.setActive(false);
                 rule.setUpdatedBy("UVMS Out of date checker");
-                updateNeeded = true;
             }
         }
-        if (updateNeeded) {
-            LOG.debug("Clear outdated custom rules");
-            rulesValidator.updateCustomRules();
-        }
     }
 }
\ No newline at end of file
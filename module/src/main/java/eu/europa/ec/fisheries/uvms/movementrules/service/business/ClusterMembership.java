@@ -0,0 +1,102 @@
+/*
+﻿Developed with the contribution of the European Commission - Directorate General for Maritime Affairs and Fisheries
+© European Union, 2015-2016.
+
+This file is part of the Integrated Fisheries Data Management (IFDM) Suite. The IFDM Suite is free software: you can
+redistribute it and/or modify it under the terms of the GNU General Public License as published by the
+Free Software Foundation, either version 3 of the License, or any later version. The IFDM Suite is distributed in
+the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details. You should have received a
+copy of the GNU General Public License along with the IFDM Suite. If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.europa.ec.fisheries.uvms.movementrules.service.business;
+
+import eu.europa.ec.fisheries.uvms.movementrules.service.dao.RulesDao;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.PreDestroy;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.EJB;
+import javax.ejb.Singleton;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.inject.Inject;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks the live nodes of the cluster through the heartbeat table and divides the assets between them. Until the
+ * first heartbeat a node owns every asset.
+ */
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class ClusterMembership {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ClusterMembership.class);
+
+    static final long HEARTBEAT_INTERVAL_SECONDS = 10;
+
+    private static final Duration NODE_TIMEOUT = Duration.ofSeconds(30);
+
+    private static final Duration STALE_NODE_RETENTION = Duration.ofHours(1);
+
+    @Inject
+    private RulesDao rulesDao;
+
+    @EJB
+    private LeaderElection leaderElection;
+
+    private volatile ClusterShard shard = ClusterShard.ALL;
+
+    private final AtomicLong rebalances = new AtomicLong();
+
+    @PreDestroy
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public void destroy() {
+        try {
+            // Leave at once so the other nodes take over this shard on their next heartbeat
+            rulesDao.deleteNode(leaderElection.getNode());
+        } catch (RuntimeException e) {
+            LOG.warn("Could not remove node {} from the cluster: {}", leaderElection.getNode(), e.getMessage());
+        }
+    }
+
+    /**
+     * Writes the heartbeat of this node and reads the live nodes.
+     *
+     * @return true if the shard of this node changed, i.e. a node joined or left
+     */
+    public boolean heartbeat() {
+        String node = leaderElection.getNode();
+        Instant now = Instant.now();
+        rulesDao.heartbeat(node, now);
+        if (leaderElection.isLeader()) {
+            rulesDao.deleteStaleNodes(now.minus(STALE_NODE_RETENTION));
+        }
+        List<String> nodes = rulesDao.getLiveNodes(now.minus(NODE_TIMEOUT));
+        ClusterShard next = new ClusterShard(nodes.indexOf(node), nodes);
+        if (next.equals(shard)) {
+            return false;
+        }
+        LOG.info("Node {} now checks shard {}", node, next);
+        shard = next;
+        rebalances.incrementAndGet();
+        return true;
+    }
+
+    public ClusterShard getShard() {
+        return shard;
+    }
+
+    public boolean owns(String assetGuid) {
+        return shard.owns(assetGuid);
+    }
+
+    public long getRebalances() {
+        return rebalances.get();
+    }
+}
@@ -0,0 +1,71 @@
+/*
+﻿Developed with the contribution of the European Commission - Directorate General for Maritime Affairs and Fisheries
+© European Union, 2015-2016.
+
+This file is part of the Integrated Fisheries Data Management (IFDM) Suite. The IFDM Suite is free software: you can
+redistribute it and/or modify it under the terms of the GNU General Public License as published by the
+Free Software Foundation, either version 3 of the License, or any later version. The IFDM Suite is distributed in
+the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details. You should have received a
+copy of the GNU General Public License along with the IFDM Suite. If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.europa.ec.fisheries.uvms.movementrules.service.business;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The part of the assets a node is responsible for. Assets are spread over the live nodes by the hash of their
+ * guid, node {@code index} of {@code count} owns the assets whose hash modulo {@code count} equals {@code index}.
+ */
+public class ClusterShard {
+
+    public static final ClusterShard ALL = new ClusterShard(0, Collections.emptyList());
+
+    private final int index;
+
+    private final List<String> nodes;
+
+    ClusterShard(int index, List<String> nodes) {
+        this.index = index;
+        this.nodes = Collections.unmodifiableList(nodes);
+    }
+
+    public boolean owns(String assetGuid) {
+        return getCount() == 1 || Math.floorMod(assetGuid.hashCode(), getCount()) == index;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public int getCount() {
+        return Math.max(nodes.size(), 1);
+    }
+
+    public List<String> getNodes() {
+        return nodes;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        ClusterShard other = (ClusterShard) o;
+        return index == other.index && nodes.equals(other.nodes);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * index + nodes.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return (index + 1) + "/" + getCount() + " " + nodes;
+    }
+}
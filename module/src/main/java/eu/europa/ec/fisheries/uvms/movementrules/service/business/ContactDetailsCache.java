@@ -0,0 +1,158 @@
+/*
+﻿Developed with the contribution of the European Commission - Directorate General for Maritime Affairs and Fisheries
+© European Union, 2015-2016.
+
+This file is part of the Integrated Fisheries Data Management (IFDM) Suite. The IFDM Suite is free software: you can
+redistribute it and/or modify it under the terms of the GNU General Public License as published by the
+Free Software Foundation, either version 3 of the License, or any later version. The IFDM Suite is distributed in
+the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details. You should have received a
+copy of the GNU General Public License along with the IFDM Suite. If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.europa.ec.fisheries.uvms.movementrules.service.business;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Singleton;
+import javax.inject.Inject;
+import javax.jms.JMSException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import eu.europa.ec.fisheries.uvms.movementrules.service.boundary.UserServiceBean;
+import eu.europa.ec.fisheries.uvms.user.model.exception.ModelMarshallException;
+import eu.europa.ec.fisheries.wsdl.user.module.GetContactDetailResponse;
+import eu.europa.ec.fisheries.wsdl.user.types.ContactDetails;
+
+/**
+ * Contact details of users, kept for {@value #TTL_MILLIS} ms so subscription emails and organisation lookups do not
+ * need a request/reply round trip to User every time. Users without contact details are cached as well.
+ */
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class ContactDetailsCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ContactDetailsCache.class);
+
+    static final long TTL_MILLIS = 10 * 60 * 1000L;
+
+    // Users without contact details are asked again soon, they may just have been created
+    static final long NEGATIVE_TTL_MILLIS = 30 * 1000L;
+
+    @Inject
+    private UserServiceBean userService;
+
+    private final ConcurrentMap<String, CachedContact> contacts = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    private ExecutorService prefetcher;
+
+    @PostConstruct
+    public void init() {
+        prefetcher = Executors.newSingleThreadExecutor();
+    }
+
+    @PreDestroy
+    public void destroy() {
+        prefetcher.shutdownNow();
+    }
+
+    public ContactDetails getContactDetails(String username) throws ModelMarshallException, JMSException {
+        CachedContact cached = contacts.get(username);
+        if (cached != null && !cached.isExpired(System.currentTimeMillis())) {
+            hits.increment();
+            return cached.contactDetails;
+        }
+        misses.increment();
+        GetContactDetailResponse response = userService.getContactDetails(username);
+        ContactDetails contactDetails = response != null ? response.getContactDetails() : null;
+        contacts.put(username, new CachedContact(contactDetails, System.currentTimeMillis()));
+        return contactDetails;
+    }
+
+    public String getEmail(String username) throws ModelMarshallException, JMSException {
+        ContactDetails contactDetails = getContactDetails(username);
+        return contactDetails != null ? contactDetails.getEMail() : null;
+    }
+
+    public String getOrganisationName(String username) throws ModelMarshallException, JMSException {
+        ContactDetails contactDetails = getContactDetails(username);
+        return contactDetails != null ? contactDetails.getOrganisationName() : null;
+    }
+
+    /**
+     * Loads the users that are missing or expired in the background, all requests are sent in one go.
+     */
+    public void prefetch(Collection<String> usernames) {
+        long now = System.currentTimeMillis();
+        List<String> toLoad = usernames.stream()
+                .filter(username -> username != null && !username.isEmpty())
+                .distinct()
+                .filter(username -> {
+                    CachedContact cached = contacts.get(username);
+                    return cached == null || cached.isExpired(now);
+                })
+                .collect(Collectors.toList());
+        if (toLoad.isEmpty()) {
+            return;
+        }
+        prefetcher.submit(() -> {
+            try {
+                Map<String, GetContactDetailResponse> responses = userService.getContactDetails(toLoad);
+                long loaded = System.currentTimeMillis();
+                responses.forEach((username, response) ->
+                        contacts.put(username, new CachedContact(response != null ? response.getContactDetails() : null, loaded)));
+                LOG.debug("Prefetched contact details of {} user(s)", responses.size());
+            } catch (Exception e) {
+                LOG.warn("Could not prefetch contact details of {} user(s): {}", toLoad.size(), e.getMessage());
+            }
+        });
+    }
+
+    public void invalidate(String username) {
+        contacts.remove(username);
+    }
+
+    public void invalidateAll() {
+        contacts.clear();
+    }
+
+    public int getSize() {
+        return contacts.size();
+    }
+
+    /**
+     * @return share of the lookups answered from the cache, 0 when nothing has been looked up
+     */
+    public double getHitRatio() {
+        long found = hits.sum();
+        long total = found + misses.sum();
+        return total == 0 ? 0 : (double) found / total;
+    }
+
+    static final class CachedContact {
+        private final ContactDetails contactDetails;
+        private final long loaded;
+
+        CachedContact(ContactDetails contactDetails, long loaded) {
+            this.contactDetails = contactDetails;
+            this.loaded = loaded;
+        }
+
+        boolean isExpired(long now) {
+            return now - loaded > (contactDetails != null ? TTL_MILLIS : NEGATIVE_TTL_MILLIS);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+﻿Developed with the contribution of the European Commission - Directorate General for Maritime Affairs and Fisheries
+© European Union, 2015-2016.
+
+This file is part of the Integrated Fisheries Data Management (IFDM) Suite. The IFDM Suite is free software: you can
+redistribute it and/or modify it under the terms of the GNU General Public License as published by the
+Free Software Foundation, either version 3 of the License, or any later version. The IFDM Suite is distributed in
+the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details. You should have received a
+copy of the GNU General Public License along with the IFDM Suite. If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.europa.ec.fisheries.uvms.movementrules.service.business;
+
+import eu.europa.ec.fisheries.uvms.movementrules.service.dao.RulesDao;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.PreDestroy;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Singleton;
+import javax.inject.Inject;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Collects the last triggered time of custom rules in memory. A rule triggered many times between two flushes is
+ * written once, and {@link #flush()} writes all rules with one bulk update per chunk.
+ */
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class LastTriggeredCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LastTriggeredCache.class);
+
+    private static final int FLUSH_CHUNK_SIZE = 500;
+
+    @Inject
+    private RulesDao rulesDao;
+
+    private final ConcurrentMap<UUID, Instant> pendingWrites = new ConcurrentHashMap<>();
+
+    @PreDestroy
+    public void destroy() {
+        flush();
+    }
+
+    public void triggered(UUID ruleGuid, Instant triggered) {
+        pendingWrites.merge(ruleGuid, triggered, (previous, current) -> current.isAfter(previous) ? current : previous);
+    }
+
+    /**
+     * Writes all queued times. Rules triggered again while the flush runs stay queued for the next one.
+     */
+    public void flush() {
+        if (pendingWrites.isEmpty()) {
+            return;
+        }
+        Map<UUID, Instant> batch = new HashMap<>();
+        for (Map.Entry<UUID, Instant> entry : pendingWrites.entrySet()) {
+            if (pendingWrites.remove(entry.getKey(), entry.getValue())) {
+                batch.put(entry.getKey(), entry.getValue());
+            }
+        }
+        try {
+            List<UUID> ruleGuids = new ArrayList<>(batch.keySet());
+            int updated = 0;
+            for (int i = 0; i < ruleGuids.size(); i += FLUSH_CHUNK_SIZE) {
+                Map<UUID, Instant> chunk = new HashMap<>();
+                for (UUID ruleGuid : ruleGuids.subList(i, Math.min(i + FLUSH_CHUNK_SIZE, ruleGuids.size()))) {
+                    chunk.put(ruleGuid, batch.get(ruleGuid));
+                }
+                updated += rulesDao.updateLastTriggered(chunk);
+            }
+            LOG.debug("Wrote last triggered time of {} rule(s)", updated);
+        } catch (RuntimeException e) {
+            batch.forEach((ruleGuid, triggered) -> triggered(ruleGuid, triggered));
+            throw e;
+        }
+    }
+
+    public int getPendingWrites() {
+        return pendingWrites.size();
+    }
+}
@@ -0,0 +1,142 @@
+/*
+﻿Developed with the contribution of the European Commission - Directorate General for Maritime Affairs and Fisheries
+© European Union, 2015-2016.
+
+This file is part of the Integrated Fisheries Data Management (IFDM) Suite. The IFDM Suite is free software: you can
+redistribute it and/or modify it under the terms of the GNU General Public License as published by the
+Free Software Foundation, either version 3 of the License, or any later version. The IFDM Suite is distributed in
+the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details. You should have received a
+copy of the GNU General Public License along with the IFDM Suite. If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.europa.ec.fisheries.uvms.movementrules.service.business;
+
+import eu.europa.ec.fisheries.uvms.movementrules.service.dao.RulesDao;
+import eu.europa.ec.fisheries.uvms.movementrules.service.entity.LeaderLease;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Singleton;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.inject.Inject;
+import java.net.InetAddress;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides which node of the cluster runs the cluster wide timer tasks. The node holding the lease row renews it
+ * every {@link #RENEW_INTERVAL_SECONDS} seconds. If it stops doing so, another node takes the lease over once it has
+ * expired. The lease is taken and expires on the clock of the database, the lease row itself is created by
+ * Liquibase. A node only considers itself leader until shortly before its lease expires, measured on its own clock
+ * from before the renewal, so two nodes never run the tasks at the same time even if their clocks differ.
+ */
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class LeaderElection {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LeaderElection.class);
+
+    public static final String RULES_TIMER_LEASE = "RulesTimer";
+
+    static final long RENEW_INTERVAL_SECONDS = 10;
+
+    private static final Duration LEASE_DURATION = Duration.ofSeconds(30);
+
+    private static final Duration SAFETY_MARGIN = Duration.ofSeconds(5);
+
+    @Inject
+    private RulesDao rulesDao;
+
+    private String node;
+
+    private volatile Instant leaderUntil;
+
+    private volatile String holder;
+
+    private volatile Instant leaseExpires;
+
+    private final AtomicLong acquisitions = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        String nodeName = System.getProperty("jboss.node.name");
+        if (nodeName == null) {
+            try {
+                nodeName = InetAddress.getLocalHost().getHostName();
+            } catch (Exception e) {
+                nodeName = "unknown";
+            }
+        }
+        node = nodeName + "/" + UUID.randomUUID().toString().substring(0, 8);
+    }
+
+    @PreDestroy
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public void destroy() {
+        if (isLeader()) {
+            try {
+                // Expire the lease right away so the next node does not have to wait for it
+                rulesDao.releaseLease(RULES_TIMER_LEASE, node);
+                leaderUntil = null;
+                LOG.info("Released lease {} held by {}", RULES_TIMER_LEASE, node);
+            } catch (RuntimeException e) {
+                LOG.warn("Could not release lease {}: {}", RULES_TIMER_LEASE, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Takes the lease if it is free or expired, or renews it if this node already holds it.
+     */
+    public void renew() {
+        Instant renewed = Instant.now();
+        boolean wasLeader = isLeader();
+        boolean acquired = rulesDao.acquireLease(RULES_TIMER_LEASE, node, LEASE_DURATION);
+        LeaderLease lease = rulesDao.getLease(RULES_TIMER_LEASE);
+        if (lease == null) {
+            LOG.error("Lease {} does not exist, no node runs the cluster wide timer tasks", RULES_TIMER_LEASE);
+        }
+        holder = lease != null ? lease.getHolder() : null;
+        leaseExpires = lease != null ? lease.getExpires() : null;
+        if (acquired) {
+            leaderUntil = renewed.plus(LEASE_DURATION).minus(SAFETY_MARGIN);
+            if (!wasLeader) {
+                acquisitions.incrementAndGet();
+                LOG.info("Node {} acquired lease {}", node, RULES_TIMER_LEASE);
+            }
+        } else {
+            leaderUntil = null;
+            if (wasLeader) {
+                LOG.warn("Node {} lost lease {} to {}", node, RULES_TIMER_LEASE, holder);
+            }
+        }
+    }
+
+    public boolean isLeader() {
+        Instant until = leaderUntil;
+        return until != null && Instant.now().isBefore(until);
+    }
+
+    public String getNode() {
+        return node;
+    }
+
+    public String getHolder() {
+        return holder;
+    }
+
+    public Instant getLeaseExpires() {
+        return leaseExpires;
+    }
+
+    public long getAcquisitions() {
+        return acquisitions.get();
+    }
+}
@@ -0,0 +1,407 @@
+/*
+﻿Developed with the contribution of the European Commission - Directorate General for Maritime Affairs and Fisheries
+© European Union, 2015-2016.
+
+This file is part of the Integrated Fisheries Data Management (IFDM) Suite. The IFDM Suite is free software: you can
+redistribute it and/or modify it under the terms of the GNU General Public License as published by the
+Free Software Foundation, either version 3 of the License, or any later version. The IFDM Suite is distributed in
+the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details. You should have received a
+copy of the GNU General Public License along with the IFDM Suite. If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.europa.ec.fisheries.uvms.movementrules.service.business;
+
+import eu.europa.ec.fisheries.uvms.movementrules.model.dto.MovementDetails;
+import eu.europa.ec.fisheries.uvms.movementrules.service.dao.RulesDao;
+import eu.europa.ec.fisheries.uvms.movementrules.service.entity.PreviousReport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.inject.Inject;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Keeps the last reported position of each asset in memory, evicting the least recently used asset above
+ * {@value #MAX_ENTRIES} assets. Lookups for the time diff are served from the cache, updates of known assets are
+ * queued and written to the database in batches by {@link #flush()}. Assets without a previous report are inserted
+ * right away, so a report exists as soon as the first position has been evaluated.
+ * <p>
+ * An update only reaches the cache and the write queue once its transaction has committed. Until then it is only
+ * seen by lookups in the same transaction, so a rolled back and redelivered movement is evaluated against the same
+ * previous report again.
+ * <p>
+ * Other nodes write the same reports. A report is only written when its position is later than the one in the
+ * database, and {@link #refresh()} updates the cached assets that have been written since the last refresh.
+ */
+@Startup
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class PreviousReportCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PreviousReportCache.class);
+
+    static final int MAX_ENTRIES = 200_000;
+
+    static final int FLUSH_INTERVAL_SECONDS = 10;
+
+    // Reports deleted by another node are not seen by the refresh, they are read again after this long
+    private static final Duration MAX_AGE = Duration.ofHours(24);
+
+    // Reports carry the clock of the node writing them and are committed some time after that
+    private static final Duration REFRESH_OVERLAP = Duration.ofMinutes(1);
+
+    private static final int FLUSH_CHUNK_SIZE = 1000;
+
+    private static final Object UNCOMMITTED_UPDATES = new Object();
+
+    @Inject
+    private RulesDao rulesDao;
+
+    @Inject
+    private AssetNotSendingScheduler assetNotSendingScheduler;
+
+    @Resource
+    private TransactionSynchronizationRegistry transactionSynchronizationRegistry;
+
+    private final Map<String, LastReport> reports = new LinkedHashMap<String, LastReport>(1024, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, LastReport> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    private final ConcurrentMap<String, LastReport> pendingWrites = new ConcurrentHashMap<>();
+
+    private volatile Instant refreshedAt;
+
+    @PostConstruct
+    public void init() {
+        refreshedAt = Instant.now();
+        int loaded = 0;
+        for (PreviousReport previousReport : rulesDao.getPreviousReportList()) {
+            if (loaded++ < MAX_ENTRIES) {
+                cache(previousReport.getAssetGuid(), LastReport.of(previousReport));
+            }
+            assetNotSendingScheduler.schedule(previousReport.getAssetGuid(), previousReport.getPositionTime(), previousReport.getUpdated());
+        }
+        LOG.info("Loaded {} previous reports", getSize());
+    }
+
+    @PreDestroy
+    public void destroy() {
+        flush();
+    }
+
+    /**
+     * Loads the reports of all assets not in the cache, or cached too long ago, with one query.
+     */
+    public void load(Collection<String> assetGuids) {
+        Instant staleBefore = Instant.now().minus(MAX_AGE);
+        List<String> missing = new ArrayList<>();
+        for (String assetGuid : assetGuids) {
+            if (assetGuid == null) {
+                continue;
+            }
+            LastReport cached = getCached(assetGuid);
+            if (cached == null || cached.isStale(staleBefore)) {
+                missing.add(assetGuid);
+            }
+        }
+        if (missing.isEmpty()) {
+            return;
+        }
+        Map<String, LastReport> loaded = new HashMap<>();
+        for (PreviousReport previousReport : rulesDao.getPreviousReportsByAssetGuids(missing)) {
+            loaded.put(previousReport.getAssetGuid(), LastReport.of(previousReport));
+        }
+        for (String assetGuid : missing) {
+            cache(assetGuid, loaded.getOrDefault(assetGuid, LastReport.absent()));
+        }
+    }
+
+    public Instant getLastPositionTime(String assetGuid) {
+        if (assetGuid == null) {
+            return null;
+        }
+        return lookup(assetGuid).positionTime;
+    }
+
+    public void update(MovementDetails movementDetails) {
+        String assetGuid = movementDetails.getAssetGuid();
+        LastReport report = LastReport.of(movementDetails);
+        if (lookup(assetGuid).isAbsent()) {
+            List<PreviousReport> existing = rulesDao.lockPreviousReportsByAssetGuids(Collections.singletonList(assetGuid));
+            PreviousReport entity = existing.isEmpty() ? new PreviousReport() : existing.get(0);
+            if (existing.isEmpty() || report.isAfter(entity.getPositionTime())) {
+                report.applyTo(assetGuid, entity);
+                entity = rulesDao.updatePreviousReport(entity);
+            }
+            applyOnCommit(assetGuid, new Update(LastReport.of(entity), true));
+        } else {
+            applyOnCommit(assetGuid, new Update(report, false));
+        }
+    }
+
+    public void invalidate(String assetGuid) {
+        if (assetGuid == null) {
+            return;
+        }
+        Map<String, Update> uncommitted = getUncommittedUpdates();
+        if (uncommitted != null) {
+            uncommitted.remove(assetGuid);
+        }
+        pendingWrites.remove(assetGuid);
+        synchronized (reports) {
+            reports.remove(assetGuid);
+        }
+    }
+
+    /**
+     * Writes all queued updates. Reports updated again while the flush runs stay queued for the next one. A report
+     * is only written if the database does not already hold the same or a later position for the asset.
+     */
+    public void flush() {
+        if (pendingWrites.isEmpty()) {
+            return;
+        }
+        Map<String, LastReport> batch = new HashMap<>();
+        for (Map.Entry<String, LastReport> entry : pendingWrites.entrySet()) {
+            if (pendingWrites.remove(entry.getKey(), entry.getValue())) {
+                batch.put(entry.getKey(), entry.getValue());
+            }
+        }
+        try {
+            List<String> assetGuids = new ArrayList<>(batch.keySet());
+            Collections.sort(assetGuids);
+            int written = 0;
+            Map<String, LastReport> confirmed = new HashMap<>();
+            for (int i = 0; i < assetGuids.size(); i += FLUSH_CHUNK_SIZE) {
+                List<String> chunk = assetGuids.subList(i, Math.min(i + FLUSH_CHUNK_SIZE, assetGuids.size()));
+                Map<String, PreviousReport> entities = new HashMap<>();
+                for (PreviousReport previousReport : rulesDao.lockPreviousReportsByAssetGuids(chunk)) {
+                    entities.put(previousReport.getAssetGuid(), previousReport);
+                }
+                for (String assetGuid : chunk) {
+                    LastReport report = batch.get(assetGuid);
+                    PreviousReport entity = entities.get(assetGuid);
+                    if (entity == null) {
+                        entity = new PreviousReport();
+                    } else if (!report.isAfter(entity.getPositionTime())) {
+                        // Another node has already written a later position
+                        confirmed.put(assetGuid, LastReport.of(entity));
+                        continue;
+                    }
+                    report.applyTo(assetGuid, entity);
+                    rulesDao.updatePreviousReport(entity);
+                    written++;
+                }
+            }
+            rulesDao.flush();
+            confirmed.forEach(this::cache);
+            LOG.debug("Wrote {} of {} previous reports", written, batch.size());
+        } catch (RuntimeException e) {
+            batch.forEach((assetGuid, report) -> pendingWrites.merge(assetGuid, report, LastReport::latest));
+            throw e;
+        }
+    }
+
+    /**
+     * Updates the cached assets whose report has been written since the last refresh, mostly by other nodes. Assets
+     * that are not cached are left out, they are read when they are looked up.
+     */
+    public void refresh() {
+        Instant refreshStarted = Instant.now();
+        List<PreviousReport> changed = rulesDao.getPreviousReportsUpdatedSince(refreshedAt.minus(REFRESH_OVERLAP));
+        int refreshed = 0;
+        synchronized (reports) {
+            for (PreviousReport previousReport : changed) {
+                LastReport cached = reports.get(previousReport.getAssetGuid());
+                if (cached != null && !cached.isAfter(previousReport.getPositionTime())) {
+                    reports.put(previousReport.getAssetGuid(), LastReport.latest(cached, LastReport.of(previousReport)));
+                    refreshed++;
+                }
+            }
+        }
+        refreshedAt = refreshStarted;
+        LOG.debug("Refreshed {} of {} changed previous reports", refreshed, changed.size());
+    }
+
+    public int getSize() {
+        synchronized (reports) {
+            return reports.size();
+        }
+    }
+
+    public int getPendingWrites() {
+        return pendingWrites.size();
+    }
+
+    private LastReport lookup(String assetGuid) {
+        Map<String, Update> uncommitted = getUncommittedUpdates();
+        Update update = uncommitted != null ? uncommitted.get(assetGuid) : null;
+        if (update != null) {
+            return update.report;
+        }
+        LastReport report = getCached(assetGuid);
+        if (report == null || report.isStale(Instant.now().minus(MAX_AGE))) {
+            PreviousReport entity = rulesDao.getPreviousReportByAssetGuid(assetGuid);
+            report = entity != null ? LastReport.of(entity) : LastReport.absent();
+            // Evicted before its queued update has been written
+            LastReport pending = pendingWrites.get(assetGuid);
+            report = cache(assetGuid, pending != null ? LastReport.latest(report, pending) : report);
+        }
+        return report;
+    }
+
+    private LastReport getCached(String assetGuid) {
+        synchronized (reports) {
+            return reports.get(assetGuid);
+        }
+    }
+
+    // Keeps the later of the cached and the given report, the result counts as confirmed now
+    private LastReport cache(String assetGuid, LastReport report) {
+        synchronized (reports) {
+            return reports.merge(assetGuid, report, LastReport::latest);
+        }
+    }
+
+    private void apply(String assetGuid, Update update) {
+        cache(assetGuid, update.report);
+        if (!update.written) {
+            pendingWrites.merge(assetGuid, update.report, LastReport::latest);
+        }
+    }
+
+    private void applyOnCommit(String assetGuid, Update update) {
+        if (transactionSynchronizationRegistry.getTransactionKey() == null) {
+            apply(assetGuid, update);
+            return;
+        }
+        Map<String, Update> uncommitted = getUncommittedUpdates();
+        if (uncommitted == null) {
+            Map<String, Update> updates = new HashMap<>();
+            transactionSynchronizationRegistry.putResource(UNCOMMITTED_UPDATES, updates);
+            transactionSynchronizationRegistry.registerInterposedSynchronization(new Synchronization() {
+                @Override
+                public void beforeCompletion() {
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    if (status == Status.STATUS_COMMITTED) {
+                        updates.forEach(PreviousReportCache.this::apply);
+                    }
+                }
+            });
+            uncommitted = updates;
+        }
+        uncommitted.merge(assetGuid, update, Update::latest);
+    }
+
+    // The updates of the current transaction, a transaction is only used by one thread at a time
+    @SuppressWarnings("unchecked")
+    private Map<String, Update> getUncommittedUpdates() {
+        if (transactionSynchronizationRegistry.getTransactionKey() == null) {
+            return null;
+        }
+        return (Map<String, Update>) transactionSynchronizationRegistry.getResource(UNCOMMITTED_UPDATES);
+    }
+
+    private static class Update {
+        private final LastReport report;
+        // Already written by the transaction itself, only the cache is updated on commit
+        private final boolean written;
+
+        private Update(LastReport report, boolean written) {
+            this.report = report;
+            this.written = written;
+        }
+
+        static Update latest(Update current, Update candidate) {
+            return current.report.isAfter(candidate.report.positionTime) ? current : candidate;
+        }
+    }
+
+    private static class LastReport {
+        private final Instant positionTime;
+        private final UUID movementGuid;
+        private final UUID mobTermGuid;
+        private final Instant cached;
+
+        private LastReport(Instant positionTime, UUID movementGuid, UUID mobTermGuid, Instant cached) {
+            this.positionTime = positionTime;
+            this.movementGuid = movementGuid;
+            this.mobTermGuid = mobTermGuid;
+            this.cached = cached;
+        }
+
+        static LastReport absent() {
+            return new LastReport(null, null, null, Instant.now());
+        }
+
+        static LastReport of(PreviousReport previousReport) {
+            return new LastReport(previousReport.getPositionTime(), previousReport.getMovementGuid(), previousReport.getMobTermGuid(), Instant.now());
+        }
+
+        static LastReport of(MovementDetails movementDetails) {
+            String movementId = movementDetails.getMovementGuid();
+            String mobTermId = movementDetails.getMobileTerminalGuid();
+            return new LastReport(movementDetails.getPositionTime(),
+                    movementId != null ? UUID.fromString(movementId) : null,
+                    mobTermId != null ? UUID.fromString(mobTermId) : null,
+                    Instant.now());
+        }
+
+        // The report with the later position, on a tie the newer one, cached as of the later of the two
+        static LastReport latest(LastReport current, LastReport candidate) {
+            LastReport later = current.isAfter(candidate.positionTime) ? current : candidate;
+            Instant cached = current.cached.isAfter(candidate.cached) ? current.cached : candidate.cached;
+            return later.cached.equals(cached) ? later : new LastReport(later.positionTime, later.movementGuid, later.mobTermGuid, cached);
+        }
+
+        boolean isAbsent() {
+            return positionTime == null;
+        }
+
+        boolean isAfter(Instant other) {
+            return positionTime != null && (other == null || positionTime.isAfter(other));
+        }
+
+        boolean isStale(Instant staleBefore) {
+            return cached.isBefore(staleBefore);
+        }
+
+        void applyTo(String assetGuid, PreviousReport entity) {
+            entity.setPositionTime(positionTime);
+            entity.setAssetGuid(assetGuid);
+            if (movementGuid != null)
+                entity.setMovementGuid(movementGuid);
+            if (mobTermGuid != null)
+                entity.setMobTermGuid(mobTermGuid);
+            entity.setUpdated(Instant.now());
+            entity.setUpdatedBy("UVMS");
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+﻿Developed with the contribution of the European Commission - Directorate General for Maritime Affairs and Fisheries
+© European Union, 2015-2016.
+
+This file is part of the Integrated Fisheries Data Management (IFDM) Suite. The IFDM Suite is free software: you can
+redistribute it and/or modify it under the terms of the GNU General Public License as published by the
+Free Software Foundation, either version 3 of the License, or any later version. The IFDM Suite is distributed in
+the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details. You should have received a
+copy of the GNU General Public License along with the IFDM Suite. If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.europa.ec.fisheries.uvms.movementrules.service.business;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import eu.europa.ec.fisheries.schema.movementrules.customrule.v1.AvailabilityType;
+import eu.europa.ec.fisheries.schema.movementrules.customrule.v1.SubscriptionTypeType;
+import eu.europa.ec.fisheries.uvms.movementrules.service.entity.CustomRule;
+import eu.europa.ec.fisheries.uvms.movementrules.service.entity.Interval;
+import eu.europa.ec.fisheries.uvms.movementrules.service.entity.RuleSubscription;
+
+/**
+ * What a triggered custom rule needs besides its condition: subscriptions, actions and availability. Read from the
+ * entity once when the rule set is compiled, so triggering a rule does not load it and its subscriptions again.
+ */
+public final class RuleMetadata {
+
+    private final UUID guid;
+    private final String name;
+    private final String availability;
+    private final boolean aggregateInvocations;
+    private final Set<String> ticketSubscribers;
+    private final List<String> emailSubscribers;
+    private final ActionPlan actionPlan;
+    private final Instant validUntil;
+
+    private RuleMetadata(UUID guid, String name, String availability, boolean aggregateInvocations,
+                         Set<String> ticketSubscribers, List<String> emailSubscribers, ActionPlan actionPlan,
+                         Instant validUntil) {
+        this.guid = guid;
+        this.name = name;
+        this.availability = availability;
+        this.aggregateInvocations = aggregateInvocations;
+        this.ticketSubscribers = Collections.unmodifiableSet(ticketSubscribers);
+        this.emailSubscribers = Collections.unmodifiableList(emailSubscribers);
+        this.actionPlan = actionPlan;
+        this.validUntil = validUntil;
+    }
+
+    public static RuleMetadata of(CustomRule customRule) {
+        return of(customRule, ActionPlan.compile(customRule));
+    }
+
+    public static RuleMetadata of(CustomRule customRule, ActionPlan actionPlan) {
+        Set<String> ticketSubscribers = new LinkedHashSet<>();
+        List<String> emailSubscribers = new ArrayList<>();
+        if (customRule.getRuleSubscriptionList() != null) {
+            for (RuleSubscription subscription : customRule.getRuleSubscriptionList()) {
+                if (SubscriptionTypeType.TICKET.value().equals(subscription.getType())) {
+                    ticketSubscribers.add(subscription.getOwner());
+                } else if (SubscriptionTypeType.EMAIL.value().equals(subscription.getType())) {
+                    emailSubscribers.add(subscription.getOwner());
+                }
+            }
+        }
+        Instant validUntil = customRule.getIntervals() == null ? null : customRule.getIntervals().stream()
+                .map(Interval::getEnd)
+                .filter(Objects::nonNull)
+                .max(Instant::compareTo)
+                .orElse(null);
+        return new RuleMetadata(customRule.getGuid(), customRule.getName(), customRule.getAvailability(),
+                customRule.isAggregateInvocations(), ticketSubscribers, emailSubscribers, actionPlan, validUntil);
+    }
+
+    public UUID getGuid() {
+        return guid;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getAvailability() {
+        return availability;
+    }
+
+    public boolean isGlobal() {
+        return AvailabilityType.GLOBAL.value().equals(availability);
+    }
+
+    public boolean isAggregateInvocations() {
+        return aggregateInvocations;
+    }
+
+    /**
+     * @return owners of the TICKET subscriptions, the users notified about tickets of a rule that is not global
+     */
+    public Set<String> getTicketSubscribers() {
+        return ticketSubscribers;
+    }
+
+    public List<String> getEmailSubscribers() {
+        return emailSubscribers;
+    }
+
+    public ActionPlan getActionPlan() {
+        return actionPlan;
+    }
+
+    /**
+     * @return end of the latest interval of the rule, null if the rule has no intervals and never expires
+     */
+    public Instant getValidUntil() {
+        return validUntil;
+    }
+
+    public boolean isExpired(Instant now) {
+        return validUntil != null && !validUntil.isAfter(now);
+    }
+}
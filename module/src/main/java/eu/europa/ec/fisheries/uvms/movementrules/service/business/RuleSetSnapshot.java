@@ -0,0 +1,116 @@
+/*
+﻿Developed with the contribution of the European Commission - Directorate General for Maritime Affairs and Fisheries
+© European Union, 2015-2016.
+
+This file is part of the Integrated Fisheries Data Management (IFDM) Suite. The IFDM Suite is free software: you can
+redistribute it and/or modify it under the terms of the GNU General Public License as published by the
+Free Software Foundation, either version 3 of the License, or any later version. The IFDM Suite is distributed in
+the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details. You should have received a
+copy of the GNU General Public License along with the IFDM Suite. If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.europa.ec.fisheries.uvms.movementrules.service.business;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import org.kie.api.runtime.StatelessKieSession;
+import eu.europa.ec.fisheries.uvms.movementrules.service.business.predicate.CustomRuleIndex;
+
+/**
+ * Immutable view of a published custom rule set. Evaluations read the current snapshot once and keep using it,
+ * so a rule set that is being compiled never blocks them.
+ */
+public final class RuleSetSnapshot {
+
+    static final RuleSetSnapshot EMPTY = new RuleSetSnapshot(0, RuleEngine.DROOLS, null, null, CustomRuleIndex.EMPTY, 0,
+            SpatialEnrichment.NONE, Collections.emptyMap(), 0, Instant.EPOCH);
+
+    private final long version;
+    private final RuleEngine engine;
+    private final StatelessKieSession session;
+    private final AtomicInteger sessionUsers;
+    private final CustomRuleIndex compiledRules;
+    private final int ruleCount;
+    private final Set<SpatialEnrichment> spatialEnrichment;
+    private final Map<UUID, RuleMetadata> ruleMetadata;
+    private final long compileDurationMillis;
+    private final Instant published;
+
+    RuleSetSnapshot(long version, RuleEngine engine, StatelessKieSession session, AtomicInteger sessionUsers,
+                    CustomRuleIndex compiledRules, int ruleCount, Set<SpatialEnrichment> spatialEnrichment,
+                    Map<UUID, RuleMetadata> ruleMetadata, long compileDurationMillis, Instant published) {
+        this.version = version;
+        this.engine = engine;
+        this.session = session;
+        this.sessionUsers = sessionUsers;
+        this.compiledRules = compiledRules;
+        this.ruleCount = ruleCount;
+        this.spatialEnrichment = spatialEnrichment;
+        this.ruleMetadata = ruleMetadata;
+        this.compileDurationMillis = compileDurationMillis;
+        this.published = published;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public RuleEngine getEngine() {
+        return engine;
+    }
+
+    StatelessKieSession getSession() {
+        return session;
+    }
+
+    // Evaluations using the knowledge base of the session, null when there is no session
+    AtomicInteger getSessionUsers() {
+        return sessionUsers;
+    }
+
+    CustomRuleIndex getCompiledRules() {
+        return compiledRules;
+    }
+
+    public int getRuleCount() {
+        return ruleCount;
+    }
+
+    /**
+     * @return the spatial enrichment read by at least one rule of the set, empty when there are no rules
+     */
+    public Set<SpatialEnrichment> getSpatialEnrichment() {
+        return spatialEnrichment;
+    }
+
+    /**
+     * @return the metadata of a rule in the set, null if the rule is not part of it
+     */
+    public RuleMetadata getRuleMetadata(UUID ruleGuid) {
+        return ruleMetadata.get(ruleGuid);
+    }
+
+    /**
+     * @return guids of the rules in the set whose last interval has ended
+     */
+    public List<UUID> getExpiredRules(Instant now) {
+        return ruleMetadata.values().stream()
+                .filter(metadata -> metadata.isExpired(now))
+                .map(RuleMetadata::getGuid)
+                .collect(Collectors.toList());
+    }
+
+    public long getCompileDurationMillis() {
+        return compileDurationMillis;
+    }
+
+    public Instant getPublished() {
+        return published;
+    }
+}
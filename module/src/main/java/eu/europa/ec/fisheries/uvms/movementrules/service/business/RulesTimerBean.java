@@ -29,7 +29,7 @@ import eu.europa.ec.fisheries.uvms.movementrules.service.bean.ValidationServiceB
 
 @Startup
 @Singleton
-@DependsOn({"RulesValidator"})
+@DependsOn({"RulesValidator", "PreviousReportCache", "ActionExecutor", "LastTriggeredCache", "TicketCountAggregator", "AssetNotSendingScheduler", "LeaderElection", "ClusterMembership"})
 public class RulesTimerBean {
 
     private static final Logger LOG = LoggerFactory.getLogger(RulesTimerBean.class);
@@ -46,18 +46,70 @@ public class RulesTimerBean {
     @EJB
     private ParameterService parameterService;
 
+    @EJB
+    private PreviousReportCache previousReportCache;
+
+    @EJB
+    private ActionExecutor actionExecutor;
+
+    @EJB
+    private LastTriggeredCache lastTriggeredCache;
+
+    @EJB
+    private TicketCountAggregator ticketCountAggregator;
+
+    @EJB
+    private AssetNotSendingScheduler assetNotSendingScheduler;
+
+    @EJB
+    private LeaderElection leaderElection;
+
+    @EJB
+    private ClusterMembership clusterMembership;
+
     private ScheduledFuture<?> comm;
 
+    private ScheduledFuture<?> notSending;
+
     private ScheduledFuture<?> changes;
 
+    private ScheduledFuture<?> previousReports;
+
+    private ScheduledFuture<?> actions;
+
+    private ScheduledFuture<?> lastTriggered;
+
+    private ScheduledFuture<?> ticketCounts;
+
+    private ScheduledFuture<?> lease;
+
+    private ScheduledFuture<?> heartbeat;
+
     @PostConstruct
     public void postConstruct() {
         LOG.debug("RulesTimerBean init");
-        ScheduledExecutorService executorService = Executors.newScheduledThreadPool(2);
-        CheckCommunicationTask checkCommunicationTask = new CheckCommunicationTask(rulesService, parameterService);
-        comm = executorService.scheduleWithFixedDelay(checkCommunicationTask, 10, 10, TimeUnit.MINUTES);
-        CheckRulesChangesTask checkRulesChangesTask = new CheckRulesChangesTask(validationService, rulesValidator, rulesService);
+        // Lease and heartbeat run on their own thread, so slow tasks can not delay them past the lease or node timeout
+        ScheduledExecutorService clusterExecutorService = Executors.newSingleThreadScheduledExecutor();
+        RenewLeaseTask renewLeaseTask = new RenewLeaseTask(leaderElection);
+        lease = clusterExecutorService.scheduleWithFixedDelay(renewLeaseTask, 0, LeaderElection.RENEW_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        HeartbeatTask heartbeatTask = new HeartbeatTask(clusterMembership, assetNotSendingScheduler);
+        heartbeat = clusterExecutorService.scheduleWithFixedDelay(heartbeatTask, 0, ClusterMembership.HEARTBEAT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        ScheduledExecutorService executorService = Executors.newScheduledThreadPool(4);
+        FireAssetNotSendingTask fireAssetNotSendingTask = new FireAssetNotSendingTask(assetNotSendingScheduler);
+        notSending = executorService.scheduleWithFixedDelay(fireAssetNotSendingTask, 1, 1, TimeUnit.MINUTES);
+        // Sweep of this node's shard for assets the scheduler does not know about, e.g. assets taken over from another node
+        CheckCommunicationTask checkCommunicationTask = new CheckCommunicationTask(rulesService, parameterService, clusterMembership);
+        comm = executorService.scheduleWithFixedDelay(checkCommunicationTask, 10, 60, TimeUnit.MINUTES);
+        CheckRulesChangesTask checkRulesChangesTask = new CheckRulesChangesTask(validationService, rulesValidator, rulesService, leaderElection);
         changes = executorService.scheduleWithFixedDelay(checkRulesChangesTask, 10, 10, TimeUnit.MINUTES);
+        FlushPreviousReportsTask flushPreviousReportsTask = new FlushPreviousReportsTask(previousReportCache);
+        previousReports = executorService.scheduleWithFixedDelay(flushPreviousReportsTask, PreviousReportCache.FLUSH_INTERVAL_SECONDS, PreviousReportCache.FLUSH_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        DispatchActionsTask dispatchActionsTask = new DispatchActionsTask(actionExecutor);
+        actions = executorService.scheduleWithFixedDelay(dispatchActionsTask, 5, 5, TimeUnit.SECONDS);
+        FlushLastTriggeredTask flushLastTriggeredTask = new FlushLastTriggeredTask(lastTriggeredCache);
+        lastTriggered = executorService.scheduleWithFixedDelay(flushLastTriggeredTask, 30, 30, TimeUnit.SECONDS);
+        FlushTicketCountsTask flushTicketCountsTask = new FlushTicketCountsTask(ticketCountAggregator);
+        ticketCounts = executorService.scheduleWithFixedDelay(flushTicketCountsTask, 10, 10, TimeUnit.SECONDS);
     }
 
     @PreDestroy
@@ -65,9 +117,30 @@ public class RulesTimerBean {
         if (comm != null) {
             comm.cancel(true);
         }
+        if (notSending != null) {
+            notSending.cancel(true);
+        }
         if (changes != null) {
             changes.cancel(true);
         }
+        if (previousReports != null) {
+            previousReports.cancel(false);
+        }
+        if (actions != null) {
+            actions.cancel(false);
+        }
+        if (lastTriggered != null) {
+            lastTriggered.cancel(false);
+        }
+        if (ticketCounts != null) {
+            ticketCounts.cancel(false);
+        }
+        if (lease != null) {
+            lease.cancel(false);
+        }
+        if (heartbeat != null) {
+            heartbeat.cancel(false);
+        }
     }
 
 }
\ No newline at end of file
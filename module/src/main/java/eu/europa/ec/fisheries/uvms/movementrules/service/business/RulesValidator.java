@@ -12,44 +12,72 @@ copy of the GNU General Public License along with the IFDM Suite. If not, see <h
 package eu.europa.ec.fisheries.uvms.movementrules.service.business;
 
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.ejb.ConcurrencyManagement;
 import javax.ejb.ConcurrencyManagementType;
-import javax.ejb.Lock;
-import javax.ejb.LockType;
+import javax.ejb.EJB;
 import javax.ejb.Singleton;
 import javax.ejb.Startup;
 import javax.inject.Inject;
+import org.drools.core.impl.InternalKnowledgeBase;
+import org.drools.core.impl.KnowledgeBaseFactory;
 import org.drools.template.parser.DefaultTemplateContainer;
 import org.drools.template.parser.TemplateContainer;
 import org.drools.template.parser.TemplateDataListener;
-import org.kie.api.KieServices;
-import org.kie.api.builder.KieFileSystem;
-import org.kie.api.runtime.KieContainer;
-import org.kie.api.runtime.KieSession;
+import org.kie.api.definition.KiePackage;
+import org.kie.api.io.ResourceType;
 import org.kie.api.runtime.StatelessKieSession;
-import org.kie.api.runtime.rule.FactHandle;
+import org.kie.internal.builder.KnowledgeBuilder;
+import org.kie.internal.builder.KnowledgeBuilderFactory;
+import org.kie.internal.io.ResourceFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import eu.europa.ec.fisheries.schema.movementrules.customrule.v1.SubscriptionTypeType;
+import eu.europa.ec.fisheries.uvms.config.service.ParameterService;
 import eu.europa.ec.fisheries.uvms.movementrules.model.dto.MovementDetails;
 import eu.europa.ec.fisheries.uvms.movementrules.service.bean.RulesServiceBean;
 import eu.europa.ec.fisheries.uvms.movementrules.service.bean.ValidationServiceBean;
+import eu.europa.ec.fisheries.uvms.movementrules.service.business.predicate.CompiledCustomRule;
+import eu.europa.ec.fisheries.uvms.movementrules.service.business.predicate.CustomRuleIndex;
+import eu.europa.ec.fisheries.uvms.movementrules.service.business.predicate.CustomRulePredicateCompiler;
+import eu.europa.ec.fisheries.uvms.movementrules.service.config.ParameterKey;
 import eu.europa.ec.fisheries.uvms.movementrules.service.entity.CustomRule;
+import eu.europa.ec.fisheries.uvms.movementrules.service.entity.RuleSubscription;
 import eu.europa.ec.fisheries.uvms.movementrules.service.mapper.CustomRuleParser;
 
 @Startup
 @Singleton
-@ConcurrencyManagement(ConcurrencyManagementType.CONTAINER)
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
 public class RulesValidator {
     private static final Logger LOG = LoggerFactory.getLogger(RulesValidator.class);
-    private static final String CUSTOM_RULE_DRL_FILE = "src/main/resources/rules/CustomRules.drl";
     private static final String CUSTOM_RULE_TEMPLATE = "/templates/CustomRulesTemplate.drt";
-
-
-
+    // Every custom rule is compiled into its own package so it can be added, replaced or removed on its own
+    private static final String CUSTOM_RULE_PACKAGE_PREFIX = "eu.europa.ec.fisheries.uvms.movementrules.customrules.rule_";
 
     @Inject
     private ValidationServiceBean validationService;
@@ -57,11 +85,45 @@ public class RulesValidator {
     @Inject
     private RulesServiceBean rulesService;
 
-    private KieContainer customKcontainer;
-   private  StatelessKieSession ksession ;
+    @EJB
+    private ParameterService parameterService;
+
+    @Inject
+    private ContactDetailsCache contactDetailsCache;
+
+    private final AtomicReference<RuleSetSnapshot> snapshot = new AtomicReference<>(RuleSetSnapshot.EMPTY);
+
+    // Rules in the rule set and rules left after the pre filter, summed over all evaluations with the native engine
+    private final LongAdder rulesConsidered = new LongAdder();
+    private final LongAdder rulesEvaluated = new LongAdder();
+
+    // Compiled rules per rule guid, only touched from the compiler thread
+    private RuleEngine engine = RuleEngine.DROOLS;
+    private final Map<UUID, Collection<KiePackage>> droolsRules = new HashMap<>();
+    private final Map<UUID, CompiledCustomRule> nativeRules = new HashMap<>();
+    private final Map<UUID, Set<SpatialEnrichment>> spatialEnrichment = new HashMap<>();
+    private final Map<UUID, Integer> planIndexes = new HashMap<>();
+    private final Map<Integer, ActionPlan> actionPlans = new HashMap<>();
+    private final Map<UUID, RuleMetadata> ruleMetadata = new HashMap<>();
+
+    // Indexes into the actionPlans global of the Drools sessions, allocated when a rule is prepared
+    private final BitSet usedPlanIndexes = new BitSet();
+
+    // Snapshots alternate between two knowledge bases, the one not in use is updated with the changed packages only
+    private final KnowledgeBaseBuffer[] knowledgeBases = { new KnowledgeBaseBuffer(), new KnowledgeBaseBuffer() };
+    private int nextKnowledgeBase;
+
+    private ExecutorService compiler;
 
     @PostConstruct
     public void init() {
+        ClassLoader classLoader = RulesValidator.class.getClassLoader();
+        compiler = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "movementrules-rule-compiler");
+            thread.setContextClassLoader(classLoader);
+            thread.setDaemon(true);
+            return thread;
+        });
         try {
             updateCustomRules();
         }catch (Exception e){
@@ -70,46 +132,449 @@ public class RulesValidator {
         }
     }
 
-    @Lock(LockType.WRITE)
+    @PreDestroy
+    public void destroy() {
+        compiler.shutdownNow();
+    }
+
+    /**
+     * Rebuilds the whole rule set from the runnable custom rules in the DB and waits until it is published.
+     * Use {@link #updateCustomRule(CustomRule)} and {@link #removeCustomRule(UUID)} when a single rule has changed.
+     */
     public void updateCustomRules() {
-        LOG.info("Updating custom rules");
-        // Fetch custom rules from DB
+        awaitPublished(updateCustomRulesAsync());
+    }
+
+    /**
+     * Rebuilds the whole rule set in the background with the configured engine. Evaluations keep using the
+     * current snapshot until the returned future completes.
+     */
+    public Future<RuleSetSnapshot> updateCustomRulesAsync() {
+        long start = System.nanoTime();
+        RuleEngine configuredEngine = getConfiguredEngine();
+        LOG.info("Updating custom rules using the {} engine", configuredEngine);
+        // Fetch custom rules from DB, entities are read here since the compiler thread has no transaction
         List<CustomRule> customRules = rulesService.getRunnableCustomRules();
-        if (customRules != null && !customRules.isEmpty()) {
-            // Add custom rules
-            List<CustomRuleDto> rules = CustomRuleParser.parseRules(customRules);
-            String drl = generateCustomRuleDrl(CUSTOM_RULE_TEMPLATE, rules);
+        List<PreparedRule> preparedRules = new ArrayList<>();
+        if (customRules != null) {
+            contactDetailsCache.prefetch(emailSubscribers(customRules));
+            for (CustomRule customRule : customRules) {
+                PreparedRule preparedRule = prepare(customRule, configuredEngine);
+                if (preparedRule != null) {
+                    preparedRules.add(preparedRule);
+                }
+            }
+        }
+        long prepareDuration = System.nanoTime() - start;
+        return compiler.submit(() -> {
+            long compileStart = System.nanoTime() - prepareDuration;
+            engine = configuredEngine;
+            new ArrayList<>(planIndexes.keySet()).forEach(this::uninstall);
+            droolsRules.clear();
+            nativeRules.clear();
+            spatialEnrichment.clear();
+            ruleMetadata.clear();
+            preparedRules.forEach(this::install);
+            return publish(compileStart);
+        });
+    }
+
+    /**
+     * Adds or replaces a single custom rule. A rule that is no longer runnable (inactive or archived) is removed
+     * instead. Only the changed rule is compiled, the other rules are reused as they are.
+     */
+    public void updateCustomRule(CustomRule customRule) {
+        long start = System.nanoTime();
+        RuleEngine configuredEngine = getConfiguredEngine();
+        if (configuredEngine != snapshot.get().getEngine()) {
+            updateCustomRules();
+            return;
+        }
+        UUID ruleGuid = customRule.getGuid();
+        PreparedRule preparedRule = isRunnable(customRule) ? prepare(customRule, configuredEngine) : null;
+        if (preparedRule != null) {
+            contactDetailsCache.prefetch(emailSubscribers(Collections.singletonList(customRule)));
+        }
+        long prepareDuration = System.nanoTime() - start;
+        awaitPublished(compiler.submit(() -> {
+            long compileStart = System.nanoTime() - prepareDuration;
+            uninstall(ruleGuid);
+            if (preparedRule != null) {
+                install(preparedRule);
+            }
+            return publish(compileStart);
+        }));
+    }
 
-            KieServices kieServices = KieServices.Factory.get();
+    public void removeCustomRule(UUID ruleGuid) {
+        awaitPublished(compiler.submit(() -> {
+            long start = System.nanoTime();
+            uninstall(ruleGuid);
+            return publish(start);
+        }));
+    }
+
+    /**
+     * Removes the rules whose last interval has ended from this node's rule set. Works on the published snapshot,
+     * so it also drops rules that another node has already inactivated in the DB.
+     */
+    public void removeExpiredCustomRules() {
+        List<UUID> expiredRules = snapshot.get().getExpiredRules(Instant.now());
+        if (expiredRules.isEmpty()) {
+            return;
+        }
+        LOG.info("Removing {} expired custom rule(s)", expiredRules.size());
+        awaitPublished(compiler.submit(() -> {
+            long start = System.nanoTime();
+            expiredRules.forEach(this::uninstall);
+            return publish(start);
+        }));
+    }
+
+    /**
+     * Rebuilds the rule set in the background if the RULE_ENGINE parameter no longer matches the engine in use.
+     */
+    public void updateEngineIfChanged() {
+        if (getConfiguredEngine() != snapshot.get().getEngine()) {
+            updateCustomRulesAsync();
+        }
+    }
+
+    public void evaluate(MovementDetails fact) {
+        RuleSetSnapshot current = acquireSnapshot();
+        try {
+            if (current.getEngine() == RuleEngine.NATIVE) {
+                evaluateNative(current, fact);
+                return;
+            }
+            StatelessKieSession session = current.getSession();
+            if (session != null) {
+                LOG.debug("Verify user defined rules");
+                session.execute(fact);
+            }
+        } finally {
+            releaseSnapshot(current);
+        }
+    }
+
+    /**
+     * Evaluates a batch of movements against the same rule set snapshot. Movements of the same asset trigger
+     * their rules in list order.
+     */
+    public void evaluateBatch(List<MovementDetails> facts) {
+        RuleSetSnapshot current = acquireSnapshot();
+        try {
+            if (current.getEngine() == RuleEngine.NATIVE) {
+                facts.forEach(fact -> evaluateNative(current, fact));
+                return;
+            }
+            StatelessKieSession session = current.getSession();
+            if (session == null) {
+                return;
+            }
+            LOG.debug("Verify user defined rules for {} movements", facts.size());
+            // Drools gives no firing order between facts of one execution, so each execution holds at most one
+            // movement per asset. Normally that is the whole batch in one execution.
+            Map<String, Integer> movementsPerAsset = new HashMap<>();
+            List<List<MovementDetails>> executions = new ArrayList<>();
+            for (MovementDetails fact : facts) {
+                int execution = movementsPerAsset.merge(fact.getAssetGuid(), 1, Integer::sum) - 1;
+                if (executions.size() == execution) {
+                    executions.add(new ArrayList<>());
+                }
+                executions.get(execution).add(fact);
+            }
+            for (List<MovementDetails> execution : executions) {
+                session.execute(execution);
+            }
+        } finally {
+            releaseSnapshot(current);
+        }
+    }
+
+    public RuleSetSnapshot getSnapshot() {
+        return snapshot.get();
+    }
+
+    /**
+     * @return share of the rules skipped by the pre filter of the native engine, 0 when nothing has been evaluated
+     */
+    public double getPruningRatio() {
+        long considered = rulesConsidered.sum();
+        return considered == 0 ? 0 : 1 - (double) rulesEvaluated.sum() / considered;
+    }
+
+    /**
+     * Reads the current snapshot and registers the evaluation with its knowledge base, so the compiler thread does
+     * not update that base before the evaluation is done. Always pair with {@link #releaseSnapshot(RuleSetSnapshot)}.
+     */
+    private RuleSetSnapshot acquireSnapshot() {
+        while (true) {
+            RuleSetSnapshot current = snapshot.get();
+            AtomicInteger sessionUsers = current.getSessionUsers();
+            if (sessionUsers == null) {
+                return current;
+            }
+            sessionUsers.incrementAndGet();
+            // Still current, so the compiler thread has not started to update this base and will wait for us
+            if (snapshot.get() == current) {
+                return current;
+            }
+            sessionUsers.decrementAndGet();
+        }
+    }
 
-            KieFileSystem customKfs = kieServices.newKieFileSystem();
+    private void releaseSnapshot(RuleSetSnapshot current) {
+        AtomicInteger sessionUsers = current.getSessionUsers();
+        if (sessionUsers != null) {
+            sessionUsers.decrementAndGet();
+        }
+    }
 
-            customKfs.write(CUSTOM_RULE_DRL_FILE, drl);
+    private void evaluateNative(RuleSetSnapshot current, MovementDetails fact) {
+        LOG.debug("Verify user defined rules");
+        CustomRuleIndex compiledRules = current.getCompiledRules();
+        Collection<CompiledCustomRule> candidates = compiledRules.candidates(fact);
+        rulesConsidered.add(compiledRules.size());
+        rulesEvaluated.add(candidates.size());
+        for (CompiledCustomRule rule : candidates) {
+            int activations = rule.activations(fact);
+            for (int i = 0; i < activations; i++) {
+                LOG.info("\t==> Executing RULE '{}' (rule guid:'{}') with action(s) '{}'", rule.getName(), rule.getGuid(), rule.getActionPlan());
+                validationService.customRuleTriggered(rule.getActionPlan(), fact);
+            }
+        }
+    }
 
+    private PreparedRule prepare(CustomRule customRule, RuleEngine ruleEngine) {
+        int planIndex = -1;
+        try {
+            if (ruleEngine == RuleEngine.NATIVE) {
+                CompiledCustomRule compiledRule = CustomRulePredicateCompiler.compile(customRule);
+                return new PreparedRule(customRule.getGuid(), ruleEngine, null, compiledRule,
+                        SpatialEnrichment.requiredBy(customRule), planIndex, RuleMetadata.of(customRule, compiledRule.getActionPlan()));
+            }
+            ActionPlan actionPlan = ActionPlan.compile(customRule);
+            List<CustomRuleDto> rules = CustomRuleParser.parseRules(Collections.singletonList(customRule));
+            planIndex = allocatePlanIndex();
+            String drl = "package " + packageName(customRule.getGuid()) + ";\n" + generateCustomRuleDrl(CUSTOM_RULE_TEMPLATE, rules, planIndex);
             LOG.trace(drl);
-            // Create session
-            kieServices.newKieBuilder(customKfs).buildAll();
-            customKcontainer = kieServices.newKieContainer(kieServices.getRepository().getDefaultReleaseId());
-            if(customKcontainer != null){
-                ksession = customKcontainer.newStatelessKieSession();
-                ksession.setGlobal("validationService", validationService);
-                ksession.setGlobal("logger", LOG);
+            return new PreparedRule(customRule.getGuid(), ruleEngine, drl, null, SpatialEnrichment.requiredBy(customRule),
+                    planIndex, RuleMetadata.of(customRule, actionPlan));
+        } catch (Exception e) {
+            LOG.error("Unable to parse custom rule {} ({})", customRule.getName(), customRule.getGuid(), e);
+            releasePlanIndex(planIndex);
+            return null;
+        }
+    }
+
+    // The index is compiled into the DRL of the rule, so it stays taken until that DRL is no longer installed
+    private synchronized int allocatePlanIndex() {
+        int planIndex = usedPlanIndexes.nextClearBit(0);
+        usedPlanIndexes.set(planIndex);
+        return planIndex;
+    }
+
+    private synchronized void releasePlanIndex(int planIndex) {
+        if (planIndex >= 0) {
+            usedPlanIndexes.clear(planIndex);
+        }
+    }
+
+    private void uninstall(UUID ruleGuid) {
+        droolsRules.remove(ruleGuid);
+        nativeRules.remove(ruleGuid);
+        spatialEnrichment.remove(ruleGuid);
+        ruleMetadata.remove(ruleGuid);
+        Integer planIndex = planIndexes.remove(ruleGuid);
+        if (planIndex != null) {
+            actionPlans.remove(planIndex);
+            releasePlanIndex(planIndex);
+        }
+    }
+
+    private void install(PreparedRule preparedRule) {
+        if (preparedRule.engine != engine) {
+            LOG.warn("Custom rule {} was prepared for the {} engine while {} is in use, skipping it", preparedRule.guid, preparedRule.engine, engine);
+            releasePlanIndex(preparedRule.planIndex);
+            return;
+        }
+        if (preparedRule.compiledRule != null) {
+            nativeRules.put(preparedRule.guid, preparedRule.compiledRule);
+            spatialEnrichment.put(preparedRule.guid, preparedRule.spatialEnrichment);
+            ruleMetadata.put(preparedRule.guid, preparedRule.metadata);
+            return;
+        }
+        try {
+            KnowledgeBuilder kbuilder = KnowledgeBuilderFactory.newKnowledgeBuilder();
+            kbuilder.add(ResourceFactory.newByteArrayResource(preparedRule.drl.getBytes(StandardCharsets.UTF_8)), ResourceType.DRL);
+            if (kbuilder.hasErrors()) {
+                LOG.error("Unable to compile custom rule {}: {}", preparedRule.guid, kbuilder.getErrors());
+                releasePlanIndex(preparedRule.planIndex);
+                return;
             }
-        } else {
-            customKcontainer = null;
-            ksession = null;
+            droolsRules.put(preparedRule.guid, kbuilder.getKnowledgePackages());
+            spatialEnrichment.put(preparedRule.guid, preparedRule.spatialEnrichment);
+            ruleMetadata.put(preparedRule.guid, preparedRule.metadata);
+            planIndexes.put(preparedRule.guid, preparedRule.planIndex);
+            actionPlans.put(preparedRule.planIndex, preparedRule.metadata.getActionPlan());
+        } catch (Exception e) {
+            LOG.error("Unable to compile custom rule {}", preparedRule.guid, e);
+            releasePlanIndex(preparedRule.planIndex);
         }
     }
-    
-    @Lock(LockType.READ)
-    public void evaluate(MovementDetails fact) {
-        if (ksession != null) {
-            LOG.debug("Verify user defined rules");
-                ksession.execute(fact);
+
+    private RuleSetSnapshot publish(long start) {
+        StatelessKieSession session = null;
+        AtomicInteger sessionUsers = null;
+        if (engine == RuleEngine.DROOLS && !droolsRules.isEmpty()) {
+            // Sessions already handed out are never modified, the base of the snapshot before the current one is
+            // brought up to date instead once its last evaluation is done
+            KnowledgeBaseBuffer knowledgeBase = knowledgeBases[nextKnowledgeBase];
+            nextKnowledgeBase = 1 - nextKnowledgeBase;
+            knowledgeBase.awaitUnused();
+            updateKnowledgeBase(knowledgeBase);
+            sessionUsers = knowledgeBase.users;
+            session = knowledgeBase.kbase.newStatelessKieSession();
+            session.setGlobal("validationService", validationService);
+            session.setGlobal("logger", LOG);
+            session.setGlobal("actionPlans", actionPlanList());
+        } else if (engine == RuleEngine.NATIVE) {
+            // Let go of the Drools rules, evaluations still using the old bases keep their own reference
+            knowledgeBases[0] = new KnowledgeBaseBuffer();
+            knowledgeBases[1] = new KnowledgeBaseBuffer();
+        }
+        int ruleCount = engine == RuleEngine.NATIVE ? nativeRules.size() : droolsRules.size();
+        Set<SpatialEnrichment> requiredEnrichment = EnumSet.noneOf(SpatialEnrichment.class);
+        spatialEnrichment.values().forEach(requiredEnrichment::addAll);
+        long duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        RuleSetSnapshot published = new RuleSetSnapshot(snapshot.get().getVersion() + 1, engine, session, sessionUsers,
+                new CustomRuleIndex(nativeRules.values()), ruleCount, Collections.unmodifiableSet(requiredEnrichment),
+                Collections.unmodifiableMap(new HashMap<>(ruleMetadata)), duration, Instant.now());
+        snapshot.set(published);
+        LOG.info("Published custom rule set version {} with {} rule(s) using the {} engine, compiled in {} ms",
+                published.getVersion(), ruleCount, engine, duration);
+        return published;
+    }
+
+    // Removes the packages of rules that were removed or replaced since the base was last used and adds the new ones
+    private void updateKnowledgeBase(KnowledgeBaseBuffer knowledgeBase) {
+        boolean anyUnchanged = knowledgeBase.packages.entrySet().stream()
+                .anyMatch(installed -> droolsRules.get(installed.getKey()) == installed.getValue());
+        if (!anyUnchanged) {
+            // Nothing to keep, e.g. after a full reload, so a new base is cheaper than removing every package
+            knowledgeBase.kbase = KnowledgeBaseFactory.newKnowledgeBase();
+            knowledgeBase.packages.clear();
+        }
+        Iterator<Map.Entry<UUID, Collection<KiePackage>>> installed = knowledgeBase.packages.entrySet().iterator();
+        while (installed.hasNext()) {
+            Map.Entry<UUID, Collection<KiePackage>> entry = installed.next();
+            if (droolsRules.get(entry.getKey()) != entry.getValue()) {
+                knowledgeBase.kbase.removeKiePackage(packageName(entry.getKey()));
+                installed.remove();
+            }
+        }
+        droolsRules.forEach((ruleGuid, packages) -> {
+            if (!knowledgeBase.packages.containsKey(ruleGuid)) {
+                knowledgeBase.kbase.addPackages(packages);
+                knowledgeBase.packages.put(ruleGuid, packages);
+            }
+        });
+    }
+
+    // Every session gets its own copy, the plans of rules installed later must not show up in sessions already handed out
+    private List<ActionPlan> actionPlanList() {
+        int size = actionPlans.keySet().stream().mapToInt(Integer::intValue).max().orElse(-1) + 1;
+        ActionPlan[] plans = new ActionPlan[size];
+        actionPlans.forEach((planIndex, actionPlan) -> plans[planIndex] = actionPlan);
+        return Collections.unmodifiableList(Arrays.asList(plans));
+    }
+
+    private void awaitPublished(Future<RuleSetSnapshot> future) {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for custom rules to be published", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Unable to publish custom rules", e.getCause());
+        }
+    }
+
+    private RuleEngine getConfiguredEngine() {
+        try {
+            String ruleEngine = parameterService.getStringValue(ParameterKey.RULE_ENGINE.getKey());
+            return RuleEngine.valueOf(ruleEngine.trim().toUpperCase());
+        } catch (Exception e) {
+            LOG.debug("No valid rule engine configured, using {}: {}", RuleEngine.DROOLS, e.getMessage());
+            return RuleEngine.DROOLS;
+        }
+    }
+
+    private boolean isRunnable(CustomRule customRule) {
+        return Boolean.TRUE.equals(customRule.getActive()) && !Boolean.TRUE.equals(customRule.getArchived());
+    }
+
+    private List<String> emailSubscribers(List<CustomRule> customRules) {
+        List<String> subscribers = new ArrayList<>();
+        for (CustomRule customRule : customRules) {
+            if (customRule.getRuleSubscriptionList() == null) {
+                continue;
+            }
+            for (RuleSubscription subscription : customRule.getRuleSubscriptionList()) {
+                if (SubscriptionTypeType.EMAIL.value().equals(subscription.getType())) {
+                    subscribers.add(subscription.getOwner());
+                }
+            }
+        }
+        return subscribers;
+    }
+
+    private String packageName(UUID ruleGuid) {
+        return CUSTOM_RULE_PACKAGE_PREFIX + ruleGuid.toString().replace('-', '_');
+    }
+
+    // A Drools knowledge base with the compiled packages it holds, and the evaluations still using it
+    private static class KnowledgeBaseBuffer {
+        private InternalKnowledgeBase kbase = KnowledgeBaseFactory.newKnowledgeBase();
+        private final Map<UUID, Collection<KiePackage>> packages = new HashMap<>();
+        private final AtomicInteger users = new AtomicInteger();
+
+        void awaitUnused() {
+            while (users.get() > 0) {
+                try {
+                    TimeUnit.MILLISECONDS.sleep(1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while waiting for evaluations to finish", e);
+                }
+            }
+        }
+    }
+
+    // A custom rule ready to be installed by the compiler thread, either as DRL or as a compiled predicate
+    private static class PreparedRule {
+        private final UUID guid;
+        private final RuleEngine engine;
+        private final String drl;
+        private final CompiledCustomRule compiledRule;
+        private final Set<SpatialEnrichment> spatialEnrichment;
+        private final int planIndex;
+        private final RuleMetadata metadata;
+
+        PreparedRule(UUID guid, RuleEngine engine, String drl, CompiledCustomRule compiledRule, Set<SpatialEnrichment> spatialEnrichment,
+                     int planIndex, RuleMetadata metadata) {
+            this.guid = guid;
+            this.engine = engine;
+            this.drl = drl;
+            this.compiledRule = compiledRule;
+            this.spatialEnrichment = spatialEnrichment;
+            this.planIndex = planIndex;
+            this.metadata = metadata;
         }
     }
 
-    private String generateCustomRuleDrl(String template, List<CustomRuleDto> ruleDtos) {
+    private String generateCustomRuleDrl(String template, List<CustomRuleDto> ruleDtos, int planIndex) {
         InputStream templateStream = this.getClass().getResourceAsStream(template);
         TemplateContainer tc = new DefaultTemplateContainer(templateStream);
         TemplateDataListener listener = new TemplateDataListener(tc);
@@ -123,7 +588,7 @@ public class RulesValidator {
             listener.newRow(rowNum, 0);
             listener.newCell(rowNum, 0, ruleDto.getRuleName(), 0);
             listener.newCell(rowNum, 1, vExpression, 0);
-            listener.newCell(rowNum, 2, ruleDto.getAction(), 0);
+            listener.newCell(rowNum, 2, String.valueOf(planIndex), 0);
             listener.newCell(rowNum, 3, ruleDto.getRuleGuid(), 0);
             rowNum++;
         }
@@ -206,7 +671,8 @@ public class RulesValidator {
     }
 
     private String addNormalText(String variableAndValue){
-        String s = "(MovementDetails( " + variableAndValue + "))";
+        // Bound to the evaluated movement, other movements can be in the same session when evaluating a batch
+        String s = "(MovementDetails( this == $movementDetails, " + variableAndValue + "))";
         return s;
     }
 
@@ -0,0 +1,75 @@
+/*
+﻿Developed with the contribution of the European Commission - Directorate General for Maritime Affairs and Fisheries
+© European Union, 2015-2016.
+
+This file is part of the Integrated Fisheries Data Management (IFDM) Suite. The IFDM Suite is free software: you can
+redistribute it and/or modify it under the terms of the GNU General Public License as published by the
+Free Software Foundation, either version 3 of the License, or any later version. The IFDM Suite is distributed in
+the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details. You should have received a
+copy of the GNU General Public License along with the IFDM Suite. If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.europa.ec.fisheries.uvms.movementrules.service.business;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+import eu.europa.ec.fisheries.uvms.movementrules.service.dto.SubCriteria;
+import eu.europa.ec.fisheries.uvms.movementrules.service.entity.CustomRule;
+import eu.europa.ec.fisheries.uvms.movementrules.service.entity.RuleSegment;
+
+/**
+ * The parts of the spatial enrichment a movement needs before the custom rules are evaluated. Only what the active
+ * rules read is requested from Spatial.
+ */
+public enum SpatialEnrichment {
+
+    // Current areas and closest country and port, read by area rules as well as by tickets and actions of any rule
+    AREAS,
+    // Areas entered and exited since the previous position
+    TRANSITIONS,
+    // Areas entered and exited since the previous VMS position
+    VMS_TRANSITIONS;
+
+    public static final Set<SpatialEnrichment> ALL = Collections.unmodifiableSet(EnumSet.allOf(SpatialEnrichment.class));
+
+    public static final Set<SpatialEnrichment> NONE = Collections.unmodifiableSet(EnumSet.noneOf(SpatialEnrichment.class));
+
+    /**
+     * @return the enrichment read by the given custom rule, everything when a segment has an unknown sub criteria
+     */
+    public static Set<SpatialEnrichment> requiredBy(CustomRule customRule) {
+        Set<SpatialEnrichment> required = EnumSet.of(AREAS);
+        if (customRule.getRuleSegmentList() == null) {
+            return required;
+        }
+        for (RuleSegment segment : customRule.getRuleSegmentList()) {
+            if (segment.getSubCriteria() == null) {
+                continue;
+            }
+            SubCriteria subCriteria;
+            try {
+                subCriteria = SubCriteria.valueOf(segment.getSubCriteria());
+            } catch (IllegalArgumentException e) {
+                return EnumSet.allOf(SpatialEnrichment.class);
+            }
+            switch (subCriteria) {
+                case AREA_CODE_ENT:
+                case AREA_TYPE_ENT:
+                case AREA_CODE_EXT:
+                case AREA_TYPE_EXT:
+                    required.add(TRANSITIONS);
+                    break;
+                case AREA_CODE_VMS_ENT:
+                case AREA_TYPE_VMS_ENT:
+                case AREA_CODE_VMS_EXT:
+                case AREA_TYPE_VMS_EXT:
+                    required.add(VMS_TRANSITIONS);
+                    break;
+                default:
+                    break;
+            }
+        }
+        return required;
+    }
+}
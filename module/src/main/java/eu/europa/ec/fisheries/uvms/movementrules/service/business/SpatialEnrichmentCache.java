@@ -0,0 +1,316 @@
+/*
+﻿Developed with the contribution of the European Commission - Directorate General for Maritime Affairs and Fisheries
+© European Union, 2015-2016.
+
+This file is part of the Integrated Fisheries Data Management (IFDM) Suite. The IFDM Suite is free software: you can
+redistribute it and/or modify it under the terms of the GNU General Public License as published by the
+Free Software Foundation, either version 3 of the License, or any later version. The IFDM Suite is distributed in
+the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details. You should have received a
+copy of the GNU General Public License along with the IFDM Suite. If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.europa.ec.fisheries.uvms.movementrules.service.business;
+
+import eu.europa.ec.fisheries.uvms.config.service.ParameterService;
+import eu.europa.ec.fisheries.uvms.movementrules.service.boundary.AreaTransitionsDTO;
+import eu.europa.ec.fisheries.uvms.movementrules.service.config.ParameterKey;
+import eu.europa.ec.fisheries.uvms.spatial.model.schemas.Area;
+import eu.europa.ec.fisheries.uvms.spatial.model.schemas.AreaExtendedIdentifierType;
+import eu.europa.ec.fisheries.uvms.spatial.model.schemas.AreasByLocationType;
+import eu.europa.ec.fisheries.uvms.spatial.model.schemas.ClosestAreasType;
+import eu.europa.ec.fisheries.uvms.spatial.model.schemas.ClosestLocationsType;
+import eu.europa.ec.fisheries.uvms.spatial.model.schemas.Location;
+import eu.europa.ec.fisheries.uvms.spatial.model.schemas.SpatialEnrichmentRS;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.EJB;
+import javax.ejb.Singleton;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caches Spatial's answers per geohash cell. A cell is only served from the cache after two different positions in
+ * it got the same areas from Spatial, cells where they differ lie on an area boundary and always go to Spatial.
+ * Transitions are the difference between the area sets of the previous and the current cell. The geohash precision
+ * is read from SPATIAL_CACHE_PRECISION, 0 turns the cache off.
+ */
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class SpatialEnrichmentCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SpatialEnrichmentCache.class);
+
+    static final int DEFAULT_PRECISION = 7;
+
+    static final int MAX_CELLS = 100_000;
+
+    private static final long TIME_TO_LIVE = TimeUnit.HOURS.toMillis(1);
+
+    private static final long PRECISION_CHECK_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+
+    private static final String BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz";
+
+    // Rough size of a cell and of each area in it, used for the memory estimate
+    private static final int CELL_BYTES = 256;
+    private static final int AREA_BYTES = 96;
+
+    @EJB
+    private ParameterService parameterService;
+
+    private final Map<String, Cell> cells = new LinkedHashMap<String, Cell>(1024, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Cell> eldest) {
+            return size() > MAX_CELLS;
+        }
+    };
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    private volatile int precision = DEFAULT_PRECISION;
+    private volatile long precisionChecked;
+
+    /**
+     * Returns the enrichment for the positions if both cells are known, otherwise null.
+     */
+    public AreaTransitionsDTO get(Double latitude, Double longitude, Double previousLatitude, Double previousLongitude) {
+        int currentPrecision = getPrecision();
+        if (currentPrecision == 0 || latitude == null || longitude == null) {
+            return null;
+        }
+        Cell current = lookup(geohash(latitude, longitude, currentPrecision));
+        Cell previous = null;
+        boolean hasPrevious = previousLatitude != null && previousLongitude != null;
+        if (hasPrevious) {
+            previous = lookup(geohash(previousLatitude, previousLongitude, currentPrecision));
+        }
+        if (current == null || current.closestAreas == null || (hasPrevious && previous == null)) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+
+        Map<String, AreaExtendedIdentifierType> previousAreas = previous != null ? previous.areas : Collections.emptyMap();
+        List<AreaExtendedIdentifierType> enteredAreas = new ArrayList<>();
+        for (Map.Entry<String, AreaExtendedIdentifierType> area : current.areas.entrySet()) {
+            if (!previousAreas.containsKey(area.getKey())) {
+                enteredAreas.add(area.getValue());
+            }
+        }
+        List<AreaExtendedIdentifierType> exitedAreas = new ArrayList<>();
+        for (Map.Entry<String, AreaExtendedIdentifierType> area : previousAreas.entrySet()) {
+            if (!current.areas.containsKey(area.getKey())) {
+                exitedAreas.add(area.getValue());
+            }
+        }
+
+        SpatialEnrichmentRS spatialEnrichmentRS = new SpatialEnrichmentRS();
+        AreasByLocationType areasByLocation = new AreasByLocationType();
+        areasByLocation.setAreas(new ArrayList<>(current.areas.values()));
+        spatialEnrichmentRS.setAreasByLocation(areasByLocation);
+        spatialEnrichmentRS.setClosestAreas(new ClosestAreasType(new ArrayList<>(current.closestAreas)));
+        ClosestLocationsType closestLocations = new ClosestLocationsType();
+        closestLocations.setClosestLocations(new ArrayList<>(current.closestLocations));
+        spatialEnrichmentRS.setClosestLocations(closestLocations);
+
+        AreaTransitionsDTO areaTransitions = new AreaTransitionsDTO();
+        areaTransitions.setSpatialEnrichmentRS(spatialEnrichmentRS);
+        areaTransitions.setEnteredAreas(enteredAreas);
+        areaTransitions.setExitedAreas(exitedAreas);
+        return areaTransitions;
+    }
+
+    /**
+     * Records an answer from Spatial. The areas of the previous position are derived from the current areas and
+     * the transitions, so both cells are learned from one call.
+     */
+    public void put(Double latitude, Double longitude, Double previousLatitude, Double previousLongitude, AreaTransitionsDTO response) {
+        int currentPrecision = getPrecision();
+        if (currentPrecision == 0 || latitude == null || longitude == null
+                || response == null || response.getSpatialEnrichmentRS() == null) {
+            return;
+        }
+        SpatialEnrichmentRS spatialEnrichmentRS = response.getSpatialEnrichmentRS();
+        Map<String, AreaExtendedIdentifierType> currentAreas = new LinkedHashMap<>();
+        if (spatialEnrichmentRS.getAreasByLocation() != null) {
+            for (AreaExtendedIdentifierType area : spatialEnrichmentRS.getAreasByLocation().getAreas()) {
+                currentAreas.put(key(area), area);
+            }
+        }
+        List<Area> closestAreas = spatialEnrichmentRS.getClosestAreas() != null
+                ? new ArrayList<>(spatialEnrichmentRS.getClosestAreas().getClosestAreas()) : new ArrayList<>();
+        List<Location> closestLocations = spatialEnrichmentRS.getClosestLocations() != null
+                ? new ArrayList<>(spatialEnrichmentRS.getClosestLocations().getClosestLocations()) : new ArrayList<>();
+        record(geohash(latitude, longitude, currentPrecision), latitude, longitude, currentAreas, closestAreas, closestLocations);
+
+        if (previousLatitude != null && previousLongitude != null
+                && response.getEnteredAreas() != null && response.getExitedAreas() != null) {
+            Map<String, AreaExtendedIdentifierType> previousAreas = new LinkedHashMap<>(currentAreas);
+            for (AreaExtendedIdentifierType area : response.getEnteredAreas()) {
+                previousAreas.remove(key(area));
+            }
+            for (AreaExtendedIdentifierType area : response.getExitedAreas()) {
+                previousAreas.put(key(area), area);
+            }
+            record(geohash(previousLatitude, previousLongitude, currentPrecision), previousLatitude, previousLongitude, previousAreas, null, null);
+        }
+    }
+
+    public double getHitRatio() {
+        long total = hits.sum() + misses.sum();
+        return total == 0 ? 0d : (double) hits.sum() / total;
+    }
+
+    public int getSize() {
+        synchronized (cells) {
+            return cells.size();
+        }
+    }
+
+    public long getEstimatedBytes() {
+        long bytes = 0;
+        synchronized (cells) {
+            for (Cell cell : cells.values()) {
+                bytes += CELL_BYTES + (long) AREA_BYTES * (cell.areas.size()
+                        + (cell.closestAreas != null ? cell.closestAreas.size() + cell.closestLocations.size() : 0));
+            }
+        }
+        return bytes;
+    }
+
+    private Cell lookup(String geohash) {
+        synchronized (cells) {
+            Cell cell = cells.get(geohash);
+            if (cell == null || !cell.confirmed || cell.boundary) {
+                return null;
+            }
+            if (cell.expires < System.currentTimeMillis()) {
+                cells.remove(geohash);
+                return null;
+            }
+            return cell;
+        }
+    }
+
+    private void record(String geohash, double latitude, double longitude, Map<String, AreaExtendedIdentifierType> areas,
+                        List<Area> closestAreas, List<Location> closestLocations) {
+        synchronized (cells) {
+            Cell cell = cells.get(geohash);
+            if (cell == null || cell.expires < System.currentTimeMillis()) {
+                cells.put(geohash, new Cell(latitude, longitude, areas, closestAreas, closestLocations, false, false,
+                        System.currentTimeMillis() + TIME_TO_LIVE));
+                return;
+            }
+            if (cell.boundary) {
+                return;
+            }
+            boolean samePosition = cell.latitude == latitude && cell.longitude == longitude;
+            boolean sameAreas = cell.areas.keySet().equals(areas.keySet());
+            if (!sameAreas) {
+                LOG.debug("Cell {} is on an area boundary", geohash);
+            }
+            cells.put(geohash, new Cell(cell.latitude, cell.longitude, cell.areas,
+                    cell.closestAreas != null ? cell.closestAreas : closestAreas,
+                    cell.closestAreas != null ? cell.closestLocations : closestLocations,
+                    cell.confirmed || (sameAreas && !samePosition), !sameAreas, cell.expires));
+        }
+    }
+
+    private int getPrecision() {
+        long now = System.currentTimeMillis();
+        if (now - precisionChecked > PRECISION_CHECK_INTERVAL) {
+            precisionChecked = now;
+            int configured = readPrecision();
+            if (configured != precision) {
+                LOG.info("Spatial cache precision changed from {} to {}", precision, configured);
+                synchronized (cells) {
+                    cells.clear();
+                }
+                precision = configured;
+            }
+        }
+        return precision;
+    }
+
+    private int readPrecision() {
+        try {
+            int configured = Integer.parseInt(parameterService.getStringValue(ParameterKey.SPATIAL_CACHE_PRECISION.getKey()).trim());
+            return Math.max(0, Math.min(12, configured));
+        } catch (Exception e) {
+            LOG.debug("No valid spatial cache precision configured, using {}: {}", DEFAULT_PRECISION, e.getMessage());
+            return DEFAULT_PRECISION;
+        }
+    }
+
+    private static String key(AreaExtendedIdentifierType area) {
+        return AssetAreaState.key(area);
+    }
+
+    static String geohash(double latitude, double longitude, int precision) {
+        double minLatitude = -90, maxLatitude = 90;
+        double minLongitude = -180, maxLongitude = 180;
+        StringBuilder geohash = new StringBuilder(precision);
+        boolean evenBit = true;
+        int bit = 0;
+        int index = 0;
+        while (geohash.length() < precision) {
+            if (evenBit) {
+                double middle = (minLongitude + maxLongitude) / 2;
+                if (longitude >= middle) {
+                    index = index * 2 + 1;
+                    minLongitude = middle;
+                } else {
+                    index = index * 2;
+                    maxLongitude = middle;
+                }
+            } else {
+                double middle = (minLatitude + maxLatitude) / 2;
+                if (latitude >= middle) {
+                    index = index * 2 + 1;
+                    minLatitude = middle;
+                } else {
+                    index = index * 2;
+                    maxLatitude = middle;
+                }
+            }
+            evenBit = !evenBit;
+            if (++bit == 5) {
+                geohash.append(BASE32.charAt(index));
+                bit = 0;
+                index = 0;
+            }
+        }
+        return geohash.toString();
+    }
+
+    private static class Cell {
+        private final double latitude;
+        private final double longitude;
+        private final Map<String, AreaExtendedIdentifierType> areas;
+        private final List<Area> closestAreas;
+        private final List<Location> closestLocations;
+        private final boolean confirmed;
+        private final boolean boundary;
+        private final long expires;
+
+        private Cell(double latitude, double longitude, Map<String, AreaExtendedIdentifierType> areas, List<Area> closestAreas,
+                     List<Location> closestLocations, boolean confirmed, boolean boundary, long expires) {
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.areas = areas;
+            this.closestAreas = closestAreas;
+            this.closestLocations = closestLocations;
+            this.confirmed = confirmed;
+            this.boundary = boundary;
+            this.expires = expires;
+        }
+    }
+}
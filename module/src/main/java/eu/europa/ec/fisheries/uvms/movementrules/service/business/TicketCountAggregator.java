@@ -0,0 +1,231 @@
+/*
+﻿Developed with the contribution of the European Commission - Directorate General for Maritime Affairs and Fisheries
+© European Union, 2015-2016.
+
+This file is part of the Integrated Fisheries Data Management (IFDM) Suite. The IFDM Suite is free software: you can
+redistribute it and/or modify it under the terms of the GNU General Public License as published by the
+Free Software Foundation, either version 3 of the License, or any later version. The IFDM Suite is distributed in
+the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details. You should have received a
+copy of the GNU General Public License along with the IFDM Suite. If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.europa.ec.fisheries.uvms.movementrules.service.business;
+
+import eu.europa.ec.fisheries.schema.movementrules.customrule.v1.ActionType;
+import eu.europa.ec.fisheries.uvms.movementrules.service.dao.RulesDao;
+import eu.europa.ec.fisheries.uvms.movementrules.service.dto.EventTicket;
+import eu.europa.ec.fisheries.uvms.movementrules.service.entity.Ticket;
+import eu.europa.ec.fisheries.uvms.movementrules.service.event.TicketUpdateEvent;
+import eu.europa.ec.fisheries.uvms.movementrules.service.message.producer.bean.IncidentProducer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Singleton;
+import javax.enterprise.event.Event;
+import javax.inject.Inject;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the invocations of rules with aggregateInvocations in memory. Once the ticket of a rule is known further
+ * invocations only increment a counter, {@link #flush()} adds the counted invocations to the ticket and sends one
+ * TicketUpdate per ticket. A counter reaching {@value #FLUSH_THRESHOLD} is written right away. Invocations written
+ * by a transaction that rolls back are counted again.
+ * <p>
+ * An invocation is only counted once its transaction has committed, so a movement that is rolled back and
+ * redelivered is not counted twice.
+ */
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class TicketCountAggregator {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TicketCountAggregator.class);
+
+    static final int FLUSH_THRESHOLD = 100;
+
+    // A ticket created by a transaction that has not committed yet is not visible to the flush
+    private static final Duration MISSING_TICKET_GRACE = Duration.ofMinutes(1);
+
+    private static final Duration IDLE_EVICTION = Duration.ofHours(1);
+
+    private static final Object UNCOMMITTED_INVOCATIONS = new Object();
+
+    @Inject
+    private RulesDao rulesDao;
+
+    @Inject
+    private IncidentProducer incidentProducer;
+
+    @Inject
+    @TicketUpdateEvent
+    private Event<EventTicket> ticketUpdateEvent;
+
+    @Resource
+    private TransactionSynchronizationRegistry transactionSynchronizationRegistry;
+
+    private final ConcurrentMap<UUID, Counter> counters = new ConcurrentHashMap<>();
+
+    @PreDestroy
+    public void destroy() {
+        flush();
+    }
+
+    /**
+     * Counts an invocation of the rule if its ticket is known, once the current transaction commits.
+     *
+     * @return false if the caller has to find or create the ticket and {@link #register} it
+     */
+    public boolean increment(RuleMetadata rule) {
+        Counter counter = counters.get(rule.getGuid());
+        if (counter == null) {
+            return false;
+        }
+        counter.rule = rule;
+        counter.lastIncrement = Instant.now();
+        countOnCommit(counter);
+        if (counter.pending.get() >= FLUSH_THRESHOLD) {
+            flush(rule.getGuid(), counter);
+        }
+        return true;
+    }
+
+    /**
+     * Makes the ticket the one further invocations of the rule are added to. Invocations counted for a previous
+     * ticket are written to that ticket first.
+     */
+    public void register(RuleMetadata rule, Ticket ticket) {
+        Counter previous = counters.put(rule.getGuid(), new Counter(rule, ticket.getGuid()));
+        if (previous != null && !previous.ticketGuid.equals(ticket.getGuid())) {
+            flush(rule.getGuid(), previous);
+        }
+    }
+
+    public void flush() {
+        Instant idleBefore = Instant.now().minus(IDLE_EVICTION);
+        for (Map.Entry<UUID, Counter> entry : counters.entrySet()) {
+            Counter counter = entry.getValue();
+            if (counter.pending.get() > 0) {
+                flush(entry.getKey(), counter);
+            } else if (counter.lastIncrement.isBefore(idleBefore)) {
+                counters.remove(entry.getKey(), counter);
+            }
+        }
+    }
+
+    private void flush(UUID ruleGuid, Counter counter) {
+        long pending = counter.pending.getAndSet(0);
+        if (pending == 0) {
+            return;
+        }
+        try {
+            Ticket ticket = rulesDao.addToTicketCount(counter.ticketGuid, pending, counter.lastIncrement);
+            if (ticket == null) {
+                if (counter.registered.isAfter(Instant.now().minus(MISSING_TICKET_GRACE))) {
+                    counter.pending.addAndGet(pending);
+                } else {
+                    LOG.warn("Ticket {} of rule {} no longer exists, {} invocation(s) are not counted", counter.ticketGuid, ruleGuid, pending);
+                    counters.remove(ruleGuid, counter);
+                }
+                return;
+            }
+            requeueOnRollback(counter, pending);
+            EventTicket eventTicket = new EventTicket(ticket, counter.rule);
+            ticketUpdateEvent.fire(eventTicket);
+            if (hasAction(counter.rule, ActionType.CREATE_INCIDENT)) {
+                incidentProducer.updatedTicket(eventTicket);
+            }
+        } catch (RuntimeException e) {
+            counter.pending.addAndGet(pending);
+            throw e;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void countOnCommit(Counter counter) {
+        if (transactionSynchronizationRegistry.getTransactionKey() == null) {
+            counter.pending.incrementAndGet();
+            return;
+        }
+        // A transaction is only used by one thread at a time
+        Map<Counter, Long> uncommitted = (Map<Counter, Long>) transactionSynchronizationRegistry.getResource(UNCOMMITTED_INVOCATIONS);
+        if (uncommitted == null) {
+            Map<Counter, Long> invocations = new HashMap<>();
+            transactionSynchronizationRegistry.putResource(UNCOMMITTED_INVOCATIONS, invocations);
+            transactionSynchronizationRegistry.registerInterposedSynchronization(new Synchronization() {
+                @Override
+                public void beforeCompletion() {
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    if (status == Status.STATUS_COMMITTED) {
+                        invocations.forEach((committed, count) -> committed.pending.addAndGet(count));
+                    }
+                }
+            });
+            uncommitted = invocations;
+        }
+        uncommitted.merge(counter, 1L, Long::sum);
+    }
+
+    private void requeueOnRollback(Counter counter, long pending) {
+        if (transactionSynchronizationRegistry.getTransactionKey() == null) {
+            return;
+        }
+        transactionSynchronizationRegistry.registerInterposedSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status != Status.STATUS_COMMITTED) {
+                    counter.pending.addAndGet(pending);
+                }
+            }
+        });
+    }
+
+    private boolean hasAction(RuleMetadata rule, ActionType actionType) {
+        return rule.getActionPlan().getActions().stream().anyMatch(action -> action.getType() == actionType);
+    }
+
+    public long getPendingInvocations() {
+        return counters.values().stream().mapToLong(counter -> counter.pending.get()).sum();
+    }
+
+    public long getPendingInvocations(UUID ruleGuid) {
+        Counter counter = counters.get(ruleGuid);
+        return counter != null ? counter.pending.get() : 0;
+    }
+
+    public int getSize() {
+        return counters.size();
+    }
+
+    private static class Counter {
+        private final UUID ticketGuid;
+        private final Instant registered = Instant.now();
+        private final AtomicLong pending = new AtomicLong();
+        private volatile RuleMetadata rule;
+        private volatile Instant lastIncrement = registered;
+
+        private Counter(RuleMetadata rule, UUID ticketGuid) {
+            this.rule = rule;
+            this.ticketGuid = ticketGuid;
+        }
+    }
+}
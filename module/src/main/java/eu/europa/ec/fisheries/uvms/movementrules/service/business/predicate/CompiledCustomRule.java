@@ -0,0 +1,76 @@
+/*
+﻿Developed with the contribution of the European Commission - Directorate General for Maritime Affairs and Fisheries
+© European Union, 2015-2016.
+
+This file is part of the Integrated Fisheries Data Management (IFDM) Suite. The IFDM Suite is free software: you can
+redistribute it and/or modify it under the terms of the GNU General Public License as published by the
+Free Software Foundation, either version 3 of the License, or any later version. The IFDM Suite is distributed in
+the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details. You should have received a
+copy of the GNU General Public License along with the IFDM Suite. If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.europa.ec.fisheries.uvms.movementrules.service.business.predicate;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import eu.europa.ec.fisheries.uvms.movementrules.model.dto.MovementDetails;
+import eu.europa.ec.fisheries.uvms.movementrules.model.dto.VicinityInfoDTO;
+import eu.europa.ec.fisheries.uvms.movementrules.service.business.ActionPlan;
+
+public final class CompiledCustomRule {
+
+    private final UUID guid;
+    private final String name;
+    private final ActionPlan actionPlan;
+    private final RuleCondition condition;
+    private final boolean vicinityRule;
+    private final Map<IndexedAttribute, Set<String>> gates;
+
+    CompiledCustomRule(UUID guid, String name, ActionPlan actionPlan, RuleCondition condition, boolean vicinityRule,
+                       Map<IndexedAttribute, Set<String>> gates) {
+        this.guid = guid;
+        this.name = name;
+        this.actionPlan = actionPlan;
+        this.condition = condition;
+        this.vicinityRule = vicinityRule;
+        this.gates = gates;
+    }
+
+    /**
+     * @return the number of times the rule triggers for the movement, zero if it does not match
+     */
+    public int activations(MovementDetails fact) {
+        if (!vicinityRule) {
+            return condition.activations(fact, null);
+        }
+        // Rules on vicinity are evaluated once for every vessel in the vicinity
+        List<VicinityInfoDTO> vicinityOf = fact.getVicinityOf();
+        if (vicinityOf == null) {
+            return 0;
+        }
+        int activations = 0;
+        for (VicinityInfoDTO vicinity : vicinityOf) {
+            activations += condition.activations(fact, vicinity);
+        }
+        return activations;
+    }
+
+    public UUID getGuid() {
+        return guid;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public ActionPlan getActionPlan() {
+        return actionPlan;
+    }
+
+    // Indexed attribute values of which one must be present for the rule to match, empty if the rule is not gated
+    Map<IndexedAttribute, Set<String>> getGates() {
+        return gates;
+    }
+}
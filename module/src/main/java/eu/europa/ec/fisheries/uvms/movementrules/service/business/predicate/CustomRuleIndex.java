@@ -0,0 +1,93 @@
+/*
+﻿Developed with the contribution of the European Commission - Directorate General for Maritime Affairs and Fisheries
+© European Union, 2015-2016.
+
+This file is part of the Integrated Fisheries Data Management (IFDM) Suite. The IFDM Suite is free software: you can
+redistribute it and/or modify it under the terms of the GNU General Public License as published by the
+Free Software Foundation, either version 3 of the License, or any later version. The IFDM Suite is distributed in
+the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details. You should have received a
+copy of the GNU General Public License along with the IFDM Suite. If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.europa.ec.fisheries.uvms.movementrules.service.business.predicate;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import eu.europa.ec.fisheries.uvms.movementrules.model.dto.MovementDetails;
+
+/**
+ * Pre filter for compiled rules. Rules gated by an equality on an indexed attribute are only returned as
+ * candidates for movements having one of the gate values, the remaining rules are always candidates.
+ */
+public final class CustomRuleIndex {
+
+    public static final CustomRuleIndex EMPTY = new CustomRuleIndex(Collections.emptyList());
+
+    private final int size;
+    private final List<CompiledCustomRule> unindexed = new ArrayList<>();
+    private final Map<IndexedAttribute, Map<String, List<CompiledCustomRule>>> index = new EnumMap<>(IndexedAttribute.class);
+
+    public CustomRuleIndex(Collection<CompiledCustomRule> rules) {
+        size = rules.size();
+        for (CompiledCustomRule rule : rules) {
+            Map.Entry<IndexedAttribute, Set<String>> gate = mostSelectiveGate(rule);
+            if (gate == null) {
+                unindexed.add(rule);
+                continue;
+            }
+            Map<String, List<CompiledCustomRule>> rulesByValue = index.computeIfAbsent(gate.getKey(), attribute -> new HashMap<>());
+            for (String value : gate.getValue()) {
+                rulesByValue.computeIfAbsent(value, v -> new ArrayList<>()).add(rule);
+            }
+        }
+    }
+
+    /**
+     * @return the rules that can possibly match the movement
+     */
+    public Collection<CompiledCustomRule> candidates(MovementDetails fact) {
+        if (index.isEmpty()) {
+            return unindexed;
+        }
+        List<CompiledCustomRule> candidates = new ArrayList<>(unindexed);
+        for (Map.Entry<IndexedAttribute, Map<String, List<CompiledCustomRule>>> entry : index.entrySet()) {
+            Collection<String> values = entry.getKey().values(fact);
+            if (values == null || values.isEmpty()) {
+                continue;
+            }
+            Map<String, List<CompiledCustomRule>> rulesByValue = entry.getValue();
+            if (values.size() == 1) {
+                candidates.addAll(rulesByValue.getOrDefault(values.iterator().next(), Collections.emptyList()));
+                continue;
+            }
+            // A rule gated on several values, e.g. area codes, is only a candidate once
+            Set<CompiledCustomRule> matched = new LinkedHashSet<>();
+            for (String value : values) {
+                matched.addAll(rulesByValue.getOrDefault(value, Collections.emptyList()));
+            }
+            candidates.addAll(matched);
+        }
+        return candidates;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private static Map.Entry<IndexedAttribute, Set<String>> mostSelectiveGate(CompiledCustomRule rule) {
+        Map.Entry<IndexedAttribute, Set<String>> selected = null;
+        for (Map.Entry<IndexedAttribute, Set<String>> gate : rule.getGates().entrySet()) {
+            if (selected == null || gate.getValue().size() < selected.getValue().size()) {
+                selected = gate;
+            }
+        }
+        return selected;
+    }
+}
@@ -0,0 +1,429 @@
+/*
+﻿Developed with the contribution of the European Commission - Directorate General for Maritime Affairs and Fisheries
+© European Union, 2015-2016.
+
+This file is part of the Integrated Fisheries Data Management (IFDM) Suite. The IFDM Suite is free software: you can
+redistribute it and/or modify it under the terms of the GNU General Public License as published by the
+Free Software Foundation, either version 3 of the License, or any later version. The IFDM Suite is distributed in
+the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details. You should have received a
+copy of the GNU General Public License along with the IFDM Suite. If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.europa.ec.fisheries.uvms.movementrules.service.business.predicate;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiPredicate;
+import java.util.function.Function;
+import java.util.function.IntPredicate;
+import eu.europa.ec.fisheries.schema.movementrules.customrule.v1.ConditionType;
+import eu.europa.ec.fisheries.schema.movementrules.customrule.v1.LogicOperatorType;
+import eu.europa.ec.fisheries.schema.movementrules.customrule.v1.SubCriteriaType;
+import eu.europa.ec.fisheries.uvms.commons.date.DateUtils;
+import eu.europa.ec.fisheries.uvms.movementrules.model.dto.MovementDetails;
+import eu.europa.ec.fisheries.uvms.movementrules.model.dto.VicinityInfoDTO;
+import eu.europa.ec.fisheries.uvms.movementrules.service.business.ActionPlan;
+import eu.europa.ec.fisheries.uvms.movementrules.service.entity.CustomRule;
+import eu.europa.ec.fisheries.uvms.movementrules.service.entity.Interval;
+import eu.europa.ec.fisheries.uvms.movementrules.service.entity.RuleSegment;
+import eu.europa.ec.fisheries.uvms.movementrules.service.mapper.CustomRuleParser;
+
+/**
+ * Compiles the segments of a custom rule straight into a predicate tree over {@link MovementDetails}, as an
+ * alternative to generating and compiling DRL. Field values are read with typed getters and the segment values
+ * are parsed once, at compile time.
+ *
+ * The expression is built the same way as in {@link CustomRuleParser}: segments in order, time intervals appended
+ * with a trailing "and", "and" binding harder than "or". Null fields and the number of times a rule triggers
+ * follow the Drools semantics so both engines give the same triggers.
+ */
+public final class CustomRulePredicateCompiler {
+
+    private static final Map<SubCriteriaType, ValueField<?>> VALUE_FIELDS = new EnumMap<>(SubCriteriaType.class);
+    private static final Map<SubCriteriaType, Function<MovementDetails, List<String>>> LIST_FIELDS = new EnumMap<>(SubCriteriaType.class);
+
+    static {
+        // ACTIVITY
+        text(SubCriteriaType.ACTIVITY_CALLBACK, MovementDetails::getActivityCallback);
+        text(SubCriteriaType.ACTIVITY_MESSAGE_ID, MovementDetails::getActivityMessageId);
+        text(SubCriteriaType.ACTIVITY_MESSAGE_TYPE, MovementDetails::getActivityMessageType);
+
+        // AREA
+        LIST_FIELDS.put(SubCriteriaType.AREA_CODE, MovementDetails::getAreaCodes);
+        LIST_FIELDS.put(SubCriteriaType.AREA_TYPE, MovementDetails::getAreaTypes);
+        LIST_FIELDS.put(SubCriteriaType.AREA_CODE_ENT, MovementDetails::getEntAreaCodes);
+        LIST_FIELDS.put(SubCriteriaType.AREA_TYPE_ENT, MovementDetails::getEntAreaTypes);
+        LIST_FIELDS.put(SubCriteriaType.AREA_CODE_EXT, MovementDetails::getExtAreaCodes);
+        LIST_FIELDS.put(SubCriteriaType.AREA_TYPE_EXT, MovementDetails::getExtAreaTypes);
+        LIST_FIELDS.put(SubCriteriaType.AREA_CODE_VMS_ENT, MovementDetails::getVmsEntAreaCodes);
+        LIST_FIELDS.put(SubCriteriaType.AREA_TYPE_VMS_ENT, MovementDetails::getVmsEntAreaTypes);
+        LIST_FIELDS.put(SubCriteriaType.AREA_CODE_VMS_EXT, MovementDetails::getVmsExtAreaCodes);
+        LIST_FIELDS.put(SubCriteriaType.AREA_TYPE_VMS_EXT, MovementDetails::getVmsExtAreaTypes);
+
+        // ASSET
+        LIST_FIELDS.put(SubCriteriaType.ASSET_FILTER, MovementDetails::getAssetFilters);
+        text(SubCriteriaType.ASSET_ID_GEAR_TYPE, MovementDetails::getAssetIdGearType);
+        text(SubCriteriaType.EXTERNAL_MARKING, MovementDetails::getExternalMarking);
+        text(SubCriteriaType.FLAG_STATE, MovementDetails::getFlagState);
+        text(SubCriteriaType.ASSET_CFR, MovementDetails::getCfr);
+        text(SubCriteriaType.ASSET_IRCS, MovementDetails::getIrcs);
+        text(SubCriteriaType.ASSET_NAME, MovementDetails::getAssetName);
+        text(SubCriteriaType.ASSET_STATUS, MovementDetails::getAssetStatus);
+        text(SubCriteriaType.ASSET_TYPE, MovementDetails::getAssetType);
+        VALUE_FIELDS.put(SubCriteriaType.ASSET_PARKED, new ValueField<>(MovementDetails::isParked, CustomRulePredicateCompiler::parseBoolean));
+
+        // MOBILE_TERMINAL
+        text(SubCriteriaType.COMCHANNEL_TYPE, MovementDetails::getComChannelType);
+        text(SubCriteriaType.MT_TYPE, MovementDetails::getMobileTerminalType);
+        text(SubCriteriaType.MT_DNID, MovementDetails::getMobileTerminalDnid);
+        text(SubCriteriaType.MT_MEMBER_ID, MovementDetails::getMobileTerminalMemberNumber);
+        text(SubCriteriaType.MT_SERIAL_NO, MovementDetails::getMobileTerminalSerialNumber);
+        text(SubCriteriaType.MT_STATUS, MovementDetails::getMobileTerminalStatus);
+
+        // POSITION
+        decimal(SubCriteriaType.ALTITUDE, MovementDetails::getAltitude);
+        decimal(SubCriteriaType.LATITUDE, MovementDetails::getLatitude);
+        decimal(SubCriteriaType.LONGITUDE, MovementDetails::getLongitude);
+        decimal(SubCriteriaType.CALCULATED_COURSE, MovementDetails::getCalculatedCourse);
+        decimal(SubCriteriaType.CALCULATED_SPEED, MovementDetails::getCalculatedSpeed);
+        text(SubCriteriaType.MOVEMENT_TYPE, MovementDetails::getMovementType);
+        VALUE_FIELDS.put(SubCriteriaType.POSITION_REPORT_TIME, new ValueField<>(MovementDetails::getPositionTime, DateUtils::stringToDate));
+        decimal(SubCriteriaType.REPORTED_COURSE, MovementDetails::getReportedCourse);
+        decimal(SubCriteriaType.REPORTED_SPEED, MovementDetails::getReportedSpeed);
+        text(SubCriteriaType.SEGMENT_TYPE, MovementDetails::getSegmentType);
+        text(SubCriteriaType.SOURCE, MovementDetails::getSource);
+        text(SubCriteriaType.STATUS_CODE, MovementDetails::getStatusCode);
+        text(SubCriteriaType.CLOSEST_COUNTRY_CODE, MovementDetails::getClosestCountryCode);
+        text(SubCriteriaType.CLOSEST_PORT_CODE, MovementDetails::getClosestPortCode);
+
+        // REPORT
+        VALUE_FIELDS.put(SubCriteriaType.SUM_POSITION_REPORT, new ValueField<>(MovementDetails::getSumPositionReport, Integer::valueOf));
+        VALUE_FIELDS.put(SubCriteriaType.TIME_DIFF_POSITION_REPORT, new ValueField<>(MovementDetails::getTimeDiffPositionReport, Long::valueOf));
+    }
+
+    private CustomRulePredicateCompiler() {}
+
+    /**
+     * @throws IllegalArgumentException if the rule can not be compiled, the same rules are rejected by Drools
+     */
+    public static CompiledCustomRule compile(CustomRule customRule) {
+        List<Token> tokens = new ArrayList<>();
+        boolean vicinityRule = false;
+
+        List<RuleSegment> segments = new ArrayList<>(customRule.getRuleSegmentList());
+        segments.sort(Comparator.comparing(RuleSegment::getOrder));
+        for (RuleSegment segment : segments) {
+            addParentheses(tokens, segment.getStartOperator(), '(', Token.LEFT);
+            tokens.add(Token.atom(compileSegment(segment), gate(segment)));
+            vicinityRule |= isVicinity(segment.getSubCriteria());
+            addParentheses(tokens, segment.getEndOperator(), ')', Token.RIGHT);
+
+            switch (LogicOperatorType.valueOf(segment.getLogicOperator())) {
+                case AND:
+                    tokens.add(Token.AND);
+                    break;
+                case OR:
+                    tokens.add(Token.OR);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        List<Interval> intervals = customRule.getIntervals();
+        for (int i = 0; i < intervals.size(); i++) {
+            tokens.add(i == 0 ? Token.AND : Token.OR);
+            if (i == 0) {
+                tokens.add(Token.LEFT);
+            }
+            addInterval(tokens, intervals.get(i));
+        }
+        if (!intervals.isEmpty()) {
+            tokens.add(Token.RIGHT);
+        }
+
+        Expression expression = new Parser(tokens).parse();
+        return new CompiledCustomRule(customRule.getGuid(), customRule.getName(), ActionPlan.compile(customRule), expression.condition,
+                vicinityRule, expression.gates);
+    }
+
+    // An equality on an indexed attribute, the segment can only match movements with that value
+    private static Map<IndexedAttribute, Set<String>> gate(RuleSegment segment) {
+        IndexedAttribute attribute = IndexedAttribute.forSubCriteria(SubCriteriaType.fromValue(segment.getSubCriteria()));
+        if (attribute == null || !ConditionType.EQ.value().equals(segment.getCondition())) {
+            return Collections.emptyMap();
+        }
+        return Collections.singletonMap(attribute, Collections.singleton(segment.getValue().replace("\"", "")));
+    }
+
+    private static BiPredicate<MovementDetails, VicinityInfoDTO> compileSegment(RuleSegment segment) {
+        SubCriteriaType subCriteria = SubCriteriaType.fromValue(segment.getSubCriteria());
+        ConditionType condition = ConditionType.valueOf(segment.getCondition());
+        // Quotations are removed from the value, same as for the generated DRL
+        String value = segment.getValue().replace("\"", "");
+
+        ValueField<?> valueField = VALUE_FIELDS.get(subCriteria);
+        if (valueField != null) {
+            return valueField.compile(condition, value);
+        }
+        Function<MovementDetails, List<String>> listField = LIST_FIELDS.get(subCriteria);
+        if (listField != null) {
+            boolean contains = isContains(condition);
+            return (fact, vicinity) -> {
+                List<String> list = listField.apply(fact);
+                return (list != null && list.contains(value)) == contains;
+            };
+        }
+        switch (subCriteria) {
+            case VICINITY_OF:
+                boolean contains = isContains(condition);
+                return (fact, vicinity) -> (vicinity.getAsset() != null && vicinity.getAsset().contains(value)) == contains;
+            case VICINITY_DISTANCE_OF:
+                double distance = Double.parseDouble(value);
+                IntPredicate comparison = comparison(condition);
+                return (fact, vicinity) -> comparison.test(Double.compare(vicinity.getDistance(), distance));
+            default:
+                throw new IllegalArgumentException("Unsupported sub criteria " + subCriteria);
+        }
+    }
+
+    private static void addInterval(List<Token> tokens, Interval interval) {
+        if (interval.getStart() == null && interval.getEnd() == null) {
+            throw new IllegalArgumentException("Interval without start and end");
+        }
+        // The DRL passes the interval through epoch milliseconds, so the precision is the same here
+        if (interval.getStart() != null) {
+            Instant start = interval.getStart().truncatedTo(ChronoUnit.MILLIS);
+            tokens.add(Token.atom((fact, vicinity) -> fact.getPositionTime() != null && !start.isAfter(fact.getPositionTime()), Collections.emptyMap()));
+        }
+        if (interval.getStart() != null && interval.getEnd() != null) {
+            tokens.add(Token.AND);
+        }
+        if (interval.getEnd() != null) {
+            Instant end = interval.getEnd().truncatedTo(ChronoUnit.MILLIS);
+            tokens.add(Token.atom((fact, vicinity) -> fact.getPositionTime() != null && !end.isBefore(fact.getPositionTime()), Collections.emptyMap()));
+        }
+    }
+
+    private static void addParentheses(List<Token> tokens, String operator, char parenthesis, Token token) {
+        if (operator == null) {
+            return;
+        }
+        for (char c : operator.toCharArray()) {
+            if (c == parenthesis) {
+                tokens.add(token);
+            } else if (!Character.isWhitespace(c)) {
+                throw new IllegalArgumentException("Unexpected operator " + operator);
+            }
+        }
+    }
+
+    private static boolean isVicinity(String subCriteria) {
+        return SubCriteriaType.VICINITY_OF.value().equals(subCriteria) || SubCriteriaType.VICINITY_DISTANCE_OF.value().equals(subCriteria);
+    }
+
+    private static boolean isContains(ConditionType condition) {
+        switch (condition) {
+            case EQ:
+                return true;
+            case NE:
+                return false;
+            default:
+                throw new IllegalArgumentException("Unsupported condition " + condition + " for a list criteria");
+        }
+    }
+
+    private static IntPredicate comparison(ConditionType condition) {
+        switch (condition) {
+            case EQ:
+                return c -> c == 0;
+            case NE:
+                return c -> c != 0;
+            case GT:
+                return c -> c > 0;
+            case GE:
+                return c -> c >= 0;
+            case LT:
+                return c -> c < 0;
+            case LE:
+                return c -> c <= 0;
+            default:
+                throw new IllegalArgumentException("Unsupported condition " + condition);
+        }
+    }
+
+    private static Boolean parseBoolean(String value) {
+        if ("true".equalsIgnoreCase(value) || "false".equalsIgnoreCase(value)) {
+            return Boolean.valueOf(value);
+        }
+        throw new IllegalArgumentException("Not a boolean value: " + value);
+    }
+
+    private static void text(SubCriteriaType subCriteria, Function<MovementDetails, String> getter) {
+        VALUE_FIELDS.put(subCriteria, new ValueField<>(getter, Function.identity()));
+    }
+
+    private static void decimal(SubCriteriaType subCriteria, Function<MovementDetails, Double> getter) {
+        VALUE_FIELDS.put(subCriteria, new ValueField<>(getter, Double::valueOf));
+    }
+
+    private static final class ValueField<T extends Comparable<? super T>> {
+
+        private final Function<MovementDetails, T> getter;
+        private final Function<String, T> parser;
+
+        ValueField(Function<MovementDetails, T> getter, Function<String, T> parser) {
+            this.getter = getter;
+            this.parser = parser;
+        }
+
+        BiPredicate<MovementDetails, VicinityInfoDTO> compile(ConditionType condition, String value) {
+            T constant = parser.apply(value);
+            IntPredicate comparison = comparison(condition);
+            // A missing value is only "not equal" to anything, like in Drools
+            boolean matchesNull = condition == ConditionType.NE;
+            return (fact, vicinity) -> {
+                T fieldValue = getter.apply(fact);
+                return fieldValue == null ? matchesNull : comparison.test(fieldValue.compareTo(constant));
+            };
+        }
+    }
+
+    private static final class Token {
+
+        static final Token LEFT = new Token(null, null);
+        static final Token RIGHT = new Token(null, null);
+        static final Token AND = new Token(null, null);
+        static final Token OR = new Token(null, null);
+
+        private final BiPredicate<MovementDetails, VicinityInfoDTO> atom;
+        private final Map<IndexedAttribute, Set<String>> gates;
+
+        private Token(BiPredicate<MovementDetails, VicinityInfoDTO> atom, Map<IndexedAttribute, Set<String>> gates) {
+            this.atom = atom;
+            this.gates = gates;
+        }
+
+        static Token atom(BiPredicate<MovementDetails, VicinityInfoDTO> atom, Map<IndexedAttribute, Set<String>> gates) {
+            return new Token(atom, gates);
+        }
+    }
+
+    /**
+     * A parsed (sub) expression and its gates: indexed attribute values of which one must be present for the
+     * expression to match at all.
+     */
+    private static final class Expression {
+
+        private final RuleCondition condition;
+        private final Map<IndexedAttribute, Set<String>> gates;
+
+        Expression(RuleCondition condition, Map<IndexedAttribute, Set<String>> gates) {
+            this.condition = condition;
+            this.gates = gates;
+        }
+
+        // Every operand must match, so each of their gates still holds. For the same attribute the smaller set is kept.
+        Expression and(Expression right) {
+            RuleCondition left = condition;
+            Map<IndexedAttribute, Set<String>> merged = new EnumMap<>(IndexedAttribute.class);
+            merged.putAll(gates);
+            right.gates.forEach((attribute, values) -> merged.merge(attribute, values, (a, b) -> a.size() <= b.size() ? a : b));
+            return new Expression((fact, vicinity) -> {
+                int activations = left.activations(fact, vicinity);
+                return activations == 0 ? 0 : activations * right.condition.activations(fact, vicinity);
+            }, merged);
+        }
+
+        // Only attributes gating both branches hold, with the values of both
+        Expression or(Expression right) {
+            RuleCondition left = condition;
+            Map<IndexedAttribute, Set<String>> merged = new EnumMap<>(IndexedAttribute.class);
+            gates.forEach((attribute, values) -> {
+                Set<String> rightValues = right.gates.get(attribute);
+                if (rightValues != null) {
+                    Set<String> union = new HashSet<>(values);
+                    union.addAll(rightValues);
+                    merged.put(attribute, union);
+                }
+            });
+            return new Expression((fact, vicinity) -> left.activations(fact, vicinity) + right.condition.activations(fact, vicinity), merged);
+        }
+    }
+
+    /**
+     * Recursive descent parser over the tokens. An "or" gives the sum of the activations of its branches and an
+     * "and" the product, which is how Drools expands "or" into one sub rule per branch.
+     */
+    private static final class Parser {
+
+        private final List<Token> tokens;
+        private int position;
+
+        Parser(List<Token> tokens) {
+            this.tokens = tokens;
+        }
+
+        Expression parse() {
+            if (tokens.isEmpty()) {
+                return new Expression((fact, vicinity) -> 1, Collections.emptyMap());
+            }
+            Expression expression = or();
+            if (position != tokens.size()) {
+                throw new IllegalArgumentException("Unexpected token at position " + position + " in rule expression");
+            }
+            return expression;
+        }
+
+        private Expression or() {
+            Expression expression = and();
+            while (accept(Token.OR)) {
+                expression = expression.or(and());
+            }
+            return expression;
+        }
+
+        private Expression and() {
+            Expression expression = operand();
+            while (accept(Token.AND)) {
+                expression = expression.and(operand());
+            }
+            return expression;
+        }
+
+        private Expression operand() {
+            if (position >= tokens.size()) {
+                throw new IllegalArgumentException("Unexpected end of rule expression");
+            }
+            Token token = tokens.get(position++);
+            if (token == Token.LEFT) {
+                Expression expression = or();
+                if (!accept(Token.RIGHT)) {
+                    throw new IllegalArgumentException("Missing end parenthesis in rule expression");
+                }
+                return expression;
+            }
+            if (token.atom != null) {
+                BiPredicate<MovementDetails, VicinityInfoDTO> atom = token.atom;
+                return new Expression((fact, vicinity) -> atom.test(fact, vicinity) ? 1 : 0, token.gates);
+            }
+            throw new IllegalArgumentException("Unexpected token at position " + (position - 1) + " in rule expression");
+        }
+
+        private boolean accept(Token token) {
+            if (position < tokens.size() && tokens.get(position) == token) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+    }
+}
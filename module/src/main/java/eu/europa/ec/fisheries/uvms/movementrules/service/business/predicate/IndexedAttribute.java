@@ -0,0 +1,54 @@
+/*
+﻿Developed with the contribution of the European Commission - Directorate General for Maritime Affairs and Fisheries
+© European Union, 2015-2016.
+
+This file is part of the Integrated Fisheries Data Management (IFDM) Suite. The IFDM Suite is free software: you can
+redistribute it and/or modify it under the terms of the GNU General Public License as published by the
+Free Software Foundation, either version 3 of the License, or any later version. The IFDM Suite is distributed in
+the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details. You should have received a
+copy of the GNU General Public License along with the IFDM Suite. If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.europa.ec.fisheries.uvms.movementrules.service.business.predicate;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.function.Function;
+import eu.europa.ec.fisheries.schema.movementrules.customrule.v1.SubCriteriaType;
+import eu.europa.ec.fisheries.uvms.movementrules.model.dto.MovementDetails;
+
+/**
+ * Attributes most rules are gated on with an equality, used to index the rules, see {@link CustomRuleIndex}.
+ */
+enum IndexedAttribute {
+
+    FLAG_STATE(SubCriteriaType.FLAG_STATE, fact -> single(fact.getFlagState())),
+    SOURCE(SubCriteriaType.SOURCE, fact -> single(fact.getSource())),
+    MOBILE_TERMINAL_TYPE(SubCriteriaType.MT_TYPE, fact -> single(fact.getMobileTerminalType())),
+    AREA_CODE(SubCriteriaType.AREA_CODE, MovementDetails::getAreaCodes);
+
+    private final SubCriteriaType subCriteria;
+    private final Function<MovementDetails, Collection<String>> values;
+
+    IndexedAttribute(SubCriteriaType subCriteria, Function<MovementDetails, Collection<String>> values) {
+        this.subCriteria = subCriteria;
+        this.values = values;
+    }
+
+    Collection<String> values(MovementDetails fact) {
+        return values.apply(fact);
+    }
+
+    static IndexedAttribute forSubCriteria(SubCriteriaType subCriteria) {
+        for (IndexedAttribute attribute : values()) {
+            if (attribute.subCriteria == subCriteria) {
+                return attribute;
+            }
+        }
+        return null;
+    }
+
+    private static Collection<String> single(String value) {
+        return value != null ? Collections.singletonList(value) : null;
+    }
+}
@@ -14,7 +14,10 @@ package eu.europa.ec.fisheries.uvms.movementrules.service.config;
 public enum ParameterKey {
 
     ASSET_NOT_SENDING_THRESHOLD("ASSET_NOT_SENDING_THRESHOLD"),
-    LOCAL_FLAGSTATE("flux_local_nation_code");
+    LOCAL_FLAGSTATE("flux_local_nation_code"),
+    RULE_ENGINE("RULE_ENGINE"),
+    SPATIAL_CACHE_PRECISION("SPATIAL_CACHE_PRECISION"),
+    TICKET_COUNT_NOTIFICATION_WINDOW("TICKET_COUNT_NOTIFICATION_WINDOW");
 
     private final String key;
 
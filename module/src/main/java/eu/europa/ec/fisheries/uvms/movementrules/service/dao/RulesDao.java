@@ -11,19 +11,28 @@ copy of the GNU General Public License along with the IFDM Suite. If not, see <h
  */
 package eu.europa.ec.fisheries.uvms.movementrules.service.dao;
 
+import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 import javax.ejb.Stateless;
 import javax.persistence.EntityManager;
+import javax.persistence.LockModeType;
 import javax.persistence.NoResultException;
 import javax.persistence.PersistenceContext;
+import javax.persistence.Query;
 import javax.persistence.TypedQuery;
 
 import eu.europa.ec.fisheries.uvms.movementrules.service.constants.ServiceConstants;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import eu.europa.ec.fisheries.uvms.movementrules.service.entity.ActionOutbox;
+import eu.europa.ec.fisheries.uvms.movementrules.service.entity.ClusterNode;
 import eu.europa.ec.fisheries.uvms.movementrules.service.entity.CustomRule;
+import eu.europa.ec.fisheries.uvms.movementrules.service.entity.LeaderLease;
 import eu.europa.ec.fisheries.uvms.movementrules.service.entity.PreviousReport;
 import eu.europa.ec.fisheries.uvms.movementrules.service.entity.RuleSubscription;
 import eu.europa.ec.fisheries.uvms.movementrules.service.entity.Ticket;
@@ -49,6 +58,37 @@ public class RulesDao {
             return em.find(CustomRule.class, guid);
     }
 
+    /**
+     * Sets the last triggered time of several rules with one bulk update. Entities already loaded in the persistence
+     * context are not refreshed.
+     */
+    public int updateLastTriggered(Map<UUID, Instant> lastTriggered) {
+        if (lastTriggered.isEmpty()) {
+            return 0;
+        }
+        StringBuilder jpql = new StringBuilder("UPDATE CustomRule c SET c.lastTriggered = CASE");
+        for (int i = 0; i < lastTriggered.size(); i++) {
+            jpql.append(" WHEN c.guid = :guid").append(i).append(" THEN :lastTriggered").append(i);
+        }
+        jpql.append(" ELSE c.lastTriggered END WHERE c.guid IN :guids");
+        Query query = em.createQuery(jpql.toString());
+        int i = 0;
+        for (Map.Entry<UUID, Instant> entry : lastTriggered.entrySet()) {
+            query.setParameter("guid" + i, entry.getKey());
+            query.setParameter("lastTriggered" + i, entry.getValue());
+            i++;
+        }
+        query.setParameter("guids", lastTriggered.keySet());
+        return query.executeUpdate();
+    }
+
+    public Instant getLastTriggered(UUID guid) {
+        TypedQuery<Instant> query = em.createQuery("SELECT c.lastTriggered FROM CustomRule c WHERE c.guid = :guid", Instant.class);
+        query.setParameter("guid", guid);
+        List<Instant> result = query.getResultList();
+        return result.isEmpty() ? null : result.get(0);
+    }
+
     public void removeCustomRuleAfterTests(CustomRule customRule) {
         em.remove(em.contains(customRule) ? customRule : em.merge(customRule));
     }
@@ -61,6 +101,25 @@ public class RulesDao {
         return em.find(Ticket.class, guid);
     }
 
+    /**
+     * Adds invocations to the count of a ticket in the DB, so concurrent additions are never lost.
+     *
+     * @return the updated ticket, null if there is no such ticket
+     */
+    public Ticket addToTicketCount(UUID guid, long invocations, Instant updated) {
+        Query query = em.createNamedQuery(Ticket.ADD_TO_TICKET_COUNT);
+        query.setParameter("guid", guid);
+        query.setParameter("invocations", invocations);
+        query.setParameter("updated", updated);
+        if (query.executeUpdate() == 0) {
+            return null;
+        }
+        Ticket ticket = em.find(Ticket.class, guid);
+        // The bulk update bypasses the persistence context, which may already hold the ticket
+        em.refresh(ticket);
+        return ticket;
+    }
+
     public List<Ticket> getTicketsByMovements(List<String> movements) {
         TypedQuery<Ticket> query = em.createNamedQuery(Ticket.FIND_TICKETS_BY_MOVEMENTS, Ticket.class);
         query.setParameter("movements", movements);
@@ -191,6 +250,16 @@ public class RulesDao {
         return query.getResultList();
     }
 
+    // Used by timer to find assets whose reporting deadline has passed, filtered in the database and paged by asset guid
+    public List<PreviousReport> getOverduePreviousReports(Instant now, long threshold, String afterAssetGuid, int maxResults) {
+        TypedQuery<PreviousReport> query = em.createNamedQuery(PreviousReport.FIND_OVERDUE_PREVIOUS_REPORTS, PreviousReport.class);
+        query.setParameter("overdueBefore", now.minusMillis(threshold));
+        query.setParameter("threshold", threshold);
+        query.setParameter("afterAssetGuid", afterAssetGuid);
+        query.setMaxResults(maxResults);
+        return query.getResultList();
+    }
+
     // Used by timer to prevent duplicate tickets for passing the reporting
     // deadline
     public Ticket getTicketByAssetAndRule(String assetGuid, String ruleGuid) {
@@ -215,6 +284,35 @@ public class RulesDao {
         }
     }
 
+    public List<PreviousReport> getPreviousReportsByAssetGuids(Collection<String> assetGuids) {
+        if (assetGuids.isEmpty()) {
+            return new ArrayList<>();
+        }
+        TypedQuery<PreviousReport> query = em.createNamedQuery(PreviousReport.FIND_PREVIOUS_REPORTS_BY_ASSET_GUIDS, PreviousReport.class);
+        query.setParameter("assetGuids", assetGuids);
+        return query.getResultList();
+    }
+
+    /**
+     * Reads the reports of the assets for update. The rows are locked in asset guid order, so nodes writing the same
+     * assets wait for each other instead of deadlocking.
+     */
+    public List<PreviousReport> lockPreviousReportsByAssetGuids(Collection<String> assetGuids) {
+        if (assetGuids.isEmpty()) {
+            return new ArrayList<>();
+        }
+        TypedQuery<PreviousReport> query = em.createNamedQuery(PreviousReport.LOCK_PREVIOUS_REPORTS_BY_ASSET_GUIDS, PreviousReport.class);
+        query.setParameter("assetGuids", assetGuids);
+        query.setLockMode(LockModeType.PESSIMISTIC_WRITE);
+        return query.getResultList();
+    }
+
+    public List<PreviousReport> getPreviousReportsUpdatedSince(Instant since) {
+        TypedQuery<PreviousReport> query = em.createNamedQuery(PreviousReport.FIND_PREVIOUS_REPORTS_UPDATED_SINCE, PreviousReport.class);
+        query.setParameter("since", since);
+        return query.getResultList();
+    }
+
     public PreviousReport updatePreviousReport(PreviousReport report) {
         return em.merge(report);
     }
@@ -237,4 +335,94 @@ public class RulesDao {
         query.setParameter("to", to);
         return query.getResultList();
     }
+
+    public ActionOutbox createActionOutboxEntry(ActionOutbox entry) {
+        em.persist(entry);
+        return entry;
+    }
+
+    /**
+     * Reads an outbox entry and locks it until the end of the transaction, so an action is never executed by two
+     * workers at the same time.
+     */
+    public ActionOutbox lockActionOutboxEntry(UUID id) {
+        return em.find(ActionOutbox.class, id, LockModeType.PESSIMISTIC_WRITE);
+    }
+
+    public List<ActionOutbox> getDueActionOutboxEntries(Instant now, int maxResults) {
+        TypedQuery<ActionOutbox> query = em.createNamedQuery(ActionOutbox.FIND_DUE_ACTIONS, ActionOutbox.class);
+        query.setParameter("now", now);
+        query.setMaxResults(maxResults);
+        return query.getResultList();
+    }
+
+    public void removeActionOutboxEntry(ActionOutbox entry) {
+        em.remove(entry);
+    }
+
+    public long countPendingActions() {
+        return em.createNamedQuery(ActionOutbox.COUNT_PENDING_ACTIONS, Long.class).getSingleResult();
+    }
+
+    public long countFailedActions() {
+        return em.createNamedQuery(ActionOutbox.COUNT_FAILED_ACTIONS, Long.class).getSingleResult();
+    }
+
+    /**
+     * Takes or renews a lease for the given holder. The update only matches when the lease is free, expired or
+     * already held by the holder, so at most one holder succeeds. Expiry is on the clock of the database.
+     */
+    public boolean acquireLease(String name, String holder, Duration duration) {
+        Query query = em.createNamedQuery(LeaderLease.ACQUIRE_LEASE);
+        query.setParameter("name", name);
+        query.setParameter("holder", holder);
+        query.setParameter("durationSeconds", duration.getSeconds());
+        return query.executeUpdate() == 1;
+    }
+
+    public void releaseLease(String name, String holder) {
+        Query query = em.createNamedQuery(LeaderLease.RELEASE_LEASE);
+        query.setParameter("name", name);
+        query.setParameter("holder", holder);
+        query.executeUpdate();
+    }
+
+    public LeaderLease getLease(String name) {
+        LeaderLease lease = em.find(LeaderLease.class, name);
+        if (lease != null) {
+            // The lease is written by bulk updates, which bypass the persistence context
+            em.refresh(lease);
+        }
+        return lease;
+    }
+
+    public void heartbeat(String nodeName, Instant now) {
+        ClusterNode node = em.find(ClusterNode.class, nodeName);
+        if (node == null) {
+            node = new ClusterNode();
+            node.setName(nodeName);
+            node.setStarted(now);
+            em.persist(node);
+        }
+        node.setHeartbeat(now);
+    }
+
+    public List<String> getLiveNodes(Instant since) {
+        TypedQuery<String> query = em.createNamedQuery(ClusterNode.FIND_LIVE_NODES, String.class);
+        query.setParameter("since", since);
+        return query.getResultList();
+    }
+
+    public int deleteStaleNodes(Instant before) {
+        Query query = em.createNamedQuery(ClusterNode.DELETE_STALE_NODES);
+        query.setParameter("before", before);
+        return query.executeUpdate();
+    }
+
+    public void deleteNode(String nodeName) {
+        ClusterNode node = em.find(ClusterNode.class, nodeName);
+        if (node != null) {
+            em.remove(node);
+        }
+    }
 }
\ No newline at end of file
@@ -11,6 +11,7 @@ copy of the GNU General Public License along with the IFDM Suite. If not, see <h
  */
 package eu.europa.ec.fisheries.uvms.movementrules.service.dto;
 
+import eu.europa.ec.fisheries.uvms.movementrules.service.business.RuleMetadata;
 import eu.europa.ec.fisheries.uvms.movementrules.service.entity.CustomRule;
 import eu.europa.ec.fisheries.uvms.movementrules.service.entity.Ticket;
 
@@ -18,16 +19,23 @@ public class EventTicket {
 
     private Ticket ticket;
     private CustomRule customRule;
+    private RuleMetadata ruleMetadata;
     private String pollId;
     
     public EventTicket(Ticket ticket, CustomRule customRule) {
         this.ticket = ticket;
         this.customRule = customRule;
         if (customRule != null) {
-            customRule.getRuleSubscriptionList().size();
+            // Read the subscriptions while the rule is still attached, observers run after the transaction
+            this.ruleMetadata = RuleMetadata.of(customRule);
         }
     }
 
+    public EventTicket(Ticket ticket, RuleMetadata ruleMetadata) {
+        this.ticket = ticket;
+        this.ruleMetadata = ruleMetadata;
+    }
+
     public EventTicket(Ticket ticket, CustomRule customRule, String pollId) {
         this(ticket,customRule);
         this.pollId = pollId;
@@ -44,6 +52,11 @@ public class EventTicket {
     }
     public void setCustomRule(CustomRule customRule) {
         this.customRule = customRule;
+        this.ruleMetadata = customRule != null ? RuleMetadata.of(customRule) : null;
+    }
+
+    public RuleMetadata getRuleMetadata() {
+        return ruleMetadata;
     }
 
     public String getPollId() {
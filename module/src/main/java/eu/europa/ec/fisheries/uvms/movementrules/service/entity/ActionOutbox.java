@@ -0,0 +1,188 @@
+/*
+﻿Developed with the contribution of the European Commission - Directorate General for Maritime Affairs and Fisheries
+© European Union, 2015-2016.
+
+This file is part of the Integrated Fisheries Data Management (IFDM) Suite. The IFDM Suite is free software: you can
+redistribute it and/or modify it under the terms of the GNU General Public License as published by the
+Free Software Foundation, either version 3 of the License, or any later version. The IFDM Suite is distributed in
+the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details. You should have received a
+copy of the GNU General Public License along with the IFDM Suite. If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.europa.ec.fisheries.uvms.movementrules.service.entity;
+
+import javax.persistence.*;
+import javax.validation.constraints.NotNull;
+import java.io.Serializable;
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * A rule action waiting to be executed. Entries are written in the transaction that triggered the rule and removed
+ * once the action has been executed. An entry without a next attempt has been given up.
+ */
+//@formatter:off
+@Entity
+@Table(name = "actionoutbox")
+@NamedQueries({
+        @NamedQuery(name = ActionOutbox.FIND_DUE_ACTIONS, query = "SELECT a FROM ActionOutbox a WHERE a.nextAttempt <= :now ORDER BY a.nextAttempt"),
+        @NamedQuery(name = ActionOutbox.COUNT_PENDING_ACTIONS, query = "SELECT count(a) FROM ActionOutbox a WHERE a.nextAttempt IS NOT NULL"),
+        @NamedQuery(name = ActionOutbox.COUNT_FAILED_ACTIONS, query = "SELECT count(a) FROM ActionOutbox a WHERE a.nextAttempt IS NULL")
+})
+//@formatter:on
+public class ActionOutbox implements Serializable {
+
+    public static final String FIND_DUE_ACTIONS = "ActionOutbox.findDue";
+    public static final String COUNT_PENDING_ACTIONS = "ActionOutbox.countPending";
+    public static final String COUNT_FAILED_ACTIONS = "ActionOutbox.countFailed";
+
+    private static final long serialVersionUID = 1L;
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.AUTO)
+    @Column(name = "outbox_id")
+    private UUID id;
+
+    @Column(name = "outbox_action")
+    @NotNull
+    private String action;      //expects values from ActionType
+
+    @Column(name = "outbox_target")
+    private String target;
+
+    @Column(name = "outbox_value")
+    private String value;
+
+    @Column(name = "outbox_subscriber")
+    private String subscriber;  //owner of the subscription when the action is a subscription email
+
+    @Column(name = "outbox_ruleguid")
+    private String ruleGuid;
+
+    @Column(name = "outbox_rulename")
+    private String ruleName;
+
+    @Column(name = "outbox_movement")
+    @NotNull
+    private String movement;    //MovementDetails as JSON
+
+    @Column(name = "outbox_created")
+    @NotNull
+    private Instant created;
+
+    @Column(name = "outbox_nextattempt")
+    private Instant nextAttempt;
+
+    @Column(name = "outbox_attempts")
+    private int attempts;
+
+    @Column(name = "outbox_lasterror")
+    private String lastError;
+
+    public UUID getId() {
+        return id;
+    }
+
+    public void setId(UUID id) {
+        this.id = id;
+    }
+
+    public String getAction() {
+        return action;
+    }
+
+    public void setAction(String action) {
+        this.action = action;
+    }
+
+    public String getTarget() {
+        return target;
+    }
+
+    public void setTarget(String target) {
+        this.target = target;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    public void setValue(String value) {
+        this.value = value;
+    }
+
+    public String getSubscriber() {
+        return subscriber;
+    }
+
+    public void setSubscriber(String subscriber) {
+        this.subscriber = subscriber;
+    }
+
+    public String getRuleGuid() {
+        return ruleGuid;
+    }
+
+    public void setRuleGuid(String ruleGuid) {
+        this.ruleGuid = ruleGuid;
+    }
+
+    public String getRuleName() {
+        return ruleName;
+    }
+
+    public void setRuleName(String ruleName) {
+        this.ruleName = ruleName;
+    }
+
+    public String getMovement() {
+        return movement;
+    }
+
+    public void setMovement(String movement) {
+        this.movement = movement;
+    }
+
+    public Instant getCreated() {
+        return created;
+    }
+
+    public void setCreated(Instant created) {
+        this.created = created;
+    }
+
+    public Instant getNextAttempt() {
+        return nextAttempt;
+    }
+
+    public void setNextAttempt(Instant nextAttempt) {
+        this.nextAttempt = nextAttempt;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+
+    public void setLastError(String lastError) {
+        this.lastError = lastError;
+    }
+
+    @Override
+    public String toString() {
+        return "ActionOutbox{" +
+                "id=" + id +
+                ", action='" + action + '\'' +
+                ", ruleGuid='" + ruleGuid + '\'' +
+                ", nextAttempt=" + nextAttempt +
+                ", attempts=" + attempts +
+                '}';
+    }
+}
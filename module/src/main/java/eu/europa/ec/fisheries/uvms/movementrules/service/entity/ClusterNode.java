@@ -0,0 +1,70 @@
+/*
+﻿Developed with the contribution of the European Commission - Directorate General for Maritime Affairs and Fisheries
+© European Union, 2015-2016.
+
+This file is part of the Integrated Fisheries Data Management (IFDM) Suite. The IFDM Suite is free software: you can
+redistribute it and/or modify it under the terms of the GNU General Public License as published by the
+Free Software Foundation, either version 3 of the License, or any later version. The IFDM Suite is distributed in
+the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details. You should have received a
+copy of the GNU General Public License along with the IFDM Suite. If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.europa.ec.fisheries.uvms.movementrules.service.entity;
+
+import javax.persistence.*;
+import java.io.Serializable;
+import java.time.Instant;
+
+/**
+ * A running node of the cluster. Nodes update their heartbeat periodically, a node whose heartbeat is too old is no
+ * longer counted when the asset not sending checks are divided between the nodes.
+ */
+//@formatter:off
+@Entity
+@Table(name = "clusternode")
+@NamedQueries({
+        @NamedQuery(name = ClusterNode.FIND_LIVE_NODES, query = "SELECT n.name FROM ClusterNode n WHERE n.heartbeat >= :since ORDER BY n.name"),
+        @NamedQuery(name = ClusterNode.DELETE_STALE_NODES, query = "DELETE FROM ClusterNode n WHERE n.heartbeat < :before")
+})
+//@formatter:on
+public class ClusterNode implements Serializable {
+
+    public static final String FIND_LIVE_NODES = "ClusterNode.findLive";
+    public static final String DELETE_STALE_NODES = "ClusterNode.deleteStale";
+
+    private static final long serialVersionUID = 1L;
+
+    @Id
+    @Column(name = "node_name")
+    private String name;
+
+    @Column(name = "node_heartbeat")
+    private Instant heartbeat;
+
+    @Column(name = "node_started")
+    private Instant started;
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public Instant getHeartbeat() {
+        return heartbeat;
+    }
+
+    public void setHeartbeat(Instant heartbeat) {
+        this.heartbeat = heartbeat;
+    }
+
+    public Instant getStarted() {
+        return started;
+    }
+
+    public void setStarted(Instant started) {
+        this.started = started;
+    }
+}
@@ -0,0 +1,83 @@
+/*
+﻿Developed with the contribution of the European Commission - Directorate General for Maritime Affairs and Fisheries
+© European Union, 2015-2016.
+
+This file is part of the Integrated Fisheries Data Management (IFDM) Suite. The IFDM Suite is free software: you can
+redistribute it and/or modify it under the terms of the GNU General Public License as published by the
+Free Software Foundation, either version 3 of the License, or any later version. The IFDM Suite is distributed in
+the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details. You should have received a
+copy of the GNU General Public License along with the IFDM Suite. If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.europa.ec.fisheries.uvms.movementrules.service.entity;
+
+import javax.persistence.*;
+import java.io.Serializable;
+import java.time.Instant;
+
+/**
+ * A lease on a cluster wide timer task. The node named as holder may run the task until the lease expires, after
+ * which any node may take it over.
+ */
+//@formatter:off
+@Entity
+@Table(name = "leaderlease")
+@NamedNativeQueries({
+        @NamedNativeQuery(name = LeaderLease.ACQUIRE_LEASE, query = "UPDATE leaderlease SET lease_expires = now() + :durationSeconds * INTERVAL '1 second', " +
+                "lease_acquired = CASE WHEN lease_holder = :holder THEN lease_acquired ELSE now() END, lease_holder = :holder " +
+                "WHERE lease_name = :name AND (lease_holder = :holder OR lease_holder IS NULL OR lease_expires < now())"),
+        @NamedNativeQuery(name = LeaderLease.RELEASE_LEASE, query = "UPDATE leaderlease SET lease_expires = now() WHERE lease_name = :name AND lease_holder = :holder")
+})
+//@formatter:on
+public class LeaderLease implements Serializable {
+
+    public static final String ACQUIRE_LEASE = "LeaderLease.acquire";
+    public static final String RELEASE_LEASE = "LeaderLease.release";
+
+    private static final long serialVersionUID = 1L;
+
+    @Id
+    @Column(name = "lease_name")
+    private String name;
+
+    @Column(name = "lease_holder")
+    private String holder;
+
+    @Column(name = "lease_expires")
+    private Instant expires;
+
+    @Column(name = "lease_acquired")
+    private Instant acquired;
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getHolder() {
+        return holder;
+    }
+
+    public void setHolder(String holder) {
+        this.holder = holder;
+    }
+
+    public Instant getExpires() {
+        return expires;
+    }
+
+    public void setExpires(Instant expires) {
+        this.expires = expires;
+    }
+
+    public Instant getAcquired() {
+        return acquired;
+    }
+
+    public void setAcquired(Instant acquired) {
+        this.acquired = acquired;
+    }
+}
@@ -24,13 +24,27 @@ import java.util.UUID;
 @XmlRootElement
 @NamedQueries({
         @NamedQuery(name = PreviousReport.GET_ALL_PREVIOUS_REPORTS, query = "SELECT pr FROM PreviousReport pr"),
-        @NamedQuery(name = PreviousReport.FIND_PREVIOUS_REPORT_BY_ASSET_GUID, query = "SELECT pr FROM PreviousReport pr WHERE pr.assetGuid = :assetGuid")
+        @NamedQuery(name = PreviousReport.FIND_PREVIOUS_REPORT_BY_ASSET_GUID, query = "SELECT pr FROM PreviousReport pr WHERE pr.assetGuid = :assetGuid"),
+        @NamedQuery(name = PreviousReport.FIND_PREVIOUS_REPORTS_BY_ASSET_GUIDS, query = "SELECT pr FROM PreviousReport pr WHERE pr.assetGuid IN :assetGuids"),
+        @NamedQuery(name = PreviousReport.LOCK_PREVIOUS_REPORTS_BY_ASSET_GUIDS, query = "SELECT pr FROM PreviousReport pr WHERE pr.assetGuid IN :assetGuids ORDER BY pr.assetGuid"),
+        @NamedQuery(name = PreviousReport.FIND_PREVIOUS_REPORTS_UPDATED_SINCE, query = "SELECT pr FROM PreviousReport pr WHERE pr.updated >= :since")
+})
+@NamedNativeQueries({
+        @NamedNativeQuery(name = PreviousReport.FIND_OVERDUE_PREVIOUS_REPORTS, resultClass = PreviousReport.class,
+                query = "SELECT * FROM previousreport pr WHERE pr.prevrep_assetguid > :afterAssetGuid " +
+                        "AND pr.prevrep_positiontime <= :overdueBefore " +
+                        "AND (pr.prevrep_updattim <= pr.prevrep_positiontime + :threshold * INTERVAL '1 millisecond' OR pr.prevrep_updattim <= :overdueBefore) " +
+                        "ORDER BY pr.prevrep_assetguid")
 })
 //@formatter:on
 public class PreviousReport implements Serializable {
 
     public static final String GET_ALL_PREVIOUS_REPORTS = "PreviousReport.findAll";
     public static final String FIND_PREVIOUS_REPORT_BY_ASSET_GUID = "PreviousReport.findByAssetGuid";
+    public static final String FIND_PREVIOUS_REPORTS_BY_ASSET_GUIDS = "PreviousReport.findByAssetGuids";
+    public static final String FIND_OVERDUE_PREVIOUS_REPORTS = "PreviousReport.findOverdue";
+    public static final String LOCK_PREVIOUS_REPORTS_BY_ASSET_GUIDS = "PreviousReport.lockByAssetGuids";
+    public static final String FIND_PREVIOUS_REPORTS_UPDATED_SINCE = "PreviousReport.findUpdatedSince";
     
     private static final long serialVersionUID = 1L;
 
@@ -32,7 +32,8 @@ import java.util.UUID;
         @NamedQuery(name = Ticket.COUNT_TICKETS_BY_MOVEMENTS, query = "SELECT count(t) FROM Ticket t where t.movementGuid IN :movements"),
         @NamedQuery(name = Ticket.COUNT_TICKETS_FOR_RULE, query = "SELECT count(t) FROM Ticket t where t.ruleGuid = :ruleGuid"),
         @NamedQuery(name = Ticket.FIND_LATEST_TICKET_FOR_RULE, query = "SELECT t FROM Ticket t WHERE t.ruleGuid = :ruleGuid ORDER BY t.createdDate DESC"),
-        @NamedQuery(name = Ticket.FIND_ALL_ASSET_NOT_SENDING_TICKETS_BETWEEN, query = "SELECT t FROM Ticket t WHERE t.ruleGuid = '" + ServiceConstants.ASSET_NOT_SENDING_RULE + "' AND t.updated BETWEEN :from AND :to ORDER BY t.updated DESC")
+        @NamedQuery(name = Ticket.FIND_ALL_ASSET_NOT_SENDING_TICKETS_BETWEEN, query = "SELECT t FROM Ticket t WHERE t.ruleGuid = '" + ServiceConstants.ASSET_NOT_SENDING_RULE + "' AND t.updated BETWEEN :from AND :to ORDER BY t.updated DESC"),
+        @NamedQuery(name = Ticket.ADD_TO_TICKET_COUNT, query = "UPDATE Ticket t SET t.ticketCount = COALESCE(t.ticketCount, 0) + :invocations, t.updated = :updated WHERE t.guid = :guid")
 })
 public class Ticket implements Serializable {
 
@@ -45,6 +46,7 @@ public class Ticket implements Serializable {
     public static final String COUNT_TICKETS_FOR_RULE = "Ticket.countAssetsNotSending";
     public static final String FIND_LATEST_TICKET_FOR_RULE = "Ticket.findLastTicketForRule";
     public static final String FIND_ALL_ASSET_NOT_SENDING_TICKETS_BETWEEN = "Ticket.findAllAssetNotSendingTicketsBetween";
+    public static final String ADD_TO_TICKET_COUNT = "Ticket.addToTicketCount";
     
     @Id
     @GeneratedValue(strategy = GenerationType.AUTO)
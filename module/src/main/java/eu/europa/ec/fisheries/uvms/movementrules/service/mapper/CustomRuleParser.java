@@ -366,24 +366,7 @@ public class CustomRuleParser {
 
             rulesDto.setExpression(sb.toString());
 
-            // Format: "ACTION,TARGET,VALUE;ACTION,TARGET,VALUE;ACTION,TARGET,VALUE;"
-            List<RuleAction> actions = rawRule.getRuleActionList();
-            
-            sb = new StringBuilder();
-            if (actions.isEmpty()) {
-                sb.append(";");
-            } else {
-                for (RuleAction action : actions) {
-                    sb.append(action.getAction());
-                    sb.append(",");
-                    sb.append(action.getTarget() != null ? action.getTarget() : "");
-                    sb.append(",");
-                    sb.append(action.getValue());
-                    sb.append(";");
-                }
-            }
-
-            rulesDto.setAction(sb.toString());
+            rulesDto.setAction(parseActions(rawRule.getRuleActionList()));
 
             rules.add(rulesDto);
         }
@@ -391,6 +374,24 @@ public class CustomRuleParser {
         return rules;
     }
 
+    // Format: "ACTION,TARGET,VALUE;ACTION,TARGET,VALUE;ACTION,TARGET,VALUE;"
+    public static String parseActions(List<RuleAction> actions) {
+        StringBuilder sb = new StringBuilder();
+        if (actions.isEmpty()) {
+            sb.append(";");
+        } else {
+            for (RuleAction action : actions) {
+                sb.append(action.getAction());
+                sb.append(",");
+                sb.append(action.getTarget() != null ? action.getTarget() : "");
+                sb.append(",");
+                sb.append(action.getValue());
+                sb.append(";");
+            }
+        }
+        return sb.toString();
+    }
+
     private static boolean isListCriteria(String subcriteria) {
         return SubCriteriaType.AREA_CODE.value().equals(subcriteria) ||             //this does not contain VICINITY_DISTANCE_OF since that needs < > = !
                 SubCriteriaType.AREA_TYPE.value().equals(subcriteria) ||
@@ -32,7 +32,13 @@ import javax.jms.JMSException;
 import javax.jms.Message;
 import javax.jms.MessageListener;
 import javax.jms.TextMessage;
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonReader;
 import javax.json.bind.Jsonb;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
 
 @MessageDriven(activationConfig = {
@@ -82,6 +88,9 @@ public class RulesEventMessageConsumerBean implements MessageListener {
                 case EVALUATE_RULES:
                     rulesEvaluator.evaluate(jsonb.fromJson(textMessage.getText(), MovementDetails.class));
                     break;
+                case EVALUATE_RULES_BATCH:
+                    rulesEvaluator.evaluateBatch(readMovementDetailsBatch(textMessage.getText()));
+                    break;
                 default:
                     LOG.error("[ Request method '{}' is not implemented ]", method.name());
                      throw new UnsupportedOperationException("Method not implemented: " + method.name() + " Inbound message: " + textMessage.getText());
@@ -97,6 +106,33 @@ public class RulesEventMessageConsumerBean implements MessageListener {
         }
     }
 
+    /**
+     * Reads a JSON array of movements. Entries that can not be read or lack the fields needed for evaluation are
+     * logged and left out, so they do not fail the rest of the batch.
+     */
+    private List<MovementDetails> readMovementDetailsBatch(String text) {
+        JsonArray entries;
+        try (JsonReader reader = Json.createReader(new StringReader(text))) {
+            entries = reader.readArray();
+        }
+        List<MovementDetails> movements = new ArrayList<>(entries.size());
+        for (int i = 0; i < entries.size(); i++) {
+            try {
+                MovementDetails movementDetails = jsonb.fromJson(entries.get(i).toString(), MovementDetails.class);
+                if (movementDetails == null || movementDetails.getSource() == null || movementDetails.getFlagState() == null
+                        || movementDetails.getPositionTime() == null || movementDetails.getLatitude() == null || movementDetails.getLongitude() == null) {
+                    LOG.error("[ Skipping entry {} in batch, missing source, flag state, position time or position: {} ]", i, entries.get(i));
+                    continue;
+                }
+                movements.add(movementDetails);
+            } catch (Exception e) {
+                LOG.error("[ Skipping malformed entry {} in batch: {} ]", i, e.getMessage());
+            }
+        }
+        LOG.debug("Evaluating batch of {} movements, {} skipped", movements.size(), entries.size() - movements.size());
+        return movements;
+    }
+
     private int getTimesRedelivered(Message message) {
         try {
             return (message.getIntProperty("JMSXDeliveryCount") - 1);
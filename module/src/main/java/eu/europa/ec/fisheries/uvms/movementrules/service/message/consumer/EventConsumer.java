@@ -24,6 +24,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import eu.europa.ec.fisheries.uvms.asset.remote.dto.AssetDto;
 import eu.europa.ec.fisheries.uvms.commons.date.JsonBConfigurator;
+import eu.europa.ec.fisheries.uvms.movementrules.service.business.PreviousReportCache;
 import eu.europa.ec.fisheries.uvms.movementrules.service.dao.RulesDao;
 import eu.europa.ec.fisheries.uvms.movementrules.service.entity.PreviousReport;
 
@@ -42,6 +43,9 @@ public class EventConsumer implements MessageListener {
     @Inject
     private RulesDao rulesDao;
 
+    @Inject
+    private PreviousReportCache previousReportCache;
+
     private Jsonb jsonb;
 
     @PostConstruct
@@ -55,6 +59,7 @@ public class EventConsumer implements MessageListener {
             TextMessage textMessage = (TextMessage) message;
             AssetDto asset = jsonb.fromJson(textMessage.getText(), AssetDto.class);
             if (Boolean.FALSE.equals(asset.getActive())) {
+                previousReportCache.invalidate(asset.getId().toString());
                 PreviousReport previousReport = rulesDao.getPreviousReportByAssetGuid(asset.getId().toString());
                 if (previousReport != null) {
                     LOG.info("Deleting previous report for asset {}", asset.getId());
@@ -1,10 +1,9 @@
 package eu.europa.ec.fisheries.uvms.movementrules.service.message.producer.bean;
 
-import eu.europa.ec.fisheries.schema.movementrules.customrule.v1.AvailabilityType;
-import eu.europa.ec.fisheries.schema.movementrules.customrule.v1.SubscriptionTypeType;
 import eu.europa.ec.fisheries.uvms.commons.date.JsonBConfigurator;
 import eu.europa.ec.fisheries.uvms.commons.message.api.MessageConstants;
 import eu.europa.ec.fisheries.uvms.commons.message.context.MappedDiagnosticContext;
+import eu.europa.ec.fisheries.uvms.movementrules.service.business.RuleMetadata;
 import eu.europa.ec.fisheries.uvms.movementrules.service.dto.EventTicket;
 import eu.europa.ec.fisheries.uvms.movementrules.service.event.TicketEvent;
 import eu.europa.ec.fisheries.uvms.movementrules.service.event.TicketUpdateEvent;
@@ -23,8 +22,6 @@ import javax.jms.JMSConnectionFactory;
 import javax.jms.JMSContext;
 import javax.jms.TextMessage;
 import javax.json.bind.Jsonb;
-import java.util.ArrayList;
-import java.util.List;
 
 @Stateless
 public class EventStreamSender {
@@ -55,19 +52,16 @@ public class EventStreamSender {
     }
     
     private void sendEvent(EventTicket eventTicket, String eventName) {
-        if (eventTicket.getCustomRule() == null) {
+        RuleMetadata rule = eventTicket.getRuleMetadata();
+        if (rule == null) {
             LOG.error("Rule in eventTicket {} is null", eventTicket.getTicket().getRuleName());
             return;
         }
         try {
             String outgoingJson = jsonb.toJson(TicketMapper.toTicketType(eventTicket.getTicket()));
-            List<String> subscriberList = new ArrayList<>();
             String subscriberJson = null;
-            if(!eventTicket.getCustomRule().getAvailability().equals(AvailabilityType.GLOBAL.value())) {
-                eventTicket.getCustomRule().getRuleSubscriptionList().stream()
-                        .filter(sub -> SubscriptionTypeType.TICKET.value().equals(sub.getType()))
-                        .forEach(sub -> subscriberList.add(sub.getOwner()));
-                subscriberJson = jsonb.toJson(subscriberList);
+            if(!rule.isGlobal()) {
+                subscriberJson = jsonb.toJson(rule.getTicketSubscribers());
             }
 
 
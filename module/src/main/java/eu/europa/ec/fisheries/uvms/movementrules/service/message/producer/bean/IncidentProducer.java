@@ -21,6 +21,7 @@ import javax.inject.Inject;
 import javax.jms.*;
 import javax.json.bind.Jsonb;
 import java.time.Instant;
+import java.util.List;
 
 @Stateless
 public class IncidentProducer {
@@ -48,6 +49,15 @@ public class IncidentProducer {
         send(dto, "IncidentUpdate");
     }
 
+    public void updatedTickets(List<EventTicket> eventTickets) {
+        JMSProducer producer = context.createProducer().setDeliveryMode(DeliveryMode.PERSISTENT);
+        for (EventTicket eventTicket : eventTickets) {
+            IncidentType incidentType = determineIncidentType(eventTicket);
+            IncidentTicketDto dto = mapToIncidentTicket(eventTicket, incidentType);
+            send(producer, dto, "IncidentUpdate");
+        }
+    }
+
     public void sendPositionToIncident(MovementDetails movementDetails) {
         IncidentTicketDto dto = mapToIncidentTicket(movementDetails);
         send(dto, "IncidentUpdate");
@@ -60,12 +70,15 @@ public class IncidentProducer {
     }
 
     public void send(IncidentTicketDto ticket, String eventName) {
+        send(context.createProducer().setDeliveryMode(DeliveryMode.PERSISTENT), ticket, eventName);
+    }
+
+    private void send(JMSProducer producer, IncidentTicketDto ticket, String eventName) {
         try {
             String json = jsonb.toJson(ticket);
             TextMessage message = context.createTextMessage(json);
             message.setStringProperty("eventName", eventName);
-            JMSProducer producer = context.createProducer();
-            producer.setDeliveryMode(DeliveryMode.PERSISTENT).send(queue, message);
+            producer.send(queue, message);
         } catch (Exception e) {
             LOG.error("Error while sending AssetNotSending event. {}", e.toString());
         }
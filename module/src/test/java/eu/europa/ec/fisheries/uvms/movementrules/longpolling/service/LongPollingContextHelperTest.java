@@ -0,0 +1,98 @@
+/*
+﻿Developed with the contribution of the European Commission - Directorate General for Maritime Affairs and Fisheries
+© European Union, 2015-2016.
+
+This file is part of the Integrated Fisheries Data Management (IFDM) Suite. The IFDM Suite is free software: you can
+redistribute it and/or modify it under the terms of the GNU General Public License as published by the
+Free Software Foundation, either version 3 of the License, or any later version. The IFDM Suite is distributed in
+the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details. You should have received a
+copy of the GNU General Public License along with the IFDM Suite. If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.europa.ec.fisheries.uvms.movementrules.longpolling.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.servlet.AsyncContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class LongPollingContextHelperTest {
+
+    private static final String PATH = "/activity/ticket";
+
+    LongPollingContextHelper asyncContexts;
+
+    ExecutorService executorService;
+
+    @Before
+    public void setup() {
+        asyncContexts = new LongPollingContextHelper();
+        executorService = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void tearDown() {
+        executorService.shutdownNow();
+    }
+
+    @Test
+    public void timeoutRacingPopTakesRequestOnceTest() throws Exception {
+        for (int i = 0; i < 1000; i++) {
+            AsyncContext ctx = Mockito.mock(AsyncContext.class);
+            asyncContexts.add(ctx, PATH);
+            CyclicBarrier barrier = new CyclicBarrier(2);
+            Future<Boolean> popped = executorService.submit(() -> {
+                barrier.await();
+                return asyncContexts.popContext(PATH) != null;
+            });
+            Future<Boolean> removed = executorService.submit(() -> {
+                barrier.await();
+                return asyncContexts.remove(ctx);
+            });
+
+            assertTrue(popped.get() ^ removed.get());
+            assertNull(asyncContexts.popContext(PATH));
+            assertFalse(asyncContexts.remove(ctx));
+        }
+    }
+
+    @Test
+    public void removedRequestIsNotPoppedTest() {
+        AsyncContext first = Mockito.mock(AsyncContext.class);
+        AsyncContext second = Mockito.mock(AsyncContext.class);
+        asyncContexts.add(first, PATH);
+        asyncContexts.add(second, PATH);
+
+        assertTrue(asyncContexts.remove(first));
+
+        assertSame(second, asyncContexts.popContext(PATH));
+        assertNull(asyncContexts.popContext(PATH));
+    }
+
+    @Test
+    public void addPrunesRemovedRequestsTest() {
+        AsyncContext first = Mockito.mock(AsyncContext.class);
+        AsyncContext second = Mockito.mock(AsyncContext.class);
+        asyncContexts.add(first, PATH);
+        asyncContexts.add(second, PATH);
+        asyncContexts.remove(first);
+        asyncContexts.remove(second);
+        assertEquals(2, asyncContexts.getSize(PATH));
+
+        AsyncContext third = Mockito.mock(AsyncContext.class);
+        asyncContexts.add(third, PATH);
+
+        assertEquals(1, asyncContexts.getSize(PATH));
+        assertSame(third, asyncContexts.popContext(PATH));
+    }
+}
@@ -12,9 +12,17 @@ copy of the GNU General Public License along with the IFDM Suite. If not, see <h
 package eu.europa.ec.fisheries.uvms.movementrules.longpolling.service;
 
 import static org.junit.Assert.assertEquals;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import javax.servlet.AsyncContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.Mockito;
+import eu.europa.ec.fisheries.uvms.movementrules.longpolling.constants.LongPollingConstants;
 import eu.europa.ec.fisheries.uvms.movementrules.longpolling.service.LongPollingHttpServlet;
+import eu.europa.ec.fisheries.uvms.movementrules.service.bean.ValidationServiceBean;
 
 public class TestLongPollingHttpServlet {
 
@@ -61,4 +69,47 @@ public class TestLongPollingHttpServlet {
         assertEquals("{\"updated\":false}", jsonMessage);
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testCountWithOpenTickets() {
+        String jsonMessage = longPolling.createJsonMessageCount(true, 42);
+        assertEquals("{\"updated\":true,\"count\":42}", jsonMessage);
+    }
+
+    @Test
+    public void testTicketCountIsCountedOncePerUser() throws Exception {
+        longPolling.asyncContexts = new LongPollingContextHelper();
+        longPolling.validationService = Mockito.mock(ValidationServiceBean.class);
+        Mockito.when(longPolling.validationService.getNumberOfOpenTickets("alice")).thenReturn(3L);
+        Mockito.when(longPolling.validationService.getNumberOfOpenTickets("bob")).thenReturn(5L);
+        StringWriter alice1 = addTicketCountPoll("alice");
+        StringWriter alice2 = addTicketCountPoll("alice");
+        StringWriter bob = addTicketCountPoll("bob");
+
+        longPolling.notifyTicketCount();
+
+        Mockito.verify(longPolling.validationService, Mockito.times(1)).getNumberOfOpenTickets("alice");
+        Mockito.verify(longPolling.validationService, Mockito.times(1)).getNumberOfOpenTickets("bob");
+        assertEquals("{\"updated\":true,\"count\":3}", alice1.toString());
+        assertEquals("{\"updated\":true,\"count\":3}", alice2.toString());
+        assertEquals("{\"updated\":true,\"count\":5}", bob.toString());
+    }
+
+    private StringWriter addTicketCountPoll(String user) throws Exception {
+        HttpServletRequest request = Mockito.mock(HttpServletRequest.class);
+        Mockito.when(request.getRemoteUser()).thenReturn(user);
+        StringWriter body = new StringWriter();
+        HttpServletResponse response = Mockito.mock(HttpServletResponse.class);
+        Mockito.when(response.getWriter()).thenReturn(new PrintWriter(body, true));
+        AsyncContext ctx = Mockito.mock(AsyncContext.class);
+        Mockito.when(ctx.getRequest()).thenReturn(request);
+        Mockito.when(ctx.getResponse()).thenReturn(response);
+        // Completed on the calling thread instead of a container thread
+        Mockito.doAnswer(invocation -> {
+            ((Runnable) invocation.getArgument(0)).run();
+            return null;
+        }).when(ctx).start(Mockito.any(Runnable.class));
+        longPolling.asyncContexts.add(ctx, LongPollingConstants.TICKET_COUNT_PATH);
+        return body;
+    }
+
+}
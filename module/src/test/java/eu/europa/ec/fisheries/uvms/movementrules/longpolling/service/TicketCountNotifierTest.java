@@ -0,0 +1,69 @@
+/*
+﻿Developed with the contribution of the European Commission - Directorate General for Maritime Affairs and Fisheries
+© European Union, 2015-2016.
+
+This file is part of the Integrated Fisheries Data Management (IFDM) Suite. The IFDM Suite is free software: you can
+redistribute it and/or modify it under the terms of the GNU General Public License as published by the
+Free Software Foundation, either version 3 of the License, or any later version. The IFDM Suite is distributed in
+the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details. You should have received a
+copy of the GNU General Public License along with the IFDM Suite. If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.europa.ec.fisheries.uvms.movementrules.longpolling.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TicketCountNotifierTest {
+
+    TicketCountNotifier ticketCountNotifier;
+
+    @Before
+    public void setup() {
+        ticketCountNotifier = new TicketCountNotifier();
+        ticketCountNotifier.init();
+    }
+
+    @After
+    public void tearDown() {
+        ticketCountNotifier.destroy();
+    }
+
+    @Test
+    public void changesWithinWindowAreNotifiedOnceTest() throws Exception {
+        AtomicInteger notified = new AtomicInteger();
+        CountDownLatch latch = new CountDownLatch(1);
+        Runnable notification = () -> {
+            notified.incrementAndGet();
+            latch.countDown();
+        };
+
+        for (int i = 0; i < 10; i++) {
+            ticketCountNotifier.countChanged(notification);
+        }
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(1, notified.get());
+        assertEquals(10, ticketCountNotifier.getChanges());
+        assertEquals(1, ticketCountNotifier.getNotifications());
+    }
+
+    @Test
+    public void changeAfterWindowIsNotifiedAgainTest() throws Exception {
+        CountDownLatch first = new CountDownLatch(1);
+        ticketCountNotifier.countChanged(first::countDown);
+        assertTrue(first.await(5, TimeUnit.SECONDS));
+
+        CountDownLatch second = new CountDownLatch(1);
+        ticketCountNotifier.countChanged(second::countDown);
+        assertTrue(second.await(5, TimeUnit.SECONDS));
+
+        assertEquals(2, ticketCountNotifier.getNotifications());
+    }
+}
@@ -0,0 +1,75 @@
+/*
+﻿Developed with the contribution of the European Commission - Directorate General for Maritime Affairs and Fisheries
+© European Union, 2015-2016.
+
+This file is part of the Integrated Fisheries Data Management (IFDM) Suite. The IFDM Suite is free software: you can
+redistribute it and/or modify it under the terms of the GNU General Public License as published by the
+Free Software Foundation, either version 3 of the License, or any later version. The IFDM Suite is distributed in
+the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details. You should have received a
+copy of the GNU General Public License along with the IFDM Suite. If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.europa.ec.fisheries.uvms.movementrules.rest.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import org.junit.Test;
+import eu.europa.ec.fisheries.schema.movementrules.customrule.v1.AvailabilityType;
+import eu.europa.ec.fisheries.schema.movementrules.customrule.v1.SubscriptionTypeType;
+import eu.europa.ec.fisheries.uvms.movementrules.rest.service.TicketEventBuffer.BufferedEvent;
+import eu.europa.ec.fisheries.uvms.movementrules.service.business.RuleMetadata;
+import eu.europa.ec.fisheries.uvms.movementrules.service.entity.CustomRule;
+import eu.europa.ec.fisheries.uvms.movementrules.service.entity.RuleSubscription;
+
+public class TicketEventBufferTest {
+
+    @Test
+    public void onlyMissedEventsForTheUserAreReplayedTest() {
+        TicketEventBuffer buffer = new TicketEventBuffer(10, 100);
+        RuleMetadata global = rule(AvailabilityType.GLOBAL, null);
+        RuleMetadata privateRule = rule(AvailabilityType.PRIVATE, "other");
+        buffer.append("Ticket", "1", global);
+        buffer.append("Ticket", "2", privateRule);
+        buffer.append("TicketUpdate", "3", global);
+
+        List<BufferedEvent> missed = buffer.after(100, "user");
+
+        assertEquals(1, missed.size());
+        assertEquals(102, missed.get(0).getId());
+        assertEquals("TicketUpdate", missed.get(0).getEventName());
+        assertEquals(2, buffer.after(100, "other").size());
+        assertEquals(0, buffer.after(102, "user").size());
+    }
+
+    @Test
+    public void overwrittenOrUnknownIdsCannotBeReplayedTest() {
+        TicketEventBuffer buffer = new TicketEventBuffer(2, 100);
+        RuleMetadata global = rule(AvailabilityType.GLOBAL, null);
+        buffer.append("Ticket", "1", global);
+        buffer.append("Ticket", "2", global);
+        buffer.append("Ticket", "3", global);
+
+        assertNull(buffer.after(99, "user"));
+        assertEquals(2, buffer.after(100, "user").size());
+        assertEquals(1, buffer.after(101, "user").size());
+        assertNull(buffer.after(103, "user"));
+    }
+
+    private RuleMetadata rule(AvailabilityType availability, String subscriber) {
+        CustomRule customRule = new CustomRule();
+        customRule.setGuid(UUID.randomUUID());
+        customRule.setAvailability(availability);
+        List<RuleSubscription> subscriptions = new ArrayList<>();
+        if (subscriber != null) {
+            RuleSubscription subscription = new RuleSubscription();
+            subscription.setOwner(subscriber);
+            subscription.setType(SubscriptionTypeType.TICKET);
+            subscriptions.add(subscription);
+        }
+        customRule.setRuleSubscriptionList(subscriptions);
+        return RuleMetadata.of(customRule, null);
+    }
+}
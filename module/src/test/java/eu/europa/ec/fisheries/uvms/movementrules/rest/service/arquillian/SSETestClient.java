@@ -25,6 +25,7 @@ public class SSETestClient extends BuildRulesRestDeployment implements Closeable
 
     private SseEventSource source;
     private TicketType ticket;
+    private String data;
     
     public SSETestClient() throws InterruptedException {
         Client client = ClientBuilder.newClient();
@@ -34,6 +35,7 @@ public class SSETestClient extends BuildRulesRestDeployment implements Closeable
         SseEventSource source = SseEventSource.target(jwtTarget).build();
         source.register(inbound -> {
             try {
+                data = inbound.readData();
                 ticket = inbound.readData(TicketType.class, MediaType.APPLICATION_JSON_TYPE);
             } catch (Exception e) {}
         });
@@ -50,6 +52,13 @@ public class SSETestClient extends BuildRulesRestDeployment implements Closeable
         return returnTicket;
     }
 
+    /**
+     * @return the raw data of the last event received
+     */
+    public String getData() {
+        return data;
+    }
+
     @Override
     public void close() throws IOException {
         if (source != null) {
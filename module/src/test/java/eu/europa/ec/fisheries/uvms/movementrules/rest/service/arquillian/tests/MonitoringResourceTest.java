@@ -0,0 +1,72 @@
+package eu.europa.ec.fisheries.uvms.movementrules.rest.service.arquillian.tests;
+
+import eu.europa.ec.fisheries.uvms.movementrules.rest.service.arquillian.BuildRulesRestDeployment;
+import eu.europa.ec.fisheries.uvms.movementrules.service.business.RulesValidator;
+import org.jboss.arquillian.container.test.api.OperateOnDeployment;
+import org.jboss.arquillian.junit.Arquillian;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import javax.inject.Inject;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(Arquillian.class)
+public class MonitoringResourceTest extends BuildRulesRestDeployment {
+
+    @Inject
+    private RulesValidator rulesValidator;
+
+    @Test
+    @OperateOnDeployment("normal")
+    public void getRuleSetVersionIsIncreasedOnUpdateTest() {
+        long before = getRuleSetVersion();
+        rulesValidator.updateCustomRules();
+        long after = getRuleSetVersion();
+
+        assertTrue(after > before);
+    }
+
+    @Test
+    @OperateOnDeployment("normal")
+    public void getClusterShowsThisNodeTest() {
+        Map cluster = getStatus("cluster");
+
+        assertNotNull(cluster.get("leaseNode"));
+        assertTrue(((Number) cluster.get("shardCount")).intValue() >= 1);
+    }
+
+    @Test
+    @OperateOnDeployment("normal")
+    public void getStatusOfEveryGroupTest() {
+        for (String group : Arrays.asList("ruleset", "previousreports", "spatial", "actions", "contactdetails", "tickets",
+                "assetnotsending", "cluster", "sse")) {
+            assertFalse(group, getStatus(group).isEmpty());
+        }
+    }
+
+    private long getRuleSetVersion() {
+        Map ruleSet = getStatus("ruleset");
+        return ((Number) ruleSet.get("version")).longValue();
+    }
+
+    private Map getStatus(String group) {
+        Response response = getWebTarget()
+                .path("monitoring/" + group)
+                .request(MediaType.APPLICATION_JSON)
+                .header(HttpHeaders.AUTHORIZATION, getToken())
+                .get();
+        assertEquals(Status.OK.getStatusCode(), response.getStatus());
+
+        return response.readEntity(Map.class);
+    }
+}
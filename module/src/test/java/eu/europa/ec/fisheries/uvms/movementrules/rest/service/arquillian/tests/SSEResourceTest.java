@@ -1,6 +1,7 @@
 package eu.europa.ec.fisheries.uvms.movementrules.rest.service.arquillian.tests;
 
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.nullValue;
 import java.time.Instant;
@@ -17,6 +18,7 @@ import org.junit.runner.RunWith;
 import eu.europa.ec.fisheries.schema.movementrules.customrule.v1.AvailabilityType;
 import eu.europa.ec.fisheries.schema.movementrules.ticket.v1.TicketStatusType;
 import eu.europa.ec.fisheries.schema.movementrules.ticket.v1.TicketType;
+import eu.europa.ec.fisheries.uvms.commons.date.JsonBConfigurator;
 import eu.europa.ec.fisheries.uvms.movementrules.model.dto.MovementDetails;
 import eu.europa.ec.fisheries.uvms.movementrules.rest.service.arquillian.RulesTestHelper;
 import eu.europa.ec.fisheries.uvms.movementrules.service.bean.RulesServiceBean;
@@ -61,6 +63,32 @@ public class SSEResourceTest extends BuildRulesRestDeployment {
         rulesDao.removeCustomRuleAfterTests(customRule);
     }
     
+    @Test
+    @OperateOnDeployment("normal")
+    public void sseEventDataIsTicketJsonTest() throws Exception {
+
+        CustomRule customRule = createCustomRule(user);
+
+        CustomRule createdCustomRule = rulesService.createCustomRule(customRule, "", "");
+
+        MovementDetails movementDetails = getMovementDetails();
+
+        try (SSETestClient client = new SSETestClient()) {
+            validationService.customRuleTriggered(createdCustomRule.getName(), createdCustomRule.getGuid().toString(), movementDetails, "CREATE_TICKET");
+
+            TicketType ticket = client.getTicket(10000);
+            assertThat(ticket.getRuleName(), is(customRule.getName()));
+
+            // A JSON object, not the JSON encoded as a string once more
+            String data = client.getData();
+            assertTrue(data.startsWith("{"));
+            TicketType parsed = new JsonBConfigurator().getContext(null).fromJson(data, TicketType.class);
+            assertThat(parsed.getGuid(), is(ticket.getGuid()));
+            assertThat(parsed.getMovementGuid(), is(movementDetails.getMovementGuid()));
+        }
+        rulesDao.removeCustomRuleAfterTests(customRule);
+    }
+
     @Test
     @OperateOnDeployment("normal")
     public void sseBroadcastSubscribingToRuleTwoConnectionsTest() throws Exception {
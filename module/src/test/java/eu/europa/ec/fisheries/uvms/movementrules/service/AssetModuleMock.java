@@ -14,6 +14,8 @@ import javax.ws.rs.core.Response;
 @Produces(value = { MediaType.APPLICATION_JSON })
 public class AssetModuleMock {
 
+    public static final String FAILING_POLL_ASSET_GUID = "5d4bb8a6-9f6a-4e6f-a2d1-5f0c2b7e0c01";
+
     @POST
     @Path("/poll")
     public Response createPoll(PollRequestType createPoll) {
@@ -25,6 +27,9 @@ public class AssetModuleMock {
     @Path("/createPollForAsset/{id}")
     public Response createPoll(@PathParam("id") String assetId, @QueryParam("username") String username, SimpleCreatePoll createPoll) {
         System.setProperty("AssetPollEndpointReached", "True");
+        if (FAILING_POLL_ASSET_GUID.equals(assetId)) {
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity("No mobile terminal connected to asset").build();
+        }
         return Response.ok().entity(Boolean.TRUE).build();
     }
 
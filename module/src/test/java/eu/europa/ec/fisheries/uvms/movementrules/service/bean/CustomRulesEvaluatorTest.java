@@ -275,6 +275,39 @@ public class CustomRulesEvaluatorTest extends TransactionalTests {
         assertThat(tickets.size(), CoreMatchers.is(1));
     }
     
+    @Test
+    @OperateOnDeployment("normal")
+    public void evaluateBatchTriggersRulePerMatchingMovement() throws Exception {
+        MovementDetails swedish = getMovementDetails();
+        MovementDetails swedishSameAsset = getMovementDetails();
+        swedishSameAsset.setAssetGuid(swedish.getAssetGuid());
+        swedishSameAsset.setPositionTime(swedish.getPositionTime().plusSeconds(60));
+        MovementDetails danish = getMovementDetails();
+        danish.setFlagState("DNK");
+
+        CustomRule customRule = RulesTestHelper.createBasicCustomRule();
+        List<RuleSegment> segments = new ArrayList<>();
+        RuleSegment segment = new RuleSegment();
+        segment.setCriteria("ASSET");
+        segment.setSubCriteria("FLAG_STATE");
+        segment.setCondition("EQ");
+        segment.setValue("SWE");
+        segment.setLogicOperator("NONE");
+        segment.setCustomRule(customRule);
+        segment.setOrder(0);
+        segments.add(segment);
+        customRule.setRuleSegmentList(segments);
+        rulesService.createCustomRule(customRule, "", "");
+
+        customRulesEvaluator.evaluateBatch(Arrays.asList(swedish, danish, swedishSameAsset));
+
+        List<Ticket> tickets = rulesService.getTicketsByMovements(Arrays.asList(swedish.getMovementGuid(), swedishSameAsset.getMovementGuid()));
+        assertThat(tickets.size(), CoreMatchers.is(2));
+        tickets = rulesService.getTicketsByMovements(Arrays.asList(danish.getMovementGuid()));
+        assertThat(tickets.size(), CoreMatchers.is(0));
+        assertThat(swedishSameAsset.getTimeDiffPositionReport(), CoreMatchers.is(60L));
+    }
+
     private MovementDetails getMovementDetails() {
         MovementDetails movementDetails = new MovementDetails();
         movementDetails.setMovementGuid(UUID.randomUUID().toString());
@@ -3,8 +3,13 @@ package eu.europa.ec.fisheries.uvms.movementrules.service.bean;
 import eu.europa.ec.fisheries.schema.movementrules.customrule.v1.ActionType;
 import eu.europa.ec.fisheries.uvms.commons.date.DateUtils;
 import eu.europa.ec.fisheries.uvms.movementrules.model.dto.MovementDetails;
+import eu.europa.ec.fisheries.uvms.movementrules.service.AssetModuleMock;
 import eu.europa.ec.fisheries.uvms.movementrules.service.RulesTestHelper;
 import eu.europa.ec.fisheries.uvms.movementrules.service.TransactionalTests;
+import eu.europa.ec.fisheries.uvms.movementrules.service.business.LastTriggeredCache;
+import eu.europa.ec.fisheries.uvms.movementrules.service.business.TicketCountAggregator;
+import eu.europa.ec.fisheries.uvms.movementrules.service.dao.RulesDao;
+import eu.europa.ec.fisheries.uvms.movementrules.service.entity.ActionOutbox;
 import eu.europa.ec.fisheries.uvms.movementrules.service.entity.CustomRule;
 import eu.europa.ec.fisheries.uvms.movementrules.service.entity.RuleAction;
 import eu.europa.ec.fisheries.uvms.movementrules.service.entity.Ticket;
@@ -21,6 +26,7 @@ import java.util.List;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
 import static org.junit.Assert.*;
 
 @RunWith(Arquillian.class)
@@ -32,6 +38,15 @@ public class ValidationServiceBeanTest extends TransactionalTests {
     @Inject
     RulesServiceBean rulesService;
 
+    @Inject
+    RulesDao rulesDao;
+
+    @Inject
+    LastTriggeredCache lastTriggeredCache;
+
+    @Inject
+    TicketCountAggregator ticketCountAggregator;
+
     @Test
     @OperateOnDeployment("normal")
     public void customRuleTriggeredLastTriggeredDateShouldBeSetTest() throws Exception {
@@ -44,8 +59,8 @@ public class ValidationServiceBeanTest extends TransactionalTests {
         MovementDetails movementFact = RulesTestHelper.createBasicMovementDetails();
         validationService.customRuleTriggered(createdCustomRule.getName(), createdCustomRule.getGuid().toString(), movementFact, "EMAIL,test@test.com");
 
-        CustomRule updatedCustomRule = rulesService.getCustomRuleByGuid(createdCustomRule.getGuid());
-        String lastTriggered = DateUtils.dateToEpochMilliseconds(updatedCustomRule.getLastTriggered());
+        lastTriggeredCache.flush();
+        String lastTriggered = DateUtils.dateToEpochMilliseconds(rulesDao.getLastTriggered(createdCustomRule.getGuid()));
         assertThat(lastTriggered, is(notNullValue()));
 
         Instant dateTriggered = DateUtils.stringToDate(lastTriggered);
@@ -102,6 +117,7 @@ public class ValidationServiceBeanTest extends TransactionalTests {
 
         MovementDetails movementFact = RulesTestHelper.createBasicMovementDetails();
         validationService.customRuleTriggered(createdCustomRule.getName(), createdCustomRule.getGuid().toString(), movementFact, "MANUAL_POLL,ThisDoesNotMatter");
+        executeOutbox();
 
         assertEquals("True", System.getProperty("AssetPollEndpointReached"));
         System.clearProperty("AssetPollEndpointReached");
@@ -127,6 +143,7 @@ public class ValidationServiceBeanTest extends TransactionalTests {
 
         MovementDetails movementFact = RulesTestHelper.createBasicMovementDetails();
         validationService.customRuleTriggered(createdCustomRule.getName(), createdCustomRule.getGuid().toString(), movementFact, "EMAIL,ThisDoesNotMatter");
+        executeOutbox();
 
         assertEquals("True", System.getProperty("ExchangeEmailEndpointReached"));
         System.clearProperty("ExchangeEmailEndpointReached");
@@ -161,12 +178,86 @@ public class ValidationServiceBeanTest extends TransactionalTests {
 
         MovementDetails movementFact2 = RulesTestHelper.createBasicMovementDetails();
         validationService.customRuleTriggered(createdCustomRule.getName(), createdCustomRule.getGuid().toString(), movementFact2, "CREATE_TICKET,null");
+        commitAndBegin();
+        ticketCountAggregator.flush();
         
         List<Ticket> tickets = rulesService.getTicketsByMovements(Arrays.asList(movementFact.getMovementGuid()));
         assertThat(tickets.size(), is(1));
         assertThat(tickets.get(0).getTicketCount(), is(2l));
     }
+
+    @Test
+    @OperateOnDeployment("normal")
+    public void aggregateRuleTriggeredTicketCountIsWrittenOnFlushTest() throws Exception {
+        CustomRule customRule = RulesTestHelper.createCompleteCustomRule();
+        customRule.setAggregateInvocations(true);
+        CustomRule createdCustomRule = rulesService.createCustomRule(customRule, "", "");
+
+        MovementDetails movementFact = RulesTestHelper.createBasicMovementDetails();
+        validationService.customRuleTriggered(createdCustomRule.getName(), createdCustomRule.getGuid().toString(), movementFact, "CREATE_TICKET,null");
+        for (int i = 0; i < 3; i++) {
+            validationService.customRuleTriggered(createdCustomRule.getName(), createdCustomRule.getGuid().toString(),
+                    RulesTestHelper.createBasicMovementDetails(), "CREATE_TICKET,null");
+        }
+        commitAndBegin();
+
+        Ticket ticket = rulesService.getTicketsByMovements(Arrays.asList(movementFact.getMovementGuid())).get(0);
+        assertThat(ticket.getTicketCount(), is(1l));
+
+        ticketCountAggregator.flush();
+
+        assertThat(ticket.getTicketCount(), is(4l));
+    }
     
+    @Test
+    @OperateOnDeployment("normal")
+    public void aggregateRuleTriggeredTicketCountIsKeptOnRollbackTest() throws Exception {
+        CustomRule customRule = RulesTestHelper.createCompleteCustomRule();
+        customRule.setAggregateInvocations(true);
+        CustomRule createdCustomRule = rulesService.createCustomRule(customRule, "", "");
+
+        for (int i = 0; i < 4; i++) {
+            validationService.customRuleTriggered(createdCustomRule.getName(), createdCustomRule.getGuid().toString(),
+                    RulesTestHelper.createBasicMovementDetails(), "CREATE_TICKET,null");
+        }
+        commitAndBegin();
+        ticketCountAggregator.flush();
+        assertThat(ticketCountAggregator.getPendingInvocations(createdCustomRule.getGuid()), is(0l));
+
+        userTransaction.rollback();
+        userTransaction.begin();
+
+        assertThat(ticketCountAggregator.getPendingInvocations(createdCustomRule.getGuid()), is(3l));
+    }
+
+    @Test
+    @OperateOnDeployment("normal")
+    public void aggregateRuleTriggeredTicketCountIsOnlyCountedOnCommitTest() throws Exception {
+        CustomRule customRule = RulesTestHelper.createCompleteCustomRule();
+        customRule.setAggregateInvocations(true);
+        CustomRule createdCustomRule = rulesService.createCustomRule(customRule, "", "");
+        validationService.customRuleTriggered(createdCustomRule.getName(), createdCustomRule.getGuid().toString(),
+                RulesTestHelper.createBasicMovementDetails(), "CREATE_TICKET,null");
+        commitAndBegin();
+
+        for (int i = 0; i < 3; i++) {
+            validationService.customRuleTriggered(createdCustomRule.getName(), createdCustomRule.getGuid().toString(),
+                    RulesTestHelper.createBasicMovementDetails(), "CREATE_TICKET,null");
+        }
+        assertThat(ticketCountAggregator.getPendingInvocations(createdCustomRule.getGuid()), is(0l));
+
+        userTransaction.rollback();
+        userTransaction.begin();
+        assertThat(ticketCountAggregator.getPendingInvocations(createdCustomRule.getGuid()), is(0l));
+
+        for (int i = 0; i < 2; i++) {
+            validationService.customRuleTriggered(createdCustomRule.getName(), createdCustomRule.getGuid().toString(),
+                    RulesTestHelper.createBasicMovementDetails(), "CREATE_TICKET,null");
+        }
+        commitAndBegin();
+        assertThat(ticketCountAggregator.getPendingInvocations(createdCustomRule.getGuid()), is(2l));
+    }
+
     @Test
     @OperateOnDeployment("normal")
     public void aggregateRuleTriggeredDateTriggeredShouldUpdateTest() throws Exception {
@@ -177,15 +268,95 @@ public class ValidationServiceBeanTest extends TransactionalTests {
         MovementDetails movementFact = RulesTestHelper.createBasicMovementDetails();
         validationService.customRuleTriggered(createdCustomRule.getName(), createdCustomRule.getGuid().toString(), movementFact, "CREATE_TICKET,null");
 
-        Instant firstTimestamp = rulesService.getCustomRuleByGuid(createdCustomRule.getGuid())
-                .getLastTriggered();
+        lastTriggeredCache.flush();
+        Instant firstTimestamp = rulesDao.getLastTriggered(createdCustomRule.getGuid());
         
         MovementDetails movementFact2 = RulesTestHelper.createBasicMovementDetails();
         validationService.customRuleTriggered(createdCustomRule.getName(), createdCustomRule.getGuid().toString(), movementFact2, "EMAIL,test@test.com");
 
-        Instant secondTimestamp = rulesService.getCustomRuleByGuid(createdCustomRule.getGuid())
-                .getLastTriggered();
+        lastTriggeredCache.flush();
+        Instant secondTimestamp = rulesDao.getLastTriggered(createdCustomRule.getGuid());
 
         assertTrue(firstTimestamp.isBefore(secondTimestamp));
     }
+
+    @Test
+    @OperateOnDeployment("normal")
+    public void customRuleTriggeredActionIsExecutedFromOutboxTest() throws Exception {
+        CustomRule customRule = RulesTestHelper.createCompleteCustomRule();
+        CustomRule createdCustomRule = rulesService.createCustomRule(customRule, "", "");
+
+        MovementDetails movementFact = RulesTestHelper.createBasicMovementDetails();
+        validationService.customRuleTriggered(createdCustomRule.getName(), createdCustomRule.getGuid().toString(), movementFact, "SEND_REPORT,NAF,SWE");
+
+        List<ActionOutbox> entries = rulesDao.getDueActionOutboxEntries(Instant.now(), 100);
+        ActionOutbox entry = entries.stream()
+                .filter(e -> createdCustomRule.getGuid().toString().equals(e.getRuleGuid()))
+                .findFirst()
+                .orElseThrow(AssertionError::new);
+        assertThat(entry.getAction(), is(ActionType.SEND_REPORT.value()));
+
+        assertTrue(validationService.executeAction(entry.getId()));
+        assertThat(rulesDao.lockActionOutboxEntry(entry.getId()), is(nullValue()));
+    }
+
+    @Test
+    @OperateOnDeployment("normal")
+    public void customRuleTriggeredFailedPollIsRetriedTest() throws Exception {
+        CustomRule customRule = RulesTestHelper.createCompleteCustomRule();
+        CustomRule createdCustomRule = rulesService.createCustomRule(customRule, "", "");
+
+        MovementDetails movementFact = RulesTestHelper.createBasicMovementDetails();
+        movementFact.setAssetGuid(AssetModuleMock.FAILING_POLL_ASSET_GUID);
+        validationService.customRuleTriggered(createdCustomRule.getName(), createdCustomRule.getGuid().toString(), movementFact, "MANUAL_POLL,ThisDoesNotMatter");
+
+        ActionOutbox entry = rulesDao.getDueActionOutboxEntries(Instant.now(), 100).stream()
+                .filter(e -> createdCustomRule.getGuid().toString().equals(e.getRuleGuid()))
+                .findFirst()
+                .orElseThrow(AssertionError::new);
+
+        assertFalse(validationService.executeAction(entry.getId()));
+
+        ActionOutbox retried = rulesDao.lockActionOutboxEntry(entry.getId());
+        assertThat(retried, is(notNullValue()));
+        assertThat(retried.getAttempts(), is(1));
+        assertTrue(retried.getLastError().startsWith("NOK 500"));
+        assertTrue(retried.getNextAttempt().isAfter(Instant.now()));
+    }
+
+    @Test
+    @OperateOnDeployment("normal")
+    public void customRuleTriggeredActionInBackoffIsNotExecutedTest() throws Exception {
+        CustomRule customRule = RulesTestHelper.createCompleteCustomRule();
+        CustomRule createdCustomRule = rulesService.createCustomRule(customRule, "", "");
+
+        MovementDetails movementFact = RulesTestHelper.createBasicMovementDetails();
+        movementFact.setAssetGuid(AssetModuleMock.FAILING_POLL_ASSET_GUID);
+        validationService.customRuleTriggered(createdCustomRule.getName(), createdCustomRule.getGuid().toString(), movementFact, "MANUAL_POLL,ThisDoesNotMatter");
+
+        ActionOutbox entry = rulesDao.getDueActionOutboxEntries(Instant.now(), 100).stream()
+                .filter(e -> createdCustomRule.getGuid().toString().equals(e.getRuleGuid()))
+                .findFirst()
+                .orElseThrow(AssertionError::new);
+        assertFalse(validationService.executeAction(entry.getId()));
+        Instant nextAttempt = rulesDao.lockActionOutboxEntry(entry.getId()).getNextAttempt();
+
+        // Found due before the failed attempt rescheduled it
+        assertFalse(validationService.executeAction(entry.getId()));
+
+        ActionOutbox retried = rulesDao.lockActionOutboxEntry(entry.getId());
+        assertThat(retried.getAttempts(), is(1));
+        assertThat(retried.getNextAttempt(), is(nextAttempt));
+    }
+
+    private void commitAndBegin() throws Exception {
+        userTransaction.commit();
+        userTransaction.begin();
+    }
+
+    private void executeOutbox() {
+        for (ActionOutbox entry : rulesDao.getDueActionOutboxEntries(Instant.now(), 100)) {
+            validationService.executeAction(entry.getId());
+        }
+    }
 }
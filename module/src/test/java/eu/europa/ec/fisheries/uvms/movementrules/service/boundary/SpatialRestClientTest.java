@@ -1,16 +1,31 @@
 package eu.europa.ec.fisheries.uvms.movementrules.service.boundary;
 
+import static org.junit.Assert.assertEquals;
 import java.util.ArrayList;
+import java.util.UUID;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
 import org.mockito.Mockito;
+import org.mockito.Spy;
 import org.mockito.junit.MockitoJUnitRunner;
 import eu.europa.ec.fisheries.schema.movementrules.movement.v1.MovementSourceType;
 import eu.europa.ec.fisheries.uvms.movementrules.model.dto.MovementDetails;
+import eu.europa.ec.fisheries.uvms.movementrules.service.business.AssetAreaState;
+import eu.europa.ec.fisheries.uvms.spatial.model.schemas.AreaExtendedIdentifierType;
+import eu.europa.ec.fisheries.uvms.spatial.model.schemas.AreaType;
+import eu.europa.ec.fisheries.uvms.spatial.model.schemas.AreasByLocationType;
 import eu.europa.ec.fisheries.uvms.spatial.model.schemas.SpatialEnrichmentRS;
 
 @RunWith(MockitoJUnitRunner.class)
 public class SpatialRestClientTest {
+
+    @Spy
+    private AssetAreaState assetAreaState;
+
+    @Spy
+    @InjectMocks
+    private SpatialRestClient spatialRestClientWithState;
     
     @Test
     public void populateAreasAndAreaTransitionsAISPosition() {
@@ -76,6 +91,51 @@ public class SpatialRestClientTest {
         Mockito.verify(spatialRestSpy, Mockito.times(2)).getEnrichmentAndTransitions(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any());
     }
     
+    @Test
+    public void populateAreasAndAreaTransitionsNAFKnownPreviousVMSPosition() {
+        String assetGuid = UUID.randomUUID().toString();
+        MovementDetails first = new MovementDetails();
+        first.setAssetGuid(assetGuid);
+        first.setLongitude(1d);
+        first.setLatitude(1d);
+        first.setSource(MovementSourceType.NAF.value());
+
+        MovementDetails second = new MovementDetails();
+        second.setAssetGuid(assetGuid);
+        second.setLongitude(3d);
+        second.setLatitude(3d);
+        second.setPreviousLongitude(2d);
+        second.setPreviousLatitude(2d);
+        second.setPreviousVMSLongitude(1d);
+        second.setPreviousVMSLatitude(1d);
+        second.setSource(MovementSourceType.NAF.value());
+
+        Mockito.doReturn(getAreaTransitionsDto("A"), getAreaTransitionsDto("B")).when(spatialRestClientWithState)
+                .getEnrichmentAndTransitions(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any());
+
+        spatialRestClientWithState.populateAreasAndAreaTransitions(first);
+        spatialRestClientWithState.populateAreasAndAreaTransitions(second);
+
+        // The VMS transitions of the second movement come from the areas remembered for the first
+        Mockito.verify(spatialRestClientWithState, Mockito.times(2)).getEnrichmentAndTransitions(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any());
+        assertEquals(1, second.getVmsEntAreaCodes().size());
+        assertEquals("B", second.getVmsEntAreaCodes().get(0));
+        assertEquals(1, second.getVmsExtAreaCodes().size());
+        assertEquals("A", second.getVmsExtAreaCodes().get(0));
+    }
+    
+    private AreaTransitionsDTO getAreaTransitionsDto(String areaCode) {
+        AreaTransitionsDTO areaTransitions = getAreaTransitionsDto();
+        AreaExtendedIdentifierType area = new AreaExtendedIdentifierType();
+        area.setId(areaCode);
+        area.setCode(areaCode);
+        area.setAreaType(AreaType.EEZ);
+        AreasByLocationType areasByLocation = new AreasByLocationType();
+        areasByLocation.getAreas().add(area);
+        areaTransitions.getSpatialEnrichmentRS().setAreasByLocation(areasByLocation);
+        return areaTransitions;
+    }
+    
     private AreaTransitionsDTO getAreaTransitionsDto() {
         AreaTransitionsDTO areaTransitions = new AreaTransitionsDTO();
         SpatialEnrichmentRS spatialEnrichmentRS = new SpatialEnrichmentRS();
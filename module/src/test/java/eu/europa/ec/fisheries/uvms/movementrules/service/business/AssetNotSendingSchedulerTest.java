@@ -0,0 +1,91 @@
+package eu.europa.ec.fisheries.uvms.movementrules.service.business;
+
+import eu.europa.ec.fisheries.uvms.config.service.ParameterService;
+import eu.europa.ec.fisheries.uvms.movementrules.service.TransactionalTests;
+import eu.europa.ec.fisheries.uvms.movementrules.service.config.ParameterKey;
+import eu.europa.ec.fisheries.uvms.movementrules.service.dao.RulesDao;
+import eu.europa.ec.fisheries.uvms.movementrules.service.entity.PreviousReport;
+import eu.europa.ec.fisheries.uvms.movementrules.service.message.JMSHelper;
+import org.jboss.arquillian.container.test.api.OperateOnDeployment;
+import org.jboss.arquillian.junit.Arquillian;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import javax.inject.Inject;
+import javax.jms.TextMessage;
+import java.time.Instant;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+@RunWith(Arquillian.class)
+public class AssetNotSendingSchedulerTest extends TransactionalTests {
+
+    private static final long ONE_HOUR_IN_MILLISECONDS = 3600000;
+
+    private static final String QUEUE_NAME = "IncidentEvent";
+
+    private JMSHelper jmsHelper = new JMSHelper();
+
+    @Inject
+    AssetNotSendingScheduler assetNotSendingScheduler;
+
+    @Inject
+    ParameterService parameterService;
+
+    @Inject
+    RulesDao rulesDao;
+
+    @Before
+    public void setThreshold() throws Exception {
+        parameterService.setStringValue(ParameterKey.ASSET_NOT_SENDING_THRESHOLD.getKey(),
+                String.valueOf(ONE_HOUR_IN_MILLISECONDS), "");
+        jmsHelper.clearQueue(QUEUE_NAME);
+    }
+
+    @Test
+    @OperateOnDeployment("normal")
+    public void dueAssetIsReportedOnceTest() throws Exception {
+        PreviousReport previousReport = getBasicPreviousReport();
+        previousReport.setPositionTime(Instant.ofEpochMilli(System.currentTimeMillis() - ONE_HOUR_IN_MILLISECONDS));
+        rulesDao.updatePreviousReport(previousReport);
+        assetNotSendingScheduler.schedule(previousReport.getAssetGuid(), previousReport.getPositionTime(), previousReport.getUpdated());
+
+        assetNotSendingScheduler.fireDue();
+
+        TextMessage message = (TextMessage) jmsHelper.listenOnQueue(QUEUE_NAME);
+        assertNotNull(message);
+
+        assetNotSendingScheduler.fireDue();
+
+        message = (TextMessage) jmsHelper.listenOnQueue(QUEUE_NAME);
+        assertNull(message);
+    }
+
+    @Test
+    @OperateOnDeployment("normal")
+    public void newerPositionPostponesDeadlineTest() throws Exception {
+        PreviousReport previousReport = getBasicPreviousReport();
+        previousReport.setPositionTime(Instant.ofEpochMilli(System.currentTimeMillis() - ONE_HOUR_IN_MILLISECONDS));
+        rulesDao.updatePreviousReport(previousReport);
+        assetNotSendingScheduler.schedule(previousReport.getAssetGuid(), previousReport.getPositionTime(), previousReport.getUpdated());
+
+        assetNotSendingScheduler.reported(previousReport.getAssetGuid(), Instant.now());
+        assetNotSendingScheduler.fireDue();
+
+        TextMessage message = (TextMessage) jmsHelper.listenOnQueue(QUEUE_NAME);
+        assertNull(message);
+    }
+
+    private PreviousReport getBasicPreviousReport() {
+        PreviousReport previousReport = new PreviousReport();
+        previousReport.setPositionTime(Instant.now());
+        previousReport.setAssetGuid(UUID.randomUUID().toString());
+        previousReport.setMovementGuid(UUID.randomUUID());
+        previousReport.setMobTermGuid(UUID.randomUUID());
+        previousReport.setUpdated(Instant.now());
+        previousReport.setUpdatedBy("UVMS");
+        return previousReport;
+    }
+}
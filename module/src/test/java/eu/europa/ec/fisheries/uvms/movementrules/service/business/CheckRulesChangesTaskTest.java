@@ -58,4 +58,34 @@ public class CheckRulesChangesTaskTest extends TransactionalTests {
         Assert.assertFalse(createdCustomRule.getArchived());
 
     }
+
+    @Test
+    @OperateOnDeployment("normal")
+    public void checkRulesChangesTaskRemovesExpiredRuleOnEveryNodeTest() throws Exception {
+        CustomRule customRule = RulesTestHelper.createCompleteCustomRule();
+        Interval interval = new Interval();
+        interval.setCustomRule(customRule);
+        interval.setStart(Instant.ofEpochMilli(System.currentTimeMillis() - 20000));
+        interval.setEnd(Instant.ofEpochMilli(System.currentTimeMillis() - 10000));
+        customRule.getIntervals().add(interval);
+        customRule.setUpdated(Instant.now());
+        customRule.setUpdatedBy("TestUser");
+
+        customRule = rulesDao.createCustomRule(customRule);
+        rulesValidator.updateCustomRule(customRule);
+        Assert.assertNotNull(rulesValidator.getSnapshot().getRuleMetadata(customRule.getGuid()));
+
+        LeaderElection notLeader = new LeaderElection() {
+            @Override
+            public boolean isLeader() {
+                return false;
+            }
+        };
+        CheckRulesChangesTask checkRulesChangesTask = new CheckRulesChangesTask(validationService, rulesValidator, rulesService, notLeader);
+        checkRulesChangesTask.run();
+
+        Assert.assertNull(rulesValidator.getSnapshot().getRuleMetadata(customRule.getGuid()));
+        // Only the leader inactivates the rule in the DB
+        Assert.assertTrue(rulesDao.getCustomRuleByGuid(customRule.getGuid()).getActive());
+    }
 }
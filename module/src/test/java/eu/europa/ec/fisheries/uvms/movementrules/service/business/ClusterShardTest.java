@@ -0,0 +1,51 @@
+/*
+﻿Developed with the contribution of the European Commission - Directorate General for Maritime Affairs and Fisheries
+© European Union, 2015-2016.
+
+This file is part of the Integrated Fisheries Data Management (IFDM) Suite. The IFDM Suite is free software: you can
+redistribute it and/or modify it under the terms of the GNU General Public License as published by the
+Free Software Foundation, either version 3 of the License, or any later version. The IFDM Suite is distributed in
+the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details. You should have received a
+copy of the GNU General Public License along with the IFDM Suite. If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.europa.ec.fisheries.uvms.movementrules.service.business;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import org.junit.Test;
+
+public class ClusterShardTest {
+
+    @Test
+    public void everyAssetIsOwnedByExactlyOneNodeTest() {
+        List<String> nodes = Arrays.asList("node1", "node2", "node3");
+        ClusterShard[] shards = {new ClusterShard(0, nodes), new ClusterShard(1, nodes), new ClusterShard(2, nodes)};
+        int[] owned = new int[shards.length];
+        for (int i = 0; i < 3000; i++) {
+            String assetGuid = UUID.randomUUID().toString();
+            int owners = 0;
+            for (int s = 0; s < shards.length; s++) {
+                if (shards[s].owns(assetGuid)) {
+                    owners++;
+                    owned[s]++;
+                }
+            }
+            assertEquals(1, owners);
+        }
+        for (int count : owned) {
+            assertTrue(count > 500);
+        }
+    }
+
+    @Test
+    public void singleNodeOwnsEverythingTest() {
+        ClusterShard shard = new ClusterShard(0, Arrays.asList("node1"));
+        assertTrue(shard.owns(UUID.randomUUID().toString()));
+        assertTrue(ClusterShard.ALL.owns(UUID.randomUUID().toString()));
+        assertEquals(1, ClusterShard.ALL.getCount());
+    }
+}
@@ -0,0 +1,57 @@
+package eu.europa.ec.fisheries.uvms.movementrules.service.business;
+
+import eu.europa.ec.fisheries.uvms.movementrules.service.TransactionalTests;
+import eu.europa.ec.fisheries.wsdl.user.types.ContactDetails;
+import org.jboss.arquillian.container.test.api.OperateOnDeployment;
+import org.jboss.arquillian.junit.Arquillian;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import javax.inject.Inject;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+@RunWith(Arquillian.class)
+public class ContactDetailsCacheTest extends TransactionalTests {
+
+    @Inject
+    ContactDetailsCache contactDetailsCache;
+
+    @Test
+    @OperateOnDeployment("normal")
+    public void contactDetailsAreCached() throws Exception {
+        String username = "user-" + UUID.randomUUID();
+        int sizeBefore = contactDetailsCache.getSize();
+
+        assertEquals("Test Organisation", contactDetailsCache.getOrganisationName(username));
+        assertEquals(sizeBefore + 1, contactDetailsCache.getSize());
+
+        assertEquals("Test Organisation", contactDetailsCache.getOrganisationName(username));
+        assertEquals(sizeBefore + 1, contactDetailsCache.getSize());
+        assertTrue(contactDetailsCache.getHitRatio() > 0);
+    }
+
+    @Test
+    @OperateOnDeployment("normal")
+    public void invalidatedUserIsRemoved() throws Exception {
+        String username = "user-" + UUID.randomUUID();
+        contactDetailsCache.getContactDetails(username);
+        int sizeBefore = contactDetailsCache.getSize();
+
+        contactDetailsCache.invalidate(username);
+
+        assertEquals(sizeBefore - 1, contactDetailsCache.getSize());
+    }
+
+    @Test
+    @OperateOnDeployment("normal")
+    public void missingContactDetailsExpireEarly() {
+        ContactDetailsCache.CachedContact missing = new ContactDetailsCache.CachedContact(null, 0);
+        ContactDetailsCache.CachedContact found = new ContactDetailsCache.CachedContact(new ContactDetails(), 0);
+
+        assertTrue(missing.isExpired(ContactDetailsCache.NEGATIVE_TTL_MILLIS + 1));
+        assertFalse(found.isExpired(ContactDetailsCache.NEGATIVE_TTL_MILLIS + 1));
+        assertTrue(found.isExpired(ContactDetailsCache.TTL_MILLIS + 1));
+    }
+}
@@ -0,0 +1,48 @@
+package eu.europa.ec.fisheries.uvms.movementrules.service.business;
+
+import eu.europa.ec.fisheries.uvms.movementrules.service.TransactionalTests;
+import eu.europa.ec.fisheries.uvms.movementrules.service.dao.RulesDao;
+import org.jboss.arquillian.container.test.api.OperateOnDeployment;
+import org.jboss.arquillian.junit.Arquillian;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import javax.inject.Inject;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+
+import static org.junit.Assert.*;
+
+@RunWith(Arquillian.class)
+public class LeaderElectionTest extends TransactionalTests {
+
+    @Inject
+    LeaderElection leaderElection;
+
+    @Inject
+    RulesDao rulesDao;
+
+    @Test
+    @OperateOnDeployment("normal")
+    public void renewTakesLeaseTest() {
+        leaderElection.renew();
+
+        assertTrue(leaderElection.isLeader());
+        assertEquals(leaderElection.getNode(), leaderElection.getHolder());
+        assertTrue(leaderElection.getLeaseExpires().isAfter(Instant.now()));
+    }
+
+    @Test
+    @OperateOnDeployment("normal")
+    public void leaseIsOnlyTakenOverWhenExpiredTest() {
+        leaderElection.renew();
+
+        assertFalse(rulesDao.acquireLease(LeaderElection.RULES_TIMER_LEASE, "other node", Duration.ofSeconds(30)));
+
+        rulesDao.getLease(LeaderElection.RULES_TIMER_LEASE).setExpires(Instant.now().minus(1, ChronoUnit.HOURS));
+        rulesDao.flush();
+        assertTrue(rulesDao.acquireLease(LeaderElection.RULES_TIMER_LEASE, "other node", Duration.ofSeconds(30)));
+        assertFalse(rulesDao.acquireLease(LeaderElection.RULES_TIMER_LEASE, leaderElection.getNode(), Duration.ofSeconds(30)));
+    }
+}
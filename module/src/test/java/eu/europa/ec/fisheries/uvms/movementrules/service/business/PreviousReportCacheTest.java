@@ -0,0 +1,153 @@
+package eu.europa.ec.fisheries.uvms.movementrules.service.business;
+
+import eu.europa.ec.fisheries.uvms.movementrules.model.dto.MovementDetails;
+import eu.europa.ec.fisheries.uvms.movementrules.service.TransactionalTests;
+import eu.europa.ec.fisheries.uvms.movementrules.service.dao.RulesDao;
+import eu.europa.ec.fisheries.uvms.movementrules.service.entity.PreviousReport;
+import org.jboss.arquillian.container.test.api.OperateOnDeployment;
+import org.jboss.arquillian.junit.Arquillian;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import javax.inject.Inject;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+@RunWith(Arquillian.class)
+public class PreviousReportCacheTest extends TransactionalTests {
+
+    @Inject
+    PreviousReportCache previousReportCache;
+
+    @Inject
+    RulesDao rulesDao;
+
+    @Test
+    @OperateOnDeployment("normal")
+    public void newAssetIsInsertedDirectly() {
+        MovementDetails movementDetails = getMovementDetails(Instant.now().truncatedTo(ChronoUnit.MILLIS));
+
+        previousReportCache.update(movementDetails);
+
+        PreviousReport previousReport = rulesDao.getPreviousReportByAssetGuid(movementDetails.getAssetGuid());
+        assertNotNull(previousReport);
+        assertEquals(movementDetails.getPositionTime(), previousReport.getPositionTime());
+    }
+
+    @Test
+    @OperateOnDeployment("normal")
+    public void knownAssetIsWrittenOnFlush() throws Exception {
+        Instant firstPositionTime = Instant.now().minus(1, ChronoUnit.HOURS).truncatedTo(ChronoUnit.MILLIS);
+        MovementDetails first = getMovementDetails(firstPositionTime);
+        previousReportCache.update(first);
+
+        Instant secondPositionTime = firstPositionTime.plus(30, ChronoUnit.MINUTES);
+        MovementDetails second = getMovementDetails(secondPositionTime);
+        second.setAssetGuid(first.getAssetGuid());
+        previousReportCache.update(second);
+
+        assertEquals(secondPositionTime, previousReportCache.getLastPositionTime(first.getAssetGuid()));
+        assertEquals(firstPositionTime, rulesDao.getPreviousReportByAssetGuid(first.getAssetGuid()).getPositionTime());
+        commitAndBegin();
+
+        previousReportCache.flush();
+
+        assertEquals(secondPositionTime, rulesDao.getPreviousReportByAssetGuid(first.getAssetGuid()).getPositionTime());
+        assertEquals(0, previousReportCache.getPendingWrites());
+    }
+
+    @Test
+    @OperateOnDeployment("normal")
+    public void laterPositionWrittenByAnotherNodeIsKeptOnFlush() throws Exception {
+        Instant firstPositionTime = Instant.now().minus(1, ChronoUnit.HOURS).truncatedTo(ChronoUnit.MILLIS);
+        MovementDetails first = getMovementDetails(firstPositionTime);
+        previousReportCache.update(first);
+        commitAndBegin();
+
+        // Another node writes a later position
+        Instant otherNodePositionTime = firstPositionTime.plus(45, ChronoUnit.MINUTES);
+        rulesDao.getPreviousReportByAssetGuid(first.getAssetGuid()).setPositionTime(otherNodePositionTime);
+
+        MovementDetails second = getMovementDetails(firstPositionTime.plus(30, ChronoUnit.MINUTES));
+        second.setAssetGuid(first.getAssetGuid());
+        previousReportCache.update(second);
+        commitAndBegin();
+        previousReportCache.flush();
+
+        assertEquals(otherNodePositionTime, rulesDao.getPreviousReportByAssetGuid(first.getAssetGuid()).getPositionTime());
+        assertEquals(otherNodePositionTime, previousReportCache.getLastPositionTime(first.getAssetGuid()));
+    }
+
+    @Test
+    @OperateOnDeployment("normal")
+    public void rolledBackUpdateIsDiscarded() throws Exception {
+        Instant firstPositionTime = Instant.now().minus(1, ChronoUnit.HOURS).truncatedTo(ChronoUnit.MILLIS);
+        MovementDetails first = getMovementDetails(firstPositionTime);
+        previousReportCache.update(first);
+        commitAndBegin();
+
+        Instant secondPositionTime = firstPositionTime.plus(30, ChronoUnit.MINUTES);
+        MovementDetails second = getMovementDetails(secondPositionTime);
+        second.setAssetGuid(first.getAssetGuid());
+        previousReportCache.update(second);
+        assertEquals(secondPositionTime, previousReportCache.getLastPositionTime(first.getAssetGuid()));
+
+        userTransaction.rollback();
+        userTransaction.begin();
+
+        assertEquals(firstPositionTime, previousReportCache.getLastPositionTime(first.getAssetGuid()));
+        assertEquals(0, previousReportCache.getPendingWrites());
+    }
+
+    @Test
+    @OperateOnDeployment("normal")
+    public void reportWrittenByAnotherNodeIsRefreshed() throws Exception {
+        Instant firstPositionTime = Instant.now().minus(1, ChronoUnit.HOURS).truncatedTo(ChronoUnit.MILLIS);
+        MovementDetails first = getMovementDetails(firstPositionTime);
+        previousReportCache.update(first);
+        commitAndBegin();
+
+        // Another node writes a later position
+        Instant otherNodePositionTime = firstPositionTime.plus(45, ChronoUnit.MINUTES);
+        PreviousReport previousReport = rulesDao.getPreviousReportByAssetGuid(first.getAssetGuid());
+        previousReport.setPositionTime(otherNodePositionTime);
+        previousReport.setUpdated(Instant.now());
+        commitAndBegin();
+
+        assertEquals(firstPositionTime, previousReportCache.getLastPositionTime(first.getAssetGuid()));
+        previousReportCache.refresh();
+        assertEquals(otherNodePositionTime, previousReportCache.getLastPositionTime(first.getAssetGuid()));
+    }
+
+    @Test
+    @OperateOnDeployment("normal")
+    public void invalidatedAssetIsReloaded() {
+        MovementDetails movementDetails = getMovementDetails(Instant.now().truncatedTo(ChronoUnit.MILLIS));
+        previousReportCache.update(movementDetails);
+
+        PreviousReport previousReport = rulesDao.getPreviousReportByAssetGuid(movementDetails.getAssetGuid());
+        previousReportCache.invalidate(movementDetails.getAssetGuid());
+        rulesDao.deletePreviousReport(previousReport);
+
+        assertNull(previousReportCache.getLastPositionTime(movementDetails.getAssetGuid()));
+    }
+
+    private void commitAndBegin() throws Exception {
+        userTransaction.commit();
+        userTransaction.begin();
+    }
+
+    private MovementDetails getMovementDetails(Instant positionTime) {
+        MovementDetails movementDetails = new MovementDetails();
+        movementDetails.setMovementGuid(UUID.randomUUID().toString());
+        movementDetails.setMobileTerminalGuid(UUID.randomUUID().toString());
+        movementDetails.setAssetGuid(UUID.randomUUID().toString());
+        movementDetails.setPositionTime(positionTime);
+        movementDetails.setSource("INMARSAT_C");
+        movementDetails.setFlagState("SWE");
+        return movementDetails;
+    }
+}
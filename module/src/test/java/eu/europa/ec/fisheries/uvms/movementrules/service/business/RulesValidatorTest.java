@@ -8,6 +8,8 @@ import eu.europa.ec.fisheries.uvms.movementrules.service.RulesTestHelper;
 import eu.europa.ec.fisheries.uvms.movementrules.service.TransactionalTests;
 import eu.europa.ec.fisheries.uvms.movementrules.service.bean.RulesServiceBean;
 import eu.europa.ec.fisheries.uvms.movementrules.service.bean.ValidationServiceBean;
+import eu.europa.ec.fisheries.uvms.movementrules.service.dao.RulesDao;
+import eu.europa.ec.fisheries.uvms.movementrules.service.entity.ActionOutbox;
 import eu.europa.ec.fisheries.uvms.movementrules.service.entity.CustomRule;
 import eu.europa.ec.fisheries.uvms.movementrules.service.entity.RuleAction;
 import eu.europa.ec.fisheries.uvms.movementrules.service.entity.RuleSegment;
@@ -46,6 +48,12 @@ public class RulesValidatorTest extends TransactionalTests {
     @Inject
     RulesServiceBean rulesService;
 
+    @Inject
+    RulesDao rulesDao;
+
+    @Inject
+    LastTriggeredCache lastTriggeredCache;
+
     @Before
     public void reloadRules() throws NotSupportedException, SystemException, SecurityException, IllegalStateException, RollbackException, HeuristicMixedException, HeuristicRollbackException {
         rulesService.getRunnableCustomRules().stream().forEach(rule -> rule.setActive(false));
@@ -360,6 +368,9 @@ public class RulesValidatorTest extends TransactionalTests {
         MovementDetails fact = RulesTestHelper.createBasicMovementDetails();
         fact.setFlagState(flagstate);
         rulesValidator.evaluate(fact);
+        for (ActionOutbox entry : rulesDao.getDueActionOutboxEntries(Instant.now(), 100)) {
+            validationService.executeAction(entry.getId());
+        }
 
         long ticketsAfter = validationService.getNumberOfOpenTickets(customRule.getUpdatedBy());
         assertThat(ticketsAfter, is(ticketsBefore + 1));
@@ -912,11 +923,88 @@ public class RulesValidatorTest extends TransactionalTests {
         assertThat(ticketsAfter, is(ticketsBefore + 1));
     }
     
+    @Test
+    @OperateOnDeployment ("normal")
+    public void removedRuleIsNotTriggeredWhileOtherRulesAreKeptTest() throws Exception {
+        CustomRule removedRule = rulesService.createCustomRule(createFlagStateRule("SWE"), "", "");
+        CustomRule keptRule = rulesService.createCustomRule(createFlagStateRule("DNK"), "", "");
+        rulesValidator.removeCustomRule(removedRule.getGuid());
+        // Publish again so the rule set has been through both knowledge bases
+        rulesValidator.updateCustomRule(keptRule);
+
+        long ticketsBefore = validationService.getNumberOfOpenTickets(keptRule.getUpdatedBy());
+
+        MovementDetails fact = RulesTestHelper.createBasicMovementDetails();
+        fact.setFlagState("SWE");
+        rulesValidator.evaluate(fact);
+        assertThat(validationService.getNumberOfOpenTickets(keptRule.getUpdatedBy()), is(ticketsBefore));
+
+        fact = RulesTestHelper.createBasicMovementDetails();
+        fact.setFlagState("DNK");
+        rulesValidator.evaluate(fact);
+        assertThat(validationService.getNumberOfOpenTickets(keptRule.getUpdatedBy()), is(ticketsBefore + 1));
+    }
+
+    @Test
+    @OperateOnDeployment ("normal")
+    public void evaluateBatchMatchesSegmentsOnTheSameMovementTest() throws Exception {
+        CustomRule customRule = createFlagStateRule("SWE");
+        customRule.getRuleSegmentList().get(0).setLogicOperator(LogicOperatorType.AND.value());
+        RuleSegment areaSegment = new RuleSegment();
+        areaSegment.setStartOperator("");
+        areaSegment.setCriteria(CriteriaType.AREA.value());
+        areaSegment.setSubCriteria(SubCriteriaType.AREA_CODE.value());
+        areaSegment.setCondition(ConditionType.EQ.value());
+        areaSegment.setValue("SWE");
+        areaSegment.setEndOperator("");
+        areaSegment.setLogicOperator(LogicOperatorType.NONE.value());
+        areaSegment.setOrder(1);
+        areaSegment.setCustomRule(customRule);
+        customRule.getRuleSegmentList().add(areaSegment);
+        rulesService.createCustomRule(customRule, "", "");
+
+        long ticketsBefore = validationService.getNumberOfOpenTickets(customRule.getUpdatedBy());
+
+        // Only matches the rule together with the next movement
+        MovementDetails swedishOutside = RulesTestHelper.createBasicMovementDetails();
+        swedishOutside.setFlagState("SWE");
+        swedishOutside.setAreaCodes(Arrays.asList("DNK"));
+        MovementDetails danishInside = RulesTestHelper.createBasicMovementDetails();
+        danishInside.setFlagState("DNK");
+        danishInside.setAreaCodes(Arrays.asList("SWE"));
+        // Same asset as the first movement, so the batch is split into two executions
+        MovementDetails swedishInside = RulesTestHelper.createBasicMovementDetails();
+        swedishInside.setAssetGuid(swedishOutside.getAssetGuid());
+        swedishInside.setFlagState("SWE");
+        swedishInside.setAreaCodes(Arrays.asList("SWE"));
+        rulesValidator.evaluateBatch(Arrays.asList(swedishOutside, danishInside, swedishInside));
+
+        assertThat(validationService.getNumberOfOpenTickets(customRule.getUpdatedBy()), is(ticketsBefore + 1));
+    }
+
+    private CustomRule createFlagStateRule(String flagstate) {
+        CustomRule customRule = RulesTestHelper.createBasicCustomRule();
+        customRule.setName(customRule.getName() + " " + flagstate);
+        RuleSegment segment = new RuleSegment();
+        segment.setStartOperator("");
+        segment.setCriteria(CriteriaType.ASSET.value());
+        segment.setSubCriteria(SubCriteriaType.FLAG_STATE.value());
+        segment.setCondition(ConditionType.EQ.value());
+        segment.setValue(flagstate);
+        segment.setLogicOperator(LogicOperatorType.NONE.value());
+        segment.setEndOperator("");
+        segment.setOrder(0);
+        segment.setCustomRule(customRule);
+        customRule.getRuleSegmentList().add(segment);
+        return customRule;
+    }
+
     private void assertCustomRuleWasTriggered(String ruleGuid, Instant fromDate) throws Exception {
-        CustomRule customRule = rulesService.getCustomRuleByGuid(UUID.fromString(ruleGuid));
-        assertThat(customRule.getLastTriggered(), is(notNullValue()));
-        assertTrue(customRule.getLastTriggered().isAfter(fromDate)
-                || customRule.getLastTriggered().equals(fromDate));
+        lastTriggeredCache.flush();
+        Instant lastTriggered = rulesDao.getLastTriggered(UUID.fromString(ruleGuid));
+        assertThat(lastTriggered, is(notNullValue()));
+        assertTrue(lastTriggered.isAfter(fromDate)
+                || lastTriggered.equals(fromDate));
     }
     
     private Instant getTimestamp() {
@@ -0,0 +1,95 @@
+/*
+﻿Developed with the contribution of the European Commission - Directorate General for Maritime Affairs and Fisheries
+© European Union, 2015-2016.
+
+This file is part of the Integrated Fisheries Data Management (IFDM) Suite. The IFDM Suite is free software: you can
+redistribute it and/or modify it under the terms of the GNU General Public License as published by the
+Free Software Foundation, either version 3 of the License, or any later version. The IFDM Suite is distributed in
+the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details. You should have received a
+copy of the GNU General Public License along with the IFDM Suite. If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.europa.ec.fisheries.uvms.movementrules.service.business;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import eu.europa.ec.fisheries.uvms.movementrules.service.boundary.AreaTransitionsDTO;
+import eu.europa.ec.fisheries.uvms.spatial.model.schemas.AreaExtendedIdentifierType;
+import eu.europa.ec.fisheries.uvms.spatial.model.schemas.AreaType;
+import eu.europa.ec.fisheries.uvms.spatial.model.schemas.AreasByLocationType;
+import eu.europa.ec.fisheries.uvms.spatial.model.schemas.ClosestAreasType;
+import eu.europa.ec.fisheries.uvms.spatial.model.schemas.SpatialEnrichmentRS;
+
+public class SpatialEnrichmentCacheTest {
+
+    @Test
+    public void geohashOfKnownPosition() {
+        assertEquals("u4pruydqqvj", SpatialEnrichmentCache.geohash(57.64911, 10.40744, 11));
+    }
+
+    @Test
+    public void cellIsServedAfterTwoAgreeingAnswers() {
+        SpatialEnrichmentCache cache = new SpatialEnrichmentCache();
+
+        cache.put(57.649110, 10.407440, null, null, response(Arrays.asList(area("SWE"), area("EU")), new ArrayList<>()));
+        assertNull(cache.get(57.649110, 10.407440, null, null));
+
+        cache.put(57.649111, 10.407441, null, null, response(Arrays.asList(area("SWE"), area("EU")), new ArrayList<>()));
+        AreaTransitionsDTO cached = cache.get(57.649112, 10.407442, null, null);
+        assertNotNull(cached);
+        assertEquals(2, cached.getSpatialEnrichmentRS().getAreasByLocation().getAreas().size());
+        assertEquals(2, cached.getEnteredAreas().size());
+    }
+
+    @Test
+    public void boundaryCellIsNotServed() {
+        SpatialEnrichmentCache cache = new SpatialEnrichmentCache();
+
+        cache.put(57.649110, 10.407440, null, null, response(Arrays.asList(area("SWE"), area("EU")), new ArrayList<>()));
+        cache.put(57.649111, 10.407441, null, null, response(Arrays.asList(area("EU")), new ArrayList<>()));
+
+        assertNull(cache.get(57.649112, 10.407442, null, null));
+    }
+
+    @Test
+    public void transitionsAreDerivedFromCells() {
+        SpatialEnrichmentCache cache = new SpatialEnrichmentCache();
+        for (double offset : new double[] {0, 0.000001}) {
+            cache.put(57.649110 + offset, 10.407440, null, null, response(Arrays.asList(area("SWE"), area("EU")), new ArrayList<>()));
+            cache.put(10.000000 + offset, 10.000000, 57.649110 + offset, 10.407440,
+                    response(Arrays.asList(area("EU")), Arrays.asList(area("SWE"))));
+        }
+
+        AreaTransitionsDTO cached = cache.get(10.000002, 10.000000, 57.649112, 10.407440);
+        assertNotNull(cached);
+        assertEquals(0, cached.getEnteredAreas().size());
+        assertEquals(1, cached.getExitedAreas().size());
+        assertEquals("SWE", cached.getExitedAreas().get(0).getCode());
+    }
+
+    private AreaTransitionsDTO response(List<AreaExtendedIdentifierType> areas, List<AreaExtendedIdentifierType> exitedAreas) {
+        SpatialEnrichmentRS spatialEnrichmentRS = new SpatialEnrichmentRS();
+        AreasByLocationType areasByLocation = new AreasByLocationType();
+        areasByLocation.setAreas(new ArrayList<>(areas));
+        spatialEnrichmentRS.setAreasByLocation(areasByLocation);
+        spatialEnrichmentRS.setClosestAreas(new ClosestAreasType(new ArrayList<>()));
+        AreaTransitionsDTO areaTransitions = new AreaTransitionsDTO();
+        areaTransitions.setSpatialEnrichmentRS(spatialEnrichmentRS);
+        areaTransitions.setEnteredAreas(new ArrayList<>());
+        areaTransitions.setExitedAreas(new ArrayList<>(exitedAreas));
+        return areaTransitions;
+    }
+
+    private AreaExtendedIdentifierType area(String code) {
+        AreaExtendedIdentifierType area = new AreaExtendedIdentifierType();
+        area.setId(code);
+        area.setCode(code);
+        area.setAreaType(AreaType.EEZ);
+        return area;
+    }
+}
@@ -0,0 +1,56 @@
+/*
+﻿Developed with the contribution of the European Commission - Directorate General for Maritime Affairs and Fisheries
+© European Union, 2015-2016.
+
+This file is part of the Integrated Fisheries Data Management (IFDM) Suite. The IFDM Suite is free software: you can
+redistribute it and/or modify it under the terms of the GNU General Public License as published by the
+Free Software Foundation, either version 3 of the License, or any later version. The IFDM Suite is distributed in
+the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details. You should have received a
+copy of the GNU General Public License along with the IFDM Suite. If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.europa.ec.fisheries.uvms.movementrules.service.business;
+
+import static org.junit.Assert.assertEquals;
+import java.util.EnumSet;
+import org.junit.Test;
+import eu.europa.ec.fisheries.schema.movementrules.customrule.v1.SubCriteriaType;
+import eu.europa.ec.fisheries.uvms.movementrules.service.entity.CustomRule;
+import eu.europa.ec.fisheries.uvms.movementrules.service.entity.RuleSegment;
+
+public class SpatialEnrichmentTest {
+
+    @Test
+    public void nonAreaRuleOnlyRequiresAreasTest() {
+        assertEquals(EnumSet.of(SpatialEnrichment.AREAS), SpatialEnrichment.requiredBy(rule(SubCriteriaType.FLAG_STATE)));
+    }
+
+    @Test
+    public void transitionRuleRequiresTransitionsTest() {
+        assertEquals(EnumSet.of(SpatialEnrichment.AREAS, SpatialEnrichment.TRANSITIONS),
+                SpatialEnrichment.requiredBy(rule(SubCriteriaType.FLAG_STATE, SubCriteriaType.AREA_CODE_ENT)));
+    }
+
+    @Test
+    public void vmsTransitionRuleRequiresVMSTransitionsTest() {
+        assertEquals(EnumSet.of(SpatialEnrichment.AREAS, SpatialEnrichment.VMS_TRANSITIONS),
+                SpatialEnrichment.requiredBy(rule(SubCriteriaType.AREA_TYPE_VMS_EXT)));
+    }
+
+    @Test
+    public void unknownSubCriteriaRequiresEverythingTest() {
+        CustomRule customRule = rule(SubCriteriaType.FLAG_STATE);
+        customRule.getRuleSegmentList().get(0).setSubCriteria("NOT_A_SUB_CRITERIA");
+        assertEquals(SpatialEnrichment.ALL, SpatialEnrichment.requiredBy(customRule));
+    }
+
+    private CustomRule rule(SubCriteriaType... subCriteria) {
+        CustomRule customRule = new CustomRule();
+        for (SubCriteriaType type : subCriteria) {
+            RuleSegment segment = new RuleSegment();
+            segment.setSubCriteria(type.value());
+            customRule.getRuleSegmentList().add(segment);
+        }
+        return customRule;
+    }
+}
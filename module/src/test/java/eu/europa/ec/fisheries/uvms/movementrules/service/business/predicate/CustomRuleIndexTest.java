@@ -0,0 +1,78 @@
+/*
+﻿Developed with the contribution of the European Commission - Directorate General for Maritime Affairs and Fisheries
+© European Union, 2015-2016.
+
+This file is part of the Integrated Fisheries Data Management (IFDM) Suite. The IFDM Suite is free software: you can
+redistribute it and/or modify it under the terms of the GNU General Public License as published by the
+Free Software Foundation, either version 3 of the License, or any later version. The IFDM Suite is distributed in
+the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details. You should have received a
+copy of the GNU General Public License along with the IFDM Suite. If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.europa.ec.fisheries.uvms.movementrules.service.business.predicate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.UUID;
+import org.junit.Test;
+import eu.europa.ec.fisheries.schema.movementrules.customrule.v1.ConditionType;
+import eu.europa.ec.fisheries.schema.movementrules.customrule.v1.CriteriaType;
+import eu.europa.ec.fisheries.schema.movementrules.customrule.v1.LogicOperatorType;
+import eu.europa.ec.fisheries.schema.movementrules.customrule.v1.SubCriteriaType;
+import eu.europa.ec.fisheries.uvms.movementrules.model.dto.MovementDetails;
+import eu.europa.ec.fisheries.uvms.movementrules.service.entity.CustomRule;
+import eu.europa.ec.fisheries.uvms.movementrules.service.entity.RuleSegment;
+
+public class CustomRuleIndexTest {
+
+    @Test
+    public void candidatesAreFilteredOnGatesTest() {
+        CompiledCustomRule swedish = compile(segment(SubCriteriaType.FLAG_STATE, ConditionType.EQ, "SWE", LogicOperatorType.AND),
+                segment(SubCriteriaType.REPORTED_SPEED, ConditionType.GT, "5", LogicOperatorType.NONE));
+        CompiledCustomRule nordic = compile(segment(SubCriteriaType.FLAG_STATE, ConditionType.EQ, "SWE", LogicOperatorType.OR),
+                segment(SubCriteriaType.FLAG_STATE, ConditionType.EQ, "DNK", LogicOperatorType.NONE));
+        CompiledCustomRule inArea = compile(segment(SubCriteriaType.AREA_CODE, ConditionType.EQ, "EEZ", LogicOperatorType.NONE));
+        CompiledCustomRule notSwedish = compile(segment(SubCriteriaType.FLAG_STATE, ConditionType.NE, "SWE", LogicOperatorType.NONE));
+        CompiledCustomRule swedishOrFast = compile(segment(SubCriteriaType.FLAG_STATE, ConditionType.EQ, "SWE", LogicOperatorType.OR),
+                segment(SubCriteriaType.REPORTED_SPEED, ConditionType.GT, "5", LogicOperatorType.NONE));
+
+        CustomRuleIndex index = new CustomRuleIndex(Arrays.asList(swedish, nordic, inArea, notSwedish, swedishOrFast));
+        assertEquals(5, index.size());
+
+        MovementDetails movement = new MovementDetails();
+        movement.setFlagState("DNK");
+        Collection<CompiledCustomRule> candidates = index.candidates(movement);
+        assertEquals(3, candidates.size());
+        assertTrue(candidates.containsAll(Arrays.asList(nordic, notSwedish, swedishOrFast)));
+
+        movement.setAreaCodes(Arrays.asList("EEZ", "DNK", "EEZ"));
+        candidates = index.candidates(movement);
+        assertEquals(4, candidates.size());
+        assertTrue(candidates.contains(inArea));
+    }
+
+    private CompiledCustomRule compile(RuleSegment... segments) {
+        CustomRule customRule = new CustomRule();
+        customRule.setName("DummyName");
+        customRule.setGuid(UUID.randomUUID());
+        for (RuleSegment segment : segments) {
+            segment.setOrder(customRule.getRuleSegmentList().size());
+            customRule.getRuleSegmentList().add(segment);
+        }
+        return CustomRulePredicateCompiler.compile(customRule);
+    }
+
+    private RuleSegment segment(SubCriteriaType subCriteria, ConditionType condition, String value, LogicOperatorType logicOperator) {
+        RuleSegment segment = new RuleSegment();
+        segment.setStartOperator("");
+        segment.setCriteria(CriteriaType.ASSET.value());
+        segment.setSubCriteria(subCriteria.value());
+        segment.setCondition(condition.value());
+        segment.setValue(value);
+        segment.setEndOperator("");
+        segment.setLogicOperator(logicOperator.value());
+        return segment;
+    }
+}
@@ -0,0 +1,144 @@
+/*
+﻿Developed with the contribution of the European Commission - Directorate General for Maritime Affairs and Fisheries
+© European Union, 2015-2016.
+
+This file is part of the Integrated Fisheries Data Management (IFDM) Suite. The IFDM Suite is free software: you can
+redistribute it and/or modify it under the terms of the GNU General Public License as published by the
+Free Software Foundation, either version 3 of the License, or any later version. The IFDM Suite is distributed in
+the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details. You should have received a
+copy of the GNU General Public License along with the IFDM Suite. If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.europa.ec.fisheries.uvms.movementrules.service.business.predicate;
+
+import static org.junit.Assert.assertEquals;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.UUID;
+import org.junit.Test;
+import eu.europa.ec.fisheries.schema.movementrules.customrule.v1.ActionType;
+import eu.europa.ec.fisheries.schema.movementrules.customrule.v1.ConditionType;
+import eu.europa.ec.fisheries.schema.movementrules.customrule.v1.CriteriaType;
+import eu.europa.ec.fisheries.schema.movementrules.customrule.v1.LogicOperatorType;
+import eu.europa.ec.fisheries.schema.movementrules.customrule.v1.SubCriteriaType;
+import eu.europa.ec.fisheries.uvms.movementrules.model.dto.MovementDetails;
+import eu.europa.ec.fisheries.uvms.movementrules.model.dto.VicinityInfoDTO;
+import eu.europa.ec.fisheries.uvms.movementrules.service.entity.CustomRule;
+import eu.europa.ec.fisheries.uvms.movementrules.service.entity.Interval;
+import eu.europa.ec.fisheries.uvms.movementrules.service.entity.RuleAction;
+import eu.europa.ec.fisheries.uvms.movementrules.service.entity.RuleSegment;
+
+public class CustomRulePredicateCompilerTest {
+
+    @Test
+    public void orAndIntervalTest() {
+        CustomRule customRule = createCustomRule();
+        addSegment(customRule, "(", CriteriaType.ASSET, SubCriteriaType.ASSET_CFR, ConditionType.EQ, "\"SWE111111\"", "", LogicOperatorType.OR);
+        addSegment(customRule, "", CriteriaType.ASSET, SubCriteriaType.ASSET_CFR, ConditionType.EQ, "SWE222222", ")", LogicOperatorType.AND);
+        addSegment(customRule, "", CriteriaType.MOBILE_TERMINAL, SubCriteriaType.MT_MEMBER_ID, ConditionType.EQ, "ABC99", "", LogicOperatorType.NONE);
+        Interval interval = new Interval();
+        interval.setStart(Instant.parse("2019-01-01T00:00:00Z"));
+        interval.setEnd(Instant.parse("2019-12-31T00:00:00Z"));
+        customRule.getIntervals().add(interval);
+
+        CompiledCustomRule compiled = CustomRulePredicateCompiler.compile(customRule);
+
+        MovementDetails movement = new MovementDetails();
+        movement.setCfr("SWE222222");
+        movement.setMobileTerminalMemberNumber("ABC99");
+        movement.setPositionTime(Instant.parse("2019-06-01T00:00:00Z"));
+        assertEquals(1, compiled.activations(movement));
+        assertEquals("EMAIL,,user@company.se;", compiled.getActionPlan().toString());
+
+        movement.setPositionTime(Instant.parse("2020-06-01T00:00:00Z"));
+        assertEquals(0, compiled.activations(movement));
+
+        movement.setPositionTime(Instant.parse("2019-06-01T00:00:00Z"));
+        movement.setMobileTerminalMemberNumber(null);
+        assertEquals(0, compiled.activations(movement));
+    }
+
+    @Test
+    public void orTriggersOncePerMatchingBranchTest() {
+        CustomRule customRule = createCustomRule();
+        addSegment(customRule, "", CriteriaType.ASSET, SubCriteriaType.FLAG_STATE, ConditionType.EQ, "SWE", "", LogicOperatorType.OR);
+        addSegment(customRule, "", CriteriaType.POSITION, SubCriteriaType.REPORTED_SPEED, ConditionType.GT, "5", "", LogicOperatorType.NONE);
+
+        CompiledCustomRule compiled = CustomRulePredicateCompiler.compile(customRule);
+
+        MovementDetails movement = new MovementDetails();
+        movement.setFlagState("SWE");
+        assertEquals(1, compiled.activations(movement));
+        movement.setReportedSpeed(5.5);
+        assertEquals(2, compiled.activations(movement));
+    }
+
+    @Test
+    public void areaNotEqualTest() {
+        CustomRule customRule = createCustomRule();
+        addSegment(customRule, "", CriteriaType.AREA, SubCriteriaType.AREA_CODE, ConditionType.NE, "SWE", "", LogicOperatorType.NONE);
+
+        CompiledCustomRule compiled = CustomRulePredicateCompiler.compile(customRule);
+
+        MovementDetails movement = new MovementDetails();
+        movement.setAreaCodes(Arrays.asList("DNK", "EEZ"));
+        assertEquals(1, compiled.activations(movement));
+        movement.setAreaCodes(Arrays.asList("DNK", "SWE"));
+        assertEquals(0, compiled.activations(movement));
+    }
+
+    @Test
+    public void vicinityTriggersOncePerMatchingVesselTest() {
+        CustomRule customRule = createCustomRule();
+        addSegment(customRule, "", CriteriaType.POSITION, SubCriteriaType.VICINITY_DISTANCE_OF, ConditionType.LT, "100", "", LogicOperatorType.NONE);
+
+        CompiledCustomRule compiled = CustomRulePredicateCompiler.compile(customRule);
+
+        MovementDetails movement = new MovementDetails();
+        assertEquals(0, compiled.activations(movement));
+        movement.setVicinityOf(Arrays.asList(
+                new VicinityInfoDTO(UUID.randomUUID(), UUID.randomUUID(), 50),
+                new VicinityInfoDTO(UUID.randomUUID(), UUID.randomUUID(), 150),
+                new VicinityInfoDTO(UUID.randomUUID(), UUID.randomUUID(), 99)));
+        assertEquals(2, compiled.activations(movement));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void greaterThanOnListIsRejectedTest() {
+        CustomRule customRule = createCustomRule();
+        addSegment(customRule, "", CriteriaType.AREA, SubCriteriaType.AREA_CODE, ConditionType.GT, "SWE", "", LogicOperatorType.NONE);
+        CustomRulePredicateCompiler.compile(customRule);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unbalancedParenthesesAreRejectedTest() {
+        CustomRule customRule = createCustomRule();
+        addSegment(customRule, "((", CriteriaType.ASSET, SubCriteriaType.FLAG_STATE, ConditionType.EQ, "SWE", ")", LogicOperatorType.NONE);
+        CustomRulePredicateCompiler.compile(customRule);
+    }
+
+    private CustomRule createCustomRule() {
+        CustomRule customRule = new CustomRule();
+        customRule.setName("DummyName");
+        customRule.setGuid(UUID.randomUUID());
+        RuleAction action = new RuleAction();
+        action.setAction(ActionType.EMAIL.value());
+        action.setValue("user@company.se");
+        customRule.getRuleActionList().add(action);
+        return customRule;
+    }
+
+    private void addSegment(CustomRule customRule, String startOperator, CriteriaType criteria, SubCriteriaType subCriteria,
+                            ConditionType condition, String value, String endOperator, LogicOperatorType logicOperator) {
+        RuleSegment segment = new RuleSegment();
+        segment.setStartOperator(startOperator);
+        segment.setCriteria(criteria.value());
+        segment.setSubCriteria(subCriteria.value());
+        segment.setCondition(condition.value());
+        segment.setValue(value);
+        segment.setEndOperator(endOperator);
+        segment.setLogicOperator(logicOperator.value());
+        segment.setOrder(customRule.getRuleSegmentList().size());
+        customRule.getRuleSegmentList().add(segment);
+    }
+}
@@ -8,6 +8,10 @@ import eu.europa.ec.fisheries.uvms.commons.message.api.MessageConstants;
 import eu.europa.ec.fisheries.uvms.movementrules.model.dto.MovementDetails;
 import eu.europa.ec.fisheries.uvms.movementrules.model.mapper.JAXBMarshaller;
 import eu.europa.ec.fisheries.uvms.movementrules.service.BuildRulesServiceDeployment;
+import eu.europa.ec.fisheries.uvms.movementrules.service.RulesTestHelper;
+import eu.europa.ec.fisheries.uvms.movementrules.service.bean.RulesServiceBean;
+import eu.europa.ec.fisheries.uvms.movementrules.service.entity.CustomRule;
+import eu.europa.ec.fisheries.uvms.movementrules.service.entity.RuleSegment;
 import eu.europa.ec.fisheries.uvms.movementrules.service.message.JMSHelper;
 import org.jboss.arquillian.container.test.api.OperateOnDeployment;
 import org.jboss.arquillian.container.test.api.RunAsClient;
@@ -17,23 +21,28 @@ import org.junit.Ignore;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import javax.inject.Inject;
 import javax.jms.Message;
 import javax.jms.TextMessage;
 import javax.json.bind.Jsonb;
 import javax.json.bind.JsonbBuilder;
 import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
 import java.util.UUID;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.notNullValue;
 import static org.junit.Assert.assertThat;
 
-@RunAsClient
 @RunWith(Arquillian.class)
 public class RulesEventMessageConsumerBeanTest extends BuildRulesServiceDeployment {
 
     private JMSHelper jmsHelper = new JMSHelper();
 
+    @Inject
+    private RulesServiceBean rulesService;
+
     @Before
     public void clearExchangeQueue() throws Exception {
 
@@ -42,6 +51,7 @@ public class RulesEventMessageConsumerBeanTest extends BuildRulesServiceDeployme
     }
 
     @Test
+    @RunAsClient
     @OperateOnDeployment("normal")
     public void pingTest() throws Exception {
         final String RESPONSE_QUEUE = "IntegrationTestsResponseQueue";
@@ -59,6 +69,7 @@ public class RulesEventMessageConsumerBeanTest extends BuildRulesServiceDeployme
     // Sanity test
     @Ignore
     @Test
+    @RunAsClient
     @OperateOnDeployment("normal")
     public void evaluateCustomRulesVoidTest() throws Exception {
         MovementDetails movementDetails = new MovementDetails();
@@ -80,4 +91,41 @@ public class RulesEventMessageConsumerBeanTest extends BuildRulesServiceDeployme
         // wait for message to be processed
         Thread.sleep(5000);
     }
+
+    @Test
+    @OperateOnDeployment("normal")
+    public void evaluateRulesBatchSkipsMalformedEntryTest() throws Exception {
+        CustomRule customRule = RulesTestHelper.createBasicCustomRule();
+        RuleSegment segment = new RuleSegment();
+        segment.setCriteria("ASSET");
+        segment.setSubCriteria("FLAG_STATE");
+        segment.setCondition("EQ");
+        segment.setValue("SWE");
+        segment.setLogicOperator("NONE");
+        segment.setCustomRule(customRule);
+        segment.setOrder(0);
+        customRule.getRuleSegmentList().add(segment);
+        CustomRule createdCustomRule = rulesService.createCustomRule(customRule, "", "");
+
+        try {
+            JsonBConfigurator configurator = new JsonBConfigurator();
+            Jsonb jsonb = configurator.getContext(null);
+            MovementDetails first = RulesTestHelper.createBasicMovementDetails();
+            first.setFlagState("SWE");
+            MovementDetails last = RulesTestHelper.createBasicMovementDetails();
+            last.setFlagState("SWE");
+            String batch = "[" + jsonb.toJson(first) + ",{\"latitude\":\"not a number\"}," + jsonb.toJson(last) + "]";
+            jmsHelper.sendMessageToRules(batch, RulesModuleMethod.EVALUATE_RULES_BATCH.value(), MessageConstants.QUEUE_EXCHANGE_EVENT_NAME);
+
+            List<String> movementGuids = Arrays.asList(first.getMovementGuid(), last.getMovementGuid());
+            long tickets = 0;
+            for (int i = 0; i < 50 && tickets < 2; i++) {
+                Thread.sleep(100);
+                tickets = rulesService.countTicketsByMovements(movementGuids);
+            }
+            assertThat(tickets, is(2L));
+        } finally {
+            rulesService.deleteCustomRule(createdCustomRule.getGuid().toString(), "Test", "", "");
+        }
+    }
 }